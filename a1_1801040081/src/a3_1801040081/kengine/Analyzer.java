@@ -0,0 +1,252 @@
+package a3_1801040081.kengine;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview An analyzer turns the words of documents and queries into their 
+ *           canonical forms, which are the keys of a <code>WordTable</code>, 
+ *           by passing each word through a chain of <code>TokenFilter</code>s 
+ *           in order. A word that is dropped by a filter has no canonical 
+ *           form.
+ *
+ *           The canonical forms of recent words are kept in a bounded cache, 
+ *           so that a frequent word is analyzed once and then found without 
+ *           creating any objects. The cache has a fixed number of slots, each 
+ *           of which holds the last word that was analyzed in it.
+ *
+ *           <code>STANDARD</code> only uses <code>LOWER_CASE</code>, which 
+ *           gives the canonical forms of <code>Helpers.canon</code>; the 
+ *           other filters change which words match each other, so an index 
+ *           must be searched with the analyzer that built it.
+ *
+ *           An analyzer is safe for use by multiple threads.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+public class Analyzer {
+  static final int DEFAULT_CACHE_SIZE = 1 << 14;
+
+  /** lower-cases a word as by <code>Helpers.canon</code> */
+  public static final TokenFilter LOWER_CASE = new TokenFilter() {
+    public boolean filter(StringBuilder w) {
+      char c;
+      for (int i = 0; i < w.length(); i++) {
+        c = w.charAt(i);
+        if (c >= 0x80) {
+          // not ASCII: as String.toLowerCase
+          String s = w.toString().toLowerCase();
+          w.setLength(0);
+          w.append(s);
+          return true;
+        }
+        if (c >= 'A' && c <= 'Z')
+          w.setCharAt(i, (char) (c + ('a' - 'A')));
+      }
+      return true;
+    }
+  };
+
+  /**
+   * removes the characters that are not letters or digits from the start and 
+   * the end of a word, and drops the word if none are left
+   */
+  public static final TokenFilter STRIP_PUNCTUATION = new TokenFilter() {
+    public boolean filter(StringBuilder w) {
+      int e = w.length();
+      while (e > 0 && !Character.isLetterOrDigit(w.charAt(e - 1)))
+        e--;
+      int s = 0;
+      while (s < e && !Character.isLetterOrDigit(w.charAt(s)))
+        s++;
+      w.setLength(e);
+      w.delete(0, s);
+      return e > s;
+    }
+  };
+
+  /**
+   * removes the plural endings of a lower-case word of more than three 
+   * letters, as by the S-stemmer of Harman: <code>"ies"</code> becomes 
+   * <code>"y"</code> unless after <code>'e'</code> or <code>'a'</code>, 
+   * <code>"es"</code> becomes <code>"e"</code> unless after 
+   * <code>'a'</code>, <code>'e'</code> or <code>'o'</code>, and a final 
+   * <code>'s'</code> is removed unless after <code>'u'</code> or 
+   * <code>'s'</code>
+   */
+  public static final TokenFilter LIGHT_STEM = new TokenFilter() {
+    public boolean filter(StringBuilder w) {
+      int n = w.length();
+      if (n <= 3 || w.charAt(n - 1) != 's')
+        return true;
+
+      char c2 = w.charAt(n - 2), c3 = w.charAt(n - 3);
+      if (c2 == 'e' && c3 == 'i') {
+        if (w.charAt(n - 4) != 'e' && w.charAt(n - 4) != 'a') {
+          w.setLength(n - 3);
+          w.append('y');
+        }
+      } else if (c2 == 'e') {
+        if (c3 != 'a' && c3 != 'e' && c3 != 'o')
+          w.setLength(n - 1);
+      } else if (c2 != 'u' && c2 != 's') {
+        w.setLength(n - 1);
+      }
+      return true;
+    }
+  };
+
+  /** the analyzer of <code>WordTable</code>s that are not given one */
+  public static final Analyzer STANDARD = new Analyzer(
+      new TokenFilter[] { LOWER_CASE }, DEFAULT_CACHE_SIZE);
+
+  // the scratch words of the threads that analyze words
+  private static final ThreadLocal<StringBuilder> SCRATCH = new ThreadLocal<StringBuilder>() {
+    protected StringBuilder initialValue() {
+      return new StringBuilder();
+    }
+  };
+
+  // stands for a word that is dropped, in the cache
+  private static final String DROPPED = new String();
+
+  private final TokenFilter[] filters;
+  // slot i holds an entry whose word hashes to i, or null; an entry is 
+  // immutable, so it can be replaced without locking
+  private final Entry[] cache;
+  private final int mask;
+
+  /**
+   * Constructor method
+   *
+   * @param filters
+   *          the filters of the chain, in order
+   * @param cacheSize
+   *          the number of cached words, which is rounded up to a power of 2
+   * @effects if <code>filters</code> is <code>null</code> or contains 
+   *          <code>null</code>, or <code>cacheSize &lt; 1</code> throws 
+   *          <code>NotPossibleException</code>, else initialises 
+   *          <code>this</code> to analyze words with <code>filters</code>
+   */
+  public Analyzer(TokenFilter[] filters, int cacheSize)
+      throws NotPossibleException {
+    if (filters == null || cacheSize < 1)
+      throw new NotPossibleException("Analyzer.init: invalid filters or cache size "
+          + cacheSize);
+    for (int i = 0; i < filters.length; i++) {
+      if (filters[i] == null)
+        throw new NotPossibleException("Analyzer.init: filter " + i + " is null");
+    }
+
+    this.filters = filters.clone();
+    int n = Integer.highestOneBit(Math.min(cacheSize, 1 << 30));
+    if (n < cacheSize)
+      n <<= 1;
+    cache = new Entry[n];
+    mask = n - 1;
+  }
+
+  /**
+   * @effects if <code>nonkeys</code> cannot be obtained throws 
+   *          <code>NotPossibleException</code>, else returns a filter that 
+   *          drops the words of <code>StopWords.getInstance()</code>, which 
+   *          are in the canonical form of <code>Helpers.canon</code>; it is 
+   *          used before the filters that change the words further, such as 
+   *          <code>LIGHT_STEM</code>
+   */
+  public static TokenFilter stopWords() throws NotPossibleException {
+    final StopWords nonkeys = StopWords.getInstance();
+    return new TokenFilter() {
+      public boolean filter(StringBuilder w) {
+        return !nonkeys.contains(w.toString());
+      }
+    };
+  }
+
+  /**
+   * @effects returns the analyzer whose chain is <code>LOWER_CASE</code>, 
+   *          <code>STRIP_PUNCTUATION</code>, <code>stopWords()</code> and, if 
+   *          <code>stem</code>, <code>LIGHT_STEM</code>, or throws 
+   *          <code>NotPossibleException</code> if the stop words cannot be 
+   *          obtained
+   */
+  public static Analyzer english(boolean stem) throws NotPossibleException {
+    TokenFilter[] fs = stem 
+        ? new TokenFilter[] { LOWER_CASE, STRIP_PUNCTUATION, stopWords(), LIGHT_STEM }
+        : new TokenFilter[] { LOWER_CASE, STRIP_PUNCTUATION, stopWords() };
+    return new Analyzer(fs, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * @requires <code>w</code> is not <code>null</code>
+   * @effects if <code>w</code> is dropped by a filter of <code>this</code> 
+   *          returns <code>null</code>, else returns the canonical form of 
+   *          <code>w</code>
+   */
+  public String analyze(String w) {
+    return analyze(w.toCharArray(), 0, w.length());
+  }
+
+  /**
+   * @requires <code>0 &lt;= off &lt;= off + len &lt;= buf.length</code>
+   * @effects returns <code>analyze(new String(buf, off, len))</code>, 
+   *          without creating any objects if the word is cached
+   */
+  String analyze(char[] buf, int off, int len) {
+    int h = 0;
+    for (int i = off; i < off + len; i++)
+      h = 31 * h + buf[i];
+    int slot = (h ^ (h >>> 16)) & mask;
+
+    Entry e = cache[slot];
+    if (e == null || e.hash != h || !e.matches(buf, off, len)) {
+      e = new Entry(h, buf, off, len, filter(buf, off, len));
+      cache[slot] = e;
+    }
+
+    return (e.canon != DROPPED) ? e.canon : null;
+  }
+
+  /**
+   * @effects returns the canonical form of <code>buf[off..off+len-1]</code>, 
+   *          or <code>DROPPED</code> if it is dropped
+   */
+  private String filter(char[] buf, int off, int len) {
+    StringBuilder w = SCRATCH.get();
+    w.setLength(0);
+    w.append(buf, off, len);
+    for (int i = 0; i < filters.length; i++) {
+      if (!filters[i].filter(w))
+        return DROPPED;
+    }
+
+    return w.toString();
+  }
+
+  /**
+   * @overview A word and its canonical form.
+   */
+  private static class Entry {
+    final int hash;
+    final char[] word;
+    final String canon;
+
+    Entry(int hash, char[] buf, int off, int len, String canon) {
+      this.hash = hash;
+      word = new char[len];
+      System.arraycopy(buf, off, word, 0, len);
+      this.canon = canon;
+    }
+
+    boolean matches(char[] buf, int off, int len) {
+      if (word.length != len)
+        return false;
+      for (int i = 0; i < len; i++) {
+        if (word[i] != buf[off + i])
+          return false;
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package a3_1801040081.kengine;
+
+import java.util.Iterator;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview A check of the canonical forms of words found by analyzers.
+ *
+ *           <code>Analyzer.STANDARD</code> is checked against the canonical
+ *           forms of words before analyzers were introduced, which were
+ *           <code>String.toLowerCase</code>; the other filters and
+ *           <code>Analyzer.english</code> are checked against the expected
+ *           forms of some words. Run with the URL of a web site, e.g.
+ *           <code>file:///path/to/docs</code>, to also check
+ *           <code>Analyzer.STANDARD</code> on all the words of its
+ *           documents.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+class AnalyzerTest {
+  private static final String[] WORDS = { "Hello", "hello", "HELLO,",
+      "(Customers)", "Customer", "nguyen", "Saigon", "the", "Stra\u00dfe",
+      "\u0130stanbul", "--", "", "X" };
+
+  private static int checks, fails;
+
+  public static void main(String[] args) throws NotPossibleException {
+    // the keys, and so the query results, are those of String.toLowerCase
+    Analyzer std = Analyzer.STANDARD;
+    for (int i = 0; i < WORDS.length; i++)
+      check(std, WORDS[i], WORDS[i].toLowerCase());
+
+    if (args.length > 0) {
+      for (Iterator docs = Comm.getDocs(args[0]); docs.hasNext();) {
+        for (Iterator ws = ((Doc) docs.next()).words(); ws.hasNext();) {
+          String w = (String) ws.next();
+          check(std, w, w.toLowerCase());
+        }
+      }
+    }
+
+    Analyzer strip = new Analyzer(
+        new TokenFilter[] { Analyzer.STRIP_PUNCTUATION }, 16);
+    check(strip, "(Customers)", "Customers");
+    check(strip, "HELLO,", "HELLO");
+    check(strip, "C++", "C");
+    check(strip, "it's", "it's");
+    check(strip, "--", null);
+    check(strip, "", null);
+
+    Analyzer stem = new Analyzer(new TokenFilter[] { Analyzer.LIGHT_STEM }, 16);
+    check(stem, "customers", "customer");
+    check(stem, "queries", "query");
+    check(stem, "keys", "key");
+    check(stem, "boxes", "boxe");
+    check(stem, "shoes", "shoes");
+    check(stem, "status", "status");
+    check(stem, "class", "class");
+    check(stem, "gas", "gas");
+
+    // the stop words are dropped before they are stemmed
+    Analyzer english = Analyzer.english(true);
+    check(english, "Customers,", "customer");
+    check(english, "queries", "query");
+    check(english, "the", null);
+    check(english, "This", null);
+    check(english, "(these)", null);
+    check(english, "--", null);
+
+    Analyzer plain = Analyzer.english(false);
+    check(plain, "Customers,", "customers");
+    check(plain, "the", null);
+
+    System.out.println("checks: " + checks + ", failed: " + fails);
+    if (fails > 0)
+      System.exit(1);
+  }
+
+  /**
+   * @effects checks that both ways of analyzing <code>w</code> by
+   *          <code>a</code>, twice so that the second is cached, give
+   *          <code>expected</code>, and prints the failed checks
+   */
+  private static void check(Analyzer a, String w, String expected) {
+    char[] buf = ("." + w + ".").toCharArray();
+    String[] got = { a.analyze(w), a.analyze(buf, 1, w.length()),
+        a.analyze(w), a.analyze(buf, 1, w.length()) };
+
+    checks++;
+    for (int i = 0; i < got.length; i++) {
+      if (expected == null ? got[i] != null : !expected.equals(got[i])) {
+        fails++;
+        System.out.println("failed: " + w + " -> " + got[i] + ", expected "
+            + expected);
+        return;
+      }
+    }
+  }
+}
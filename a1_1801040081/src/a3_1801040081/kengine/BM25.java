@@ -0,0 +1,78 @@
+package a3_1801040081.kengine;
+
+/**
+ * @overview Computes the Okapi BM25 relevance score of a keyword in a 
+ *           document:
+ *           <pre>
+ *   idf(k) * tf * (K1 + 1) / (tf + K1 * (1 - B + B * dl / avgdl))
+ *           </pre>
+ *           where <code>tf</code> is the number of occurrences of 
+ *           <code>k</code> in the document, <code>dl</code> is the number of 
+ *           words of the document, <code>avgdl</code> is the average of 
+ *           <code>dl</code> over all documents and 
+ *           <code>idf(k) = ln(1 + (N - df + 0.5) / (df + 0.5))</code>, where 
+ *           <code>N</code> is the number of documents and <code>df</code> the 
+ *           number of documents that contain <code>k</code>.
+ *           
+ *           The statistics are read from a <code>WordTable</code> when a 
+ *           scorer is created, so that they are the same for all the 
+ *           documents scored by it.
+ * 
+ * @version 1.0
+ * @author agent
+ *
+ */
+class BM25 {
+  static final double K1 = 1.2;
+  static final double B = 0.75;
+
+  private final WordTable wt;
+  private final int numDocs;
+  private final double avgDocLength;
+
+  /**
+   * Constructor method
+   * 
+   * @effects initialises <code>this</code> to score the documents of 
+   *          <code>wt</code> using its current statistics
+   */
+  BM25(WordTable wt) {
+    this.wt = wt;
+    numDocs = Math.max(wt.numDocs(), 1);
+    avgDocLength = Math.max(wt.avgDocLength(), 1);
+  }
+
+  /**
+   * @effects returns the inverse document frequency of <code>k</code>
+   */
+  double idf(String k) {
+    int df = wt.docFreq(k);
+    return Math.log(1 + (numDocs - df + 0.5) / (df + 0.5));
+  }
+
+  /**
+   * @param idf
+   *          the inverse document frequency of a keyword
+   * @param tf
+   *          the number of occurrences of the keyword in a document
+   * @param docLength
+   *          the number of words of the document
+   * @effects returns the score of the keyword in the document
+   */
+  double score(double idf, int tf, int docLength) {
+    double norm = K1 * (1 - B + B * docLength / avgDocLength);
+    return idf * tf * (K1 + 1) / (tf + norm);
+  }
+
+  /**
+   * @param idf
+   *          the inverse document frequency of a keyword
+   * @param maxTf
+   *          the largest number of occurrences of the keyword in a document
+   * @effects returns an upper bound of the score of the keyword in any 
+   *          document, which is its score in an empty document
+   */
+  double maxScore(double idf, int maxTf) {
+    return score(idf, maxTf, 0);
+  }
+}
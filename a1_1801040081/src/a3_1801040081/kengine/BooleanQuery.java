@@ -0,0 +1,766 @@
+package a3_1801040081.kengine;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview A boolean combination of keywords, parsed from a query string of
+ *           the form:
+ *           <pre>
+ *   expr  ::= and ("OR" and)*
+ *   and   ::= unary (["AND"] unary)*
+ *   unary ::= "NOT" unary | "(" expr ")" | word
+ *           </pre>
+ *           The operators are written in upper case; clauses that are next to
+ *           each other without an operator are ANDed, e.g.
+ *           <code>nguyen (van OR le) NOT hanoi</code>.
+ *
+ *           A parsed query is planned before it is evaluated:
+ *           <ul>
+ *           <li>nested ANDs and ORs are flattened and double negations are
+ *           removed,
+ *           <li>a NOT clause of an AND is evaluated as a set difference: its
+ *           postings are only probed for the documents that match the other
+ *           clauses of the AND. A NOT that is not part of an AND with some
+ *           other clause has no finite result, so it is rejected,
+ *           <li>the clauses of an AND are ordered by their estimated number of
+ *           documents (the document frequency of a keyword, the smallest of
+ *           the clauses of an AND and the sum of the clauses of an OR), so
+ *           that the intersection is driven by the smallest clause.
+ *           </ul>
+ *
+ *           The count of a matching document is the sum of the counts of the
+ *           keywords of the clauses that it satisfies; NOT clauses do not
+ *           count.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+class BooleanQuery {
+  private final Node root;
+  private final String[] keys; // the keywords that are not negated
+
+  private BooleanQuery(Node root, String[] keys) {
+    this.root = root;
+    this.keys = keys;
+  }
+
+  /**
+   * A method to parse and plan a boolean query.
+   *
+   * @param wt
+   *          the word table to evaluate the query on
+   * @param s
+   *          a query string
+   * @effects if <code>s</code> is <code>null</code>, is not a valid query,
+   *          contains an uninteresting word or a NOT that is not combined by
+   *          AND with another clause throws <code>NotPossibleException</code>,
+   *          else returns the planned query of <code>s</code>
+   */
+  static BooleanQuery parse(WordTable wt, String s)
+      throws NotPossibleException {
+    if (s == null)
+      throw new NotPossibleException("BooleanQuery.parse: query is null");
+
+    String t = s.replace("(", " ( ").replace(")", " ) ").trim();
+    if (t.isEmpty())
+      throw new NotPossibleException("BooleanQuery.parse: query is empty");
+
+    Parser p = new Parser(wt, t.split("\\s+"), s);
+    Node n = p.expr();
+    if (p.i < p.tokens.length)
+      throw p.error("unexpected " + p.tokens[p.i]);
+
+    n = plan(wt, n);
+    if (n instanceof Not)
+      throw new NotPossibleException(
+          "BooleanQuery.parse: NOT must be combined with another clause: " + s);
+
+    Vector<String> ks = new Vector<>();
+    n.keys(ks);
+    return new BooleanQuery(n, ks.toArray(new String[ks.size()]));
+  }
+
+  /**
+   * A method to make the query for the documents that contain any of some 
+   * keywords.
+   *
+   * @requires <code>ks</code> is not empty and contains distinct keywords in 
+   *           canonical form
+   * @effects returns the query <code>ks[0] OR ks[1] OR ...</code>
+   */
+  static BooleanQuery anyOf(String[] ks) {
+    Node[] cs = new Node[ks.length];
+    for (int i = 0; i < ks.length; i++)
+      cs[i] = new Term(ks[i]);
+
+    return new BooleanQuery((cs.length == 1) ? cs[0] : new Or(cs), ks.clone());
+  }
+
+  /**
+   * @effects returns the keywords of <code>this</code> that are not negated
+   */
+  String[] keys() {
+    return keys.clone();
+  }
+
+  /**
+   * @effects if <code>k</code> is a keyword of <code>this</code> that is not
+   *          negated returns <code>true</code>, else returns <code>false</code>
+   */
+  boolean hasKey(String k) {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i].equals(k))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @param bm25
+   *          the scorer of the keywords, or <code>null</code> to score them
+   *          by count
+   * @effects returns a cursor over the documents of <code>wt</code> that
+   *          satisfy <code>this</code>, or <code>null</code> if there are
+   *          none
+   */
+  Clause open(WordTable wt, BM25 bm25) {
+    return root.open(wt, bm25);
+  }
+
+  /**
+   * @param h
+   *          the keyword counts of a document
+   * @param len
+   *          the length of the document
+   * @param bm25
+   *          the scorer of the keywords, or <code>null</code> to score them
+   *          by count
+   * @param acc
+   *          the count and score of the document, i.e. <code>{count,
+   *          score}</code>
+   * @modifies <code>acc</code>
+   * @effects if the document satisfies <code>this</code> adds its count and
+   *          score to <code>acc</code> and returns <code>true</code>, else
+   *          returns <code>false</code>
+   */
+  boolean matches(Hashtable h, int len, BM25 bm25, double[] acc) {
+    return root.eval(h, len, bm25, acc);
+  }
+
+  @Override
+  public String toString() {
+    return root.toString();
+  }
+
+  /**
+   * @effects returns the planned form of <code>n</code>
+   */
+  private static Node plan(WordTable wt, Node n) throws NotPossibleException {
+    if (n instanceof Not) {
+      Node c = ((Not) n).child;
+      if (c instanceof Not)
+        return plan(wt, ((Not) c).child);
+      return new Not(plan(wt, c));
+    } else if (n instanceof And) {
+      Vector<Node> pos = new Vector<>();
+      Vector<Node> neg = new Vector<>();
+      for (Node c : ((And) n).pos) {
+        c = plan(wt, c);
+        if (c instanceof And) {
+          pos.addAll(Arrays.asList(((And) c).pos));
+          neg.addAll(Arrays.asList(((And) c).neg));
+        } else if (c instanceof Not) {
+          neg.add(((Not) c).child);
+        } else {
+          pos.add(c);
+        }
+      }
+
+      if (pos.isEmpty())
+        throw new NotPossibleException(
+            "BooleanQuery.parse: NOT must be combined with another clause: "
+                + n);
+      if (pos.size() == 1 && neg.isEmpty())
+        return pos.get(0);
+
+      And a = new And(pos.toArray(new Node[pos.size()]),
+          neg.toArray(new Node[neg.size()]));
+      // drive from the smallest clause; probe the largest exclusions first
+      Arrays.sort(a.pos, byCost(wt, 1));
+      Arrays.sort(a.neg, byCost(wt, -1));
+      return a;
+    } else if (n instanceof Or) {
+      Vector<Node> cs = new Vector<>();
+      for (Node c : ((Or) n).children) {
+        c = plan(wt, c);
+        if (c instanceof Not)
+          throw new NotPossibleException(
+              "BooleanQuery.parse: NOT must be combined with another clause: "
+                  + n);
+        if (c instanceof Or)
+          cs.addAll(Arrays.asList(((Or) c).children));
+        else
+          cs.add(c);
+      }
+      return new Or(cs.toArray(new Node[cs.size()]));
+    }
+
+    return n;
+  }
+
+  private static Comparator<Node> byCost(final WordTable wt, final int sign) {
+    return new Comparator<Node>() {
+      public int compare(Node a, Node b) {
+        return sign * Long.compare(a.cost(wt), b.cost(wt));
+      }
+    };
+  }
+
+  /**
+   * @overview A recursive descent parser of query strings.
+   */
+  private static class Parser {
+    private final WordTable wt;
+    private final String[] tokens;
+    private final String query;
+    private int i; // the index of the next token
+
+    Parser(WordTable wt, String[] tokens, String query) {
+      this.wt = wt;
+      this.tokens = tokens;
+      this.query = query;
+      i = 0;
+    }
+
+    Node expr() throws NotPossibleException {
+      Vector<Node> cs = new Vector<>();
+      cs.add(and());
+      while (accept("OR"))
+        cs.add(and());
+
+      return (cs.size() == 1) ? cs.get(0) : new Or(cs.toArray(new Node[cs
+          .size()]));
+    }
+
+    private Node and() throws NotPossibleException {
+      Vector<Node> cs = new Vector<>();
+      cs.add(unary());
+      while (i < tokens.length && !tokens[i].equals("OR")
+          && !tokens[i].equals(")")) {
+        accept("AND");
+        cs.add(unary());
+      }
+
+      return (cs.size() == 1) ? cs.get(0) : new And(cs.toArray(new Node[cs
+          .size()]), new Node[0]);
+    }
+
+    private Node unary() throws NotPossibleException {
+      if (i >= tokens.length)
+        throw error("unexpected end");
+
+      if (accept("NOT"))
+        return new Not(unary());
+
+      if (accept("(")) {
+        Node n = expr();
+        if (!accept(")"))
+          throw error("missing )");
+        return n;
+      }
+
+      String t = tokens[i];
+      if (t.equals(")") || t.equals("AND") || t.equals("OR"))
+        throw error("unexpected " + t);
+
+      String w = wt.canon(t);
+      if (!wt.isInteresting(w))
+        throw error("uninteresting word " + t);
+
+      i++;
+      return new Term(w);
+    }
+
+    private boolean accept(String t) {
+      if (i < tokens.length && tokens[i].equals(t)) {
+        i++;
+        return true;
+      }
+      return false;
+    }
+
+    private NotPossibleException error(String msg) {
+      return new NotPossibleException("BooleanQuery.parse: " + msg + " in: "
+          + query);
+    }
+  }
+
+  /**
+   * @overview A node of the operator tree of a query.
+   */
+  private static abstract class Node {
+    /**
+     * @effects returns an estimate of the number of documents of
+     *          <code>wt</code> that satisfy <code>this</code>
+     */
+    abstract long cost(WordTable wt);
+
+    /**
+     * @effects returns a cursor over the documents of <code>wt</code> that
+     *          satisfy <code>this</code>, or <code>null</code> if there are
+     *          none
+     */
+    abstract Clause open(WordTable wt, BM25 bm25);
+
+    /**
+     * @effects if the document whose keyword counts are <code>h</code>
+     *          satisfies <code>this</code> adds its count and score to
+     *          <code>acc</code> and returns <code>true</code>, else returns
+     *          <code>false</code>
+     */
+    abstract boolean eval(Hashtable h, int len, BM25 bm25, double[] acc);
+
+    /**
+     * @modifies <code>ks</code>
+     * @effects adds the keywords of <code>this</code> that are not negated to
+     *          <code>ks</code>
+     */
+    abstract void keys(Vector<String> ks);
+  }
+
+  private static class Term extends Node {
+    private final String key;
+
+    Term(String key) {
+      this.key = key;
+    }
+
+    long cost(WordTable wt) {
+      return wt.docFreq(key);
+    }
+
+    Clause open(WordTable wt, BM25 bm25) {
+      PostingCursor c = wt.cursor(key);
+      return (c != null) ? new TermClause(c, (bm25 != null) ? bm25.idf(key)
+          : 0, bm25) : null;
+    }
+
+    boolean eval(Hashtable h, int len, BM25 bm25, double[] acc) {
+      Integer c = (Integer) h.get(key);
+      if (c == null)
+        return false;
+
+      acc[0] += c.intValue();
+      acc[1] += (bm25 != null) ? bm25.score(bm25.idf(key), c.intValue(), len)
+          : c.intValue();
+      return true;
+    }
+
+    void keys(Vector<String> ks) {
+      if (!ks.contains(key))
+        ks.add(key);
+    }
+
+    @Override
+    public String toString() {
+      return key;
+    }
+  }
+
+  private static class Not extends Node {
+    private final Node child;
+
+    Not(Node child) {
+      this.child = child;
+    }
+
+    // only planned as the exclusion of an And
+    long cost(WordTable wt) {
+      return Long.MAX_VALUE;
+    }
+
+    Clause open(WordTable wt, BM25 bm25) {
+      throw new UnsupportedOperationException("BooleanQuery.Not.open");
+    }
+
+    boolean eval(Hashtable h, int len, BM25 bm25, double[] acc) {
+      return !child.eval(h, len, bm25, new double[2]);
+    }
+
+    void keys(Vector<String> ks) {
+      // negated
+    }
+
+    @Override
+    public String toString() {
+      return "NOT " + child;
+    }
+  }
+
+  private static class And extends Node {
+    private final Node[] pos;
+    private final Node[] neg; // the clauses that must not be satisfied
+
+    And(Node[] pos, Node[] neg) {
+      this.pos = pos;
+      this.neg = neg;
+    }
+
+    long cost(WordTable wt) {
+      long c = Long.MAX_VALUE;
+      for (int i = 0; i < pos.length; i++)
+        c = Math.min(c, pos[i].cost(wt));
+      return c;
+    }
+
+    Clause open(WordTable wt, BM25 bm25) {
+      Clause[] ps = new Clause[pos.length];
+      for (int i = 0; i < pos.length; i++) {
+        ps[i] = pos[i].open(wt, bm25);
+        if (ps[i] == null)
+          return null;
+      }
+
+      Vector<Clause> ns = new Vector<>();
+      Clause c;
+      for (int i = 0; i < neg.length; i++) {
+        c = neg[i].open(wt, null);
+        if (c != null)
+          ns.add(c);
+      }
+
+      return new AndClause(ps, ns.toArray(new Clause[ns.size()]));
+    }
+
+    boolean eval(Hashtable h, int len, BM25 bm25, double[] acc) {
+      double[] r = new double[2];
+      for (int i = 0; i < pos.length; i++) {
+        if (!pos[i].eval(h, len, bm25, r))
+          return false;
+      }
+      for (int i = 0; i < neg.length; i++) {
+        if (neg[i].eval(h, len, bm25, new double[2]))
+          return false;
+      }
+
+      acc[0] += r[0];
+      acc[1] += r[1];
+      return true;
+    }
+
+    void keys(Vector<String> ks) {
+      for (int i = 0; i < pos.length; i++)
+        pos[i].keys(ks);
+    }
+
+    @Override
+    public String toString() {
+      StringBuffer sb = new StringBuffer("(");
+      for (int i = 0; i < pos.length; i++) {
+        if (i > 0)
+          sb.append(" AND ");
+        sb.append(pos[i]);
+      }
+      for (int i = 0; i < neg.length; i++)
+        sb.append(" AND NOT ").append(neg[i]);
+      return sb.append(')').toString();
+    }
+  }
+
+  private static class Or extends Node {
+    private final Node[] children;
+
+    Or(Node[] children) {
+      this.children = children;
+    }
+
+    long cost(WordTable wt) {
+      long c = 0;
+      for (int i = 0; i < children.length; i++)
+        c += children[i].cost(wt);
+      return c;
+    }
+
+    Clause open(WordTable wt, BM25 bm25) {
+      Vector<Clause> cs = new Vector<>();
+      Clause c;
+      for (int i = 0; i < children.length; i++) {
+        c = children[i].open(wt, bm25);
+        if (c != null)
+          cs.add(c);
+      }
+
+      if (cs.isEmpty())
+        return null;
+      return (cs.size() == 1) ? cs.get(0) : new OrClause(cs
+          .toArray(new Clause[cs.size()]));
+    }
+
+    boolean eval(Hashtable h, int len, BM25 bm25, double[] acc) {
+      boolean match = false;
+      for (int i = 0; i < children.length; i++) {
+        if (children[i].eval(h, len, bm25, acc))
+          match = true;
+      }
+      return match;
+    }
+
+    void keys(Vector<String> ks) {
+      for (int i = 0; i < children.length; i++)
+        children[i].keys(ks);
+    }
+
+    @Override
+    public String toString() {
+      StringBuffer sb = new StringBuffer("(");
+      for (int i = 0; i < children.length; i++) {
+        if (i > 0)
+          sb.append(" OR ");
+        sb.append(children[i]);
+      }
+      return sb.append(')').toString();
+    }
+  }
+
+  /**
+   * @overview A cursor over the documents that satisfy a clause of a query,
+   *           in ascending order of document id.
+   */
+  static abstract class Clause {
+    /**
+     * @modifies <code>this</code>
+     * @effects if there is another document then moves <code>this</code> to
+     *          it and returns <code>true</code>, else returns
+     *          <code>false</code>
+     */
+    abstract boolean next();
+
+    /**
+     * @modifies <code>this</code>
+     * @effects moves <code>this</code> to the first document whose id is at
+     *          least <code>target</code> and returns <code>true</code>, or
+     *          returns <code>false</code> if there is none
+     */
+    abstract boolean advance(int target);
+
+    /**
+     * @requires the last call to <code>next</code> or <code>advance</code>
+     *           returned <code>true</code>
+     * @effects returns the id of the current document
+     */
+    abstract int docId();
+
+    /**
+     * @requires as for <code>docId</code>
+     * @effects returns the count of the current document
+     */
+    abstract int count();
+
+    /**
+     * @requires as for <code>docId</code>
+     * @effects returns the score of the current document, whose length is
+     *          <code>len</code>
+     */
+    abstract double score(int len);
+  }
+
+  private static class TermClause extends Clause {
+    private final PostingCursor c;
+    private final double idf;
+    private final BM25 bm25;
+
+    TermClause(PostingCursor c, double idf, BM25 bm25) {
+      this.c = c;
+      this.idf = idf;
+      this.bm25 = bm25;
+    }
+
+    boolean next() {
+      return c.next();
+    }
+
+    boolean advance(int target) {
+      return c.advance(target);
+    }
+
+    int docId() {
+      return c.docId();
+    }
+
+    int count() {
+      return c.count();
+    }
+
+    double score(int len) {
+      return (bm25 != null) ? bm25.score(idf, c.count(), len) : c.count();
+    }
+  }
+
+  private static class AndClause extends Clause {
+    private final Clause[] pos; // in ascending order of cost
+    private final Clause[] neg;
+    private final boolean[] negLive;
+
+    AndClause(Clause[] pos, Clause[] neg) {
+      this.pos = pos;
+      this.neg = neg;
+      negLive = new boolean[neg.length];
+      Arrays.fill(negLive, true);
+    }
+
+    boolean next() {
+      return pos[0].next() && align();
+    }
+
+    boolean advance(int target) {
+      return pos[0].advance(target) && align();
+    }
+
+    /**
+     * @requires <code>pos[0]</code> is on a document
+     * @effects moves <code>this</code> forward to the first document from
+     *          that of <code>pos[0]</code> that is in all of <code>pos</code>
+     *          and none of <code>neg</code> and returns <code>true</code>, or
+     *          returns <code>false</code> if there is none
+     */
+    private boolean align() {
+      int target = pos[0].docId();
+      int i = 1;
+      while (true) {
+        // intersect
+        while (i < pos.length) {
+          if (!pos[i].advance(target))
+            return false;
+          if (pos[i].docId() > target) {
+            if (!pos[0].advance(pos[i].docId()))
+              return false;
+            target = pos[0].docId();
+            i = 1;
+          } else {
+            i++;
+          }
+        }
+
+        // subtract
+        boolean excluded = false;
+        for (int j = 0; j < neg.length && !excluded; j++) {
+          if (negLive[j]) {
+            negLive[j] = neg[j].advance(target);
+            excluded = negLive[j] && neg[j].docId() == target;
+          }
+        }
+        if (!excluded)
+          return true;
+
+        if (!pos[0].next())
+          return false;
+        target = pos[0].docId();
+        i = 1;
+      }
+    }
+
+    int docId() {
+      return pos[0].docId();
+    }
+
+    int count() {
+      int n = 0;
+      for (int i = 0; i < pos.length; i++)
+        n += pos[i].count();
+      return n;
+    }
+
+    double score(int len) {
+      double s = 0;
+      for (int i = 0; i < pos.length; i++)
+        s += pos[i].score(len);
+      return s;
+    }
+  }
+
+  private static class OrClause extends Clause {
+    private final Clause[] cs;
+    private final boolean[] live; // live[i] = cs[i] is on a document
+    private boolean started;
+    private int docId; // the current document, or -1 if there is none
+
+    OrClause(Clause[] cs) {
+      this.cs = cs;
+      live = new boolean[cs.length];
+      started = false;
+      docId = -1;
+    }
+
+    boolean next() {
+      if (!started) {
+        for (int i = 0; i < cs.length; i++)
+          live[i] = cs[i].next();
+        started = true;
+      } else {
+        for (int i = 0; i < cs.length; i++) {
+          if (live[i] && cs[i].docId() == docId)
+            live[i] = cs[i].next();
+        }
+      }
+
+      return pick();
+    }
+
+    boolean advance(int target) {
+      if (!started) {
+        for (int i = 0; i < cs.length; i++)
+          live[i] = cs[i].advance(target);
+        started = true;
+      } else {
+        for (int i = 0; i < cs.length; i++) {
+          if (live[i] && cs[i].docId() < target)
+            live[i] = cs[i].advance(target);
+        }
+      }
+
+      return pick();
+    }
+
+    /**
+     * @effects makes the smallest document of the live clauses the current
+     *          one and returns <code>true</code>, or returns
+     *          <code>false</code> if there is none
+     */
+    private boolean pick() {
+      docId = -1;
+      for (int i = 0; i < cs.length; i++) {
+        if (live[i] && (docId < 0 || cs[i].docId() < docId))
+          docId = cs[i].docId();
+      }
+      return docId >= 0;
+    }
+
+    int docId() {
+      return docId;
+    }
+
+    int count() {
+      int n = 0;
+      for (int i = 0; i < cs.length; i++) {
+        if (live[i] && cs[i].docId() == docId)
+          n += cs[i].count();
+      }
+      return n;
+    }
+
+    double score(int len) {
+      double s = 0;
+      for (int i = 0; i < cs.length; i++) {
+        if (live[i] && cs[i].docId() == docId)
+          s += cs[i].score(len);
+      }
+      return s;
+    }
+  }
+}
@@ -1,10 +1,8 @@
 package a3_1801040081.kengine;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import utils.NotPossibleException;
 
@@ -13,12 +11,21 @@ import utils.NotPossibleException;
  * @overview A communication library class that implements the method to obtain
  *           web documents from a given remote web site.
  *           
- * @version 1.0
+ * @version 
+ * - 1.0 <br>
+ * - 1.1 list and read the documents separately <br>
+ * - 1.2 read the documents lazily, with NIO
  * 
  * @author dmle
  * 
  */
 public class Comm {
+  // the readers of the threads that read single documents
+  private static final ThreadLocal<DocReader> READERS = new ThreadLocal<DocReader>() {
+    protected DocReader initialValue() {
+      return new DocReader();
+    }
+  };
 
   /**
    * A method to obtain documents from a remote web site <code>u</code>
@@ -32,12 +39,25 @@ public class Comm {
    *          which stores the web site documents. In other words, if
    *          <code>u</code> does not begin with <code>file://</code> protocol,
    *          throws <code>NotPossibleException</code>.
-   * 
+   * @version 1.2 the files are read as the documents are generated, so a 
+   *          file that cannot be read makes <code>next</code> throw 
+   *          <code>NotPossibleException</code>
    */
   public static Iterator getDocs(String u) throws NotPossibleException {
-    // if u is a local folder, reads its files as Doc objects
-    // and returns a generator for them.
+    // if u is a local folder, returns a generator that reads its files 
+    // as Doc objects on demand
+    return new DocGenerator(listFiles(u));
+  }
 
+  /**
+   * A method to list the documents of a web site without reading them.
+   * 
+   * @effects if <code>u</code> is not the <code>file://</code> URL of a 
+   *          directory throws <code>NotPossibleException</code>, else returns
+   *          the files of the directory
+   * @version 1.1
+   */
+  static File[] listFiles(String u) throws NotPossibleException {
     int protocolInd = u.indexOf("/");
     String protocol = u.substring(0, protocolInd + 2); // the protocol part of u
 
@@ -54,53 +74,70 @@ public class Comm {
           + u);
     }
 
-    File[] files = dir.listFiles();
+    return dir.listFiles();
+  }
 
-    return new DocGenerator(files);
+  /**
+   * A method to read a document from a file.
+   * 
+   * @effects if <code>f</code> cannot be read throws 
+   *          <code>NotPossibleException</code>, else returns the document 
+   *          whose content is the lines of <code>f</code>, each ended by 
+   *          <code>'\n'</code>
+   * @version 
+   * - 1.1 <br>
+   * - 1.2 read by the <code>DocReader</code> of the current thread
+   */
+  static Doc readDoc(File f) throws NotPossibleException {
+    return READERS.get().read(f);
   }
 }
 
 /**
  * @overview A generator implementation for documents. 
+ *           Each document is read when it is generated, so only the 
+ *           document that is being processed is kept in memory.
+ * 
+ * @version 
+ * - 1.0 <br>
+ * - 1.2 read the documents lazily with a <code>DocReader</code>
  * 
  * @author dmle
  *
  */
 class DocGenerator implements Iterator {
-  Doc[] docs;
-  int currIndex = -1;
-
-  public DocGenerator(File[] files) throws NotPossibleException {
-    docs = new Doc[files.length];
+  private final File[] files;
+  private final DocReader reader;
+  private int currIndex = -1;
 
-    File f;
-    BufferedReader fr;
-    String d, line;
-    Doc doc;
-    for (int i = 0; i < files.length; i++) {
-      f = files[i];
-      try {
-        fr = new BufferedReader(new FileReader(f));
-        d = "";
-        while ((line = fr.readLine()) != null) {
-          d += line + "\n";
-        }
-      } catch (IOException e) {
-        throw new NotPossibleException(
-            "Comm.DocGenerator.init: Failed to read file " + f);
-      }
-      doc = new Doc(d);
-      docs[i] = doc;
-    }
+  /**
+   * @effects initialises <code>this</code> to generate the documents of 
+   *          <code>files</code>
+   */
+  public DocGenerator(File[] files) {
+    this.files = files;
+    reader = new DocReader();
   }
 
   public boolean hasNext() {
-    return currIndex < docs.length - 1;
+    return currIndex < files.length - 1;
   }
 
-  public Object next() {
+  /**
+   * @effects if there are no more documents throws 
+   *          <code>NoSuchElementException</code>; else if the next file 
+   *          cannot be read throws <code>NotPossibleException</code>, else 
+   *          returns the document of the next file
+   */
+  public Object next() throws NotPossibleException {
+    if (!hasNext())
+      throw new NoSuchElementException();
+
     currIndex++;
-    return docs[currIndex];
+    Doc d = reader.read(files[currIndex]);
+    // let the file be collected
+    files[currIndex] = null;
+    return d;
   }
   
   public void remove() {
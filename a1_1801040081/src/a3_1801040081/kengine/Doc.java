@@ -1,5 +1,12 @@
 package a3_1801040081.kengine;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.Iterator;
 import java.util.Vector;
 
@@ -10,18 +17,52 @@ import utils.NotPossibleException;
 /**
  * @overview A document contains a title and a text body
  * 
+ *           Once it is indexed, a document can be made compact, so that it no 
+ *           longer keeps its text, body and words in memory but finds them 
+ *           again when they are needed.
+ * 
  * @see "Program Development in Java", pgs: 314,322,333
- * @version 1.0
+ * @version 
+ * - 1.0 <br>
+ * - 1.1 compare documents by title <br>
+ * - 1.2 find the words with an <code>HtmlTokenizer</code> <br>
+ * - 1.3 read large documents from streams <br>
+ * - 1.4 compact documents
  * @author dmle
  * 
  */
 public class Doc {
-  private String d; // the document content
+  // the tokenizers of the threads that tokenize documents
+  private static final ThreadLocal<HtmlTokenizer> TOKENIZERS = new ThreadLocal<HtmlTokenizer>() {
+    protected HtmlTokenizer initialValue() {
+      return new HtmlTokenizer();
+    }
+  };
+
+  // the start of the content of a compact document, up to its words
+  static final String COMPACT_START = "<html>\n<body>";
+
+  // the document content, or null if this is detached and its content is
+  // in store
+  private volatile String d;
   private String title; // the document title
   private String body; // the document body
 
   private Vector docWords; // the sequence of document words
 
+  // the store and key of the content of a detached document
+  private DocStore store;
+  private long key;
+  // the hash code of the title, or 0 if not yet computed; as for 
+  // String.hashCode, every thread computes the same value, so it needs no 
+  // lock
+  private int hash;
+
+  // whether the body of d is only words separated by single spaces, as made 
+  // by read or compact; set after d, so a reader that sees it set also sees
+  // the compact content
+  private volatile boolean compact;
+
   /**
    * Constructor method
    * 
@@ -38,6 +79,59 @@ public class Doc {
     this.d = d;
   }
 
+  /**
+   * Constructor method
+   * 
+   * @requires if <code>compact</code> then the body of <code>d</code> is 
+   *           <code>"&lt;body&gt;"</code> followed by the words of 
+   *           <code>d</code> separated by single spaces, then 
+   *           <code>"&lt;/body&gt;"</code>
+   * @effects makes <code>this</code> be the <code>Doc</code> corresponding 
+   *          to <code>d</code>, whose words are found without tokenizing its
+   *          body if <code>compact</code>
+   * @version 1.3
+   */
+  Doc(String d, boolean compact) {
+    this.d = d;
+    this.compact = compact;
+  }
+
+  /**
+   * A method to read a document from a character stream without keeping its 
+   * text in memory.
+   * 
+   * @effects if <code>r</code> cannot be read throws 
+   *          <code>NotPossibleException</code>, else reads <code>r</code> to 
+   *          its end and returns a document that has the title and the words 
+   *          of the HTML document of <code>r</code>, read through a 
+   *          fixed-size window. The content of the result is a compact HTML 
+   *          document of only its title and words, so it is not equal to 
+   *          <code>new Doc(text)</code> for the text of <code>r</code>.
+   * @version 1.3
+   */
+  public static Doc read(Reader r) throws NotPossibleException {
+    try {
+      return HtmlStreamTokenizer.read(r);
+    } catch (IOException e) {
+      throw new NotPossibleException("Doc.read: failed to read document due to " + e);
+    }
+  }
+
+  /**
+   * A method to read a document from a byte channel without keeping its 
+   * text in memory.
+   * 
+   * @effects as for <code>read(Reader)</code>, where the bytes of 
+   *          <code>ch</code> are decoded by the default charset
+   * @version 1.3
+   */
+  public static Doc read(ReadableByteChannel ch) throws NotPossibleException {
+    CharsetDecoder dec = Charset.defaultCharset().newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    return read(Channels.newReader(ch, dec, -1));
+  }
+
   /**
    * A method to return the title of this document.
    * 
@@ -47,6 +141,7 @@ public class Doc {
     // scans the document content once to extract its title
     // stores the title into the title attribute to use later
     if (title == null) {
+      String d = text();
       // note that we donot scan the entire body at this stage,
       // only up to the <title> tag
       int tind1 = d.indexOf("<title>");
@@ -73,24 +168,41 @@ public class Doc {
   public String body() {
     // scans the document content once to extract its body
     // stores the body into the body attribute to use later
-    if (body == null) {
-      // note that we donot scan the entire body at this stage,
-      // only up to the <title> tag
-      int bind1 = d.indexOf("<body");
-      int bind2 = d.indexOf("</body>"); // must be well-formed
-      if (bind1 < 0) {
-        bind1 = d.indexOf("<BODY"); // possibly upper case
-        bind2 = d.indexOf("</BODY>");
-      }
-
-      if (bind1 >= 0 && bind2 >= 0) {
+    String bd = body;
+    if (bd == null) {
+      String d = text();
+      int[] b = bodyBounds(d);
+      if (b != null) {
         // we want to keep the <body</body> tag pairs in
         // the body text
-        body = d.substring(bind1, bind2 + 7);
+        bd = d.substring(b[0], b[1]);
+        // a compact document does not keep its body
+        if (!compact && this.d != null)
+          body = bd;
       }
     }
 
-    return body;
+    return bd;
+  }
+
+  /**
+   * @effects if <code>d</code> has a body returns the start and end 
+   *          indices of the body in <code>d</code>, including the enclosing 
+   *          <code>&lt;body&gt;&lt;/body&gt;</code> tags, else returns 
+   *          <code>null</code>
+   * @version 1.2
+   */
+  private static int[] bodyBounds(String d) {
+    // note that we donot scan the entire body at this stage,
+    // only up to the <title> tag
+    int bind1 = d.indexOf("<body");
+    int bind2 = d.indexOf("</body>"); // must be well-formed
+    if (bind1 < 0) {
+      bind1 = d.indexOf("<BODY"); // possibly upper case
+      bind2 = d.indexOf("</BODY>");
+    }
+
+    return (bind1 >= 0 && bind2 >= 0) ? new int[] { bind1, bind2 + 7 } : null;
   }
 
   /**
@@ -104,119 +216,173 @@ public class Doc {
    *          This implementation also parses the Javascript text that is
    *          contained between the <code>&lt;script&gt;&lt;/script&gt;</code>
    *          tags.
+   * @version 
+   * - 1.2 the words are found by <code>tokens</code>; a document 
+   *          without a body has no words <br>
+   * - 1.4 the words of a detached document are found again each time
    */
   public Iterator words() {
-    // extracts body
-    body();
-
-    // scans the body to return only words (without tags)
     // assumes that Doc is immutable
-    // note: recall that body has the enclosing <body></body> tag pairs
-    if (docWords == null) {
-      docWords = new Vector();
-      final char OPEN_TAG = '<';
-      final char CLOSED_TAG = '>';
-      // final char FORWARD_SLASH = '/';
-      final char NEW_LINE = '\n';
-      final String[] SPECIALS = { NEW_LINE+"", "\t" };
-      final boolean SKIP_SPECIAL_HTML = true;
-      //final String[] JUNK_CHARS = { "`","``","''","(",")","-","[","]",":",";","\"",".",",","...","<",">"}; 
-                 
-      // reads the content one character at a time, stop each time
-      // we get to a stop-word (e.g. space or a tag)
-      char[] chars = body.toCharArray();
-      char c;
-      String w = null;
-      String reading = null;
-      boolean skip = false;
-      for (int i = 0; i < chars.length; i++) {
-
-        c = chars[i];
-
-        // if we have found a new open tag
-        if (!skip && c == OPEN_TAG) {
-          // skip to locate the next closing and stop chars
-          skip = true;
-          reading = "";
-          continue;
+    Vector ws = docWords;
+    if (ws == null) {
+      final Vector v = new Vector();
+      tokens(new TokenSink() {
+        public void token(char[] buf, int off, int len) {
+          v.add(new String(buf, off, len));
         }
-
-        if (skip) {
-          reading += c;
-          // check closing and stop tags
-          if (c == CLOSED_TAG) { // end of opening tag, beginning text
-            // if told to skip special tags and reading
-            // so far shows that it is some special tag then do nothing
-            if (SKIP_SPECIAL_HTML) {
-              // skip <script> and <style>
-              if (!(reading.startsWith("script") || 
-                  reading.startsWith("SCRIPT") ||
-                  reading.startsWith("style") || 
-                  reading.startsWith("STYLE")
-                  )) {
-                w = "";
-              }
-            } else {
-              w = "";
-            }
-          } else if (c == OPEN_TAG) { // begin a new tag, end of text
-            // process reading
-            if (w != null) {
-              w.trim();
-              for (int j = 0; j < SPECIALS.length; j++) {
-                if (w.startsWith(SPECIALS[j]))
-                  w = w.substring(1); // remove special char at the beginning
-                if (w.endsWith(SPECIALS[j]))
-                  w = w.substring(0, w.length() - 1);// remove special char at
-                                                     // the end
-                
-                // replace all remaining special chars by spaces
-                w = w.replaceAll(SPECIALS[j], " ");
-              }
-
-              if (!w.equals("")) {
-                String[] witems = w.split(" ");
-                for (int j = 0; j < witems.length; j++) {
-                  String witem = witems[j].trim();
-                  if (!witem.equals("")) {
-                    //for (int x = 0; x < JUNK_CHARS.length; x++) 
-                    //  witem = witem.replaceAll(JUNK_CHARS[x], "");
-                    
-                    docWords.add(witem);
-                  }
-                }
-              }
-              // reset word
-              w = null;
-            }
-            reading = null;
-            // continue to parse from c
-            skip = false; // stop skipping
-            // decrement i so that we start from c from the next iteration
-            i--;
-          } else if (w != null) {
-            // still inside a text
-            // update word
-            if (c != NEW_LINE)
-              w += c;
-          }
-          // continue; // skip
-        }
-      }
-    } // end body processing
+      });
+      ws = v;
+      // a compact document does not keep its words
+      if (!compact && d != null)
+        docWords = ws;
+    }
 
     // create a generator from the body words
     // note: we could have used the built-in Vector.iterator() method here
     // instead.
-    if (docWords != null)
-      return new WordGenerator(docWords);
+    return new WordGenerator(ws);
+  }
+
+  /**
+   * A method to tokenize the body of <code>this</code> without creating its 
+   * words.
+   * 
+   * @effects passes the words of <code>this</code> that are returned by 
+   *          <code>words()</code> to <code>sink</code>, in the order they 
+   *          appear in the text
+   * @version 
+   * - 1.2 <br>
+   * - 1.3 split the body of a compact document at its spaces
+   */
+  void tokens(TokenSink sink) {
+    boolean c = compact; // before d, see compact
+    String d = text();
+    int[] b = bodyBounds(d);
+    if (b == null)
+      return;
+
+    if (c)
+      TOKENIZERS.get().split(d, b[0] + "<body>".length(), b[1] - "</body>".length(), sink);
     else
-      return null;
+      TOKENIZERS.get().tokenize(d, b[0], b[1], sink);
+  }
+
+  /**
+   * @effects returns the content of <code>this</code>, which is read from 
+   *          its store if <code>this</code> is detached
+   * @version 1.4
+   */
+  String text() {
+    String s = d;
+    return (s != null) ? s : store.get(key);
+  }
+
+  /**
+   * A method to make <code>this</code> compact once it has been indexed.
+   * 
+   * @modifies <code>this</code>
+   * @effects if <code>s</code> is not <code>null</code> stores the content 
+   *          of <code>this</code> in <code>s</code> and makes 
+   *          <code>this</code> detached, so that it keeps only its title and 
+   *          the key of its content, else replaces the content of 
+   *          <code>this</code> with a compact HTML document of only its title 
+   *          and words; in either case <code>this</code> no longer keeps its 
+   *          body or words, which are found from its content when they are 
+   *          needed. The title, words and hash code of <code>this</code> 
+   *          are unchanged, so <code>this</code> still equals the documents
+   *          it equaled before.
+   * @version 1.4
+   */
+  synchronized void compact(DocStore s) {
+    String t = d;
+    if (t == null)
+      return; // already detached
+
+    // the title and hash code are found from the original content, before 
+    // other threads can see the compact one
+    hashCode();
+    if (s != null) {
+      key = s.put(t);
+      store = s;
+      // publishes store and key to the readers of d
+      d = null;
+    } else if (!compact) {
+      // the words are appended to the start of the compact content, which 
+      // is completed in place
+      final StringBuilder ws = new StringBuilder(t.length() + 64);
+      ws.append(COMPACT_START);
+      tokens(new TokenSink() {
+        public void token(char[] buf, int off, int len) {
+          if (ws.length() > COMPACT_START.length())
+            ws.append(' ');
+          ws.append(buf, off, len);
+        }
+      });
+      d = compactText(ws, title, t.indexOf("<title>") < 0);
+      compact = true;
+    }
+    body = null;
+    docWords = null;
+  }
+
+  /**
+   * @requires <code>d</code> is <code>COMPACT_START</code> followed by the 
+   *           words of a document separated by single spaces, and 
+   *           <code>title</code> is its title as found between the tags 
+   *           <code>&lt;title&gt;&lt;/title&gt;</code>, or between the tags 
+   *           <code>&lt;TITLE&gt;&lt;/TITLE&gt;</code> if <code>upper</code>
+   * @modifies <code>d</code>
+   * @effects completes <code>d</code> to be the content of a compact 
+   *          document whose title is <code>title</code> and whose words are 
+   *          those of <code>d</code>, and returns this content
+   * @version 1.4
+   */
+  static String compactText(StringBuilder d, String title, boolean upper) {
+    // the body comes first, even if empty: its words contain no '<', so its
+    // tags are found before any tags that the title may contain
+    d.append("</body>\n<head>");
+    if (title != null) {
+      d.append(upper ? "<TITLE>" : "<title>").append(title)
+          .append(upper ? "</TITLE>" : "</title>");
+    }
+    d.append("</head>\n</html>\n");
+    return d.toString();
   }
 
   public String toString() {
     return title();
   }
+
+  /**
+   * @effects if <code>o</code> is <code>this</code>, or <code>o</code> is a 
+   *          <code>Doc</code> and <code>this</code> and <code>o</code> have 
+   *          titles with the same canonical form returns <code>true</code>, 
+   *          else returns <code>false</code>
+   * @version 1.1 documents of a <code>MappedIndex</code> are created each 
+   *          time they are looked up, and an engine holds at most one 
+   *          document of each title, so documents are compared by title
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o)
+      return true;
+    if (!(o instanceof Doc) || hashCode() != o.hashCode())
+      return false;
+
+    String t = title(), ot = ((Doc) o).title();
+    return t != null && ot != null && Helpers.canon(t).equals(Helpers.canon(ot));
+  }
+
+  @Override
+  public int hashCode() {
+    int h = hash;
+    if (h == 0) {
+      String t = title();
+      h = (t != null) ? Helpers.canon(t).hashCode() : super.hashCode();
+      hash = h;
+    }
+    return h;
+  }
   
   /**
    * @overview A generator implementation that is used by <code>Doc.words()</code> to 
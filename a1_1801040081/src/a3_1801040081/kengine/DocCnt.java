@@ -5,6 +5,9 @@ package a3_1801040081.kengine;
  * @overview A record <code><Doc,cnt></code> where <code>Doc</code> is a document object
  *           and <code>cnt</code> is an integer count of occurrences of some keyword in <code>Doc</code>.
  *           
+ *           A record also has a relevance score, by which records are compared. Unless 
+ *           a score is given it is the same as <code>cnt</code>.
+ *           
  *           This class also implements a {@link Comparable} interface to support sorting.
  *           
  * @see      "Program development in Java", pgs 329-331,334
@@ -12,7 +15,10 @@ package a3_1801040081.kengine;
  *           we use setter and getter methods to implement observers and some mutator methods 
  *           of this class 
  * 
- * @version  4.0  add implementation for comparable interface
+ * @version  
+ * - 4.0  add implementation for comparable interface <br>
+ * - 4.1  compare by a relevance score <br>
+ * - 4.2  remember the id of the document in the word table
  *           
  * @author dmle 
  *
@@ -20,10 +26,23 @@ package a3_1801040081.kengine;
 public class DocCnt implements Comparable {
   private Doc d;
   private int cnt;
+  private double score;
+  // the id of d in the word table, or -1 if it is not known
+  int docId = -1;
   
   public DocCnt(Doc d, int cnt) {
+    this(d, cnt, cnt);
+  }
+
+  /**
+   * @effects initialises <code>this</code> to be <code>&lt;d,cnt&gt;</code> with 
+   *          relevance score <code>score</code>
+   * @version 4.1
+   */
+  public DocCnt(Doc d, int cnt, double score) {
     this.d = d;
     this.cnt = cnt;
+    this.score = score;
   }
   
   public Doc getDoc() {
@@ -34,8 +53,26 @@ public class DocCnt implements Comparable {
     return cnt;
   }
   
+  /**
+   * @version 4.1
+   */
+  public double getScore() {
+    return score;
+  }
+  
   public void addCount(int newCount) {
+    add(newCount, newCount);
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects adds <code>newCount</code> to the count and <code>newScore</code> to 
+   *          the score of <code>this</code>
+   * @version 4.1
+   */
+  public void add(int newCount, double newScore) {
     cnt += newCount;
+    score += newScore;
   }
   
   public String toString() {
@@ -48,8 +85,11 @@ public class DocCnt implements Comparable {
    * @param x another <code>DocCnt</code> object
    * @effects If <code>x</code> is <code>null</code> throws <code>NullPointerException</code>; 
    *          if <code>x</code> is not an instance of <code>DocCnt</code> throws <code>ClassCastException</code>; 
-   *          otherwise if <code>this.cnt < x.cnt</code> returns -1, if <code>this.cnt = x.cnt</code> returns 0, 
+   *          otherwise if <code>this.score < x.score</code> returns -1, if <code>this.score = x.score</code> returns 0, 
    *          else returns 1. 
+   * @version 
+   * - 4.0 <br>
+   * - 4.1 compare the scores
    */
   public int compareTo(Object x) throws ClassCastException, NullPointerException {
     if (x == null) throw new NullPointerException("DocCnt.compareTo: argument is null");
@@ -58,9 +98,9 @@ public class DocCnt implements Comparable {
       throw new ClassCastException("DocCnt.compareTo: argument is not a DocCnt object");
     
     DocCnt dc = (DocCnt) x;
-    if (this.cnt < dc.cnt)
+    if (this.score < dc.score)
       return -1;
-    else if (this.cnt == dc.cnt) 
+    else if (this.score == dc.score) 
       return 0;
     else 
       return 1;
@@ -68,6 +108,8 @@ public class DocCnt implements Comparable {
   
   public Object clone() {
     // only clone the doc count, keep the reference to the doc object unchanged 
-    return new DocCnt(this.d, cnt);
+    DocCnt dc = new DocCnt(this.d, cnt, score);
+    dc.docId = docId;
+    return dc;
   }
 }
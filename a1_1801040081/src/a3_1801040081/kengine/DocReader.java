@@ -0,0 +1,140 @@
+package a3_1801040081.kengine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview A reader of documents from files, which reads each file with one
+ *           channel read into a buffer that is reused by the next file, and
+ *           decodes it in one pass.
+ *
+ *           The content of a document is the lines of its file, each ended by
+ *           <code>'\n'</code>, as if read by <code>BufferedReader.readLine</code>;
+ *           the file is decoded by the default charset, like
+ *           <code>FileReader</code>.
+ *
+ *           A file larger than <code>STREAM_SIZE</code> is tokenized as it is
+ *           read, by <code>Doc.read</code>, so its text is not kept.
+ *
+ *           A reader is not safe for use by multiple threads.
+ *
+ * @version
+ * - 1.0 <br>
+ * - 1.1 stream large files
+ * @author agent
+ *
+ */
+class DocReader {
+  // the files larger than this are streamed rather than read into memory
+  static final long STREAM_SIZE = 1 << 26;
+
+  // the buffers larger than this are not kept for the next file
+  private static final int MAX_KEPT = 1 << 20;
+  private static final int INITIAL_SIZE = 1 << 13;
+
+  private final CharsetDecoder decoder;
+  private ByteBuffer bytes;
+  private CharBuffer chars;
+
+  /**
+   * Constructor method
+   *
+   * @effects initialises <code>this</code> to have empty buffers
+   */
+  DocReader() {
+    Charset cs = Charset.defaultCharset();
+    decoder = cs.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    bytes = ByteBuffer.allocate(INITIAL_SIZE);
+    chars = CharBuffer.allocate(INITIAL_SIZE);
+  }
+
+  /**
+   * @effects if <code>f</code> cannot be read throws
+   *          <code>NotPossibleException</code>; else if <code>f</code> is larger
+   *          than <code>STREAM_SIZE</code> bytes returns
+   *          <code>Doc.read</code> of its channel, else returns the document
+   *          whose content is the lines of <code>f</code>
+   * @version 1.1 stream large files
+   */
+  Doc read(File f) throws NotPossibleException {
+    try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+      bytes.clear();
+      long size = ch.size();
+      if (size > STREAM_SIZE)
+        return Doc.read(ch);
+      ensureBytes((int) size + 1);
+      // read until the end, in case the file grows meanwhile
+      while (ch.read(bytes) >= 0) {
+        if (!bytes.hasRemaining())
+          ensureBytes(bytes.capacity() * 2);
+      }
+    } catch (IOException e) {
+      throw new NotPossibleException("Comm.readDoc: Failed to read file " + f);
+    }
+    bytes.flip();
+
+    // decode, with room for a final '\n'
+    int n = (int) (bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1;
+    if (chars.capacity() < n)
+      chars = CharBuffer.allocate(n);
+    chars.clear();
+    decoder.reset();
+    decoder.decode(bytes, chars, true);
+    decoder.flush(chars);
+
+    String d = lines(chars.array(), chars.position());
+
+    // do not hold on to the buffers of a large file
+    if (bytes.capacity() > MAX_KEPT)
+      bytes = ByteBuffer.allocate(INITIAL_SIZE);
+    if (chars.capacity() > MAX_KEPT)
+      chars = CharBuffer.allocate(INITIAL_SIZE);
+
+    return new Doc(d);
+  }
+
+  /**
+   * @requires <code>a.length &gt; len</code>
+   * @modifies <code>a</code>
+   * @effects returns the lines of <code>a[0..len-1]</code>, which are ended by
+   *          <code>"\n"</code>, <code>"\r"</code> or <code>"\r\n"</code>, each
+   *          ended by <code>'\n'</code>
+   */
+  private static String lines(char[] a, int len) {
+    // rewrite a in place; j never passes i
+    int j = 0;
+    char c;
+    for (int i = 0; i < len; i++) {
+      c = a[i];
+      if (c == '\r') {
+        if (i + 1 < len && a[i + 1] == '\n')
+          i++;
+        c = '\n';
+      }
+      a[j++] = c;
+    }
+    if (j > 0 && a[j - 1] != '\n')
+      a[j++] = '\n';
+
+    return new String(a, 0, j);
+  }
+
+  private void ensureBytes(int n) {
+    if (bytes.capacity() < n) {
+      ByteBuffer b = ByteBuffer.allocate(n);
+      bytes.flip();
+      b.put(bytes);
+      bytes = b;
+    }
+  }
+}
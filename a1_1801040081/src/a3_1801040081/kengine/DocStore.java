@@ -0,0 +1,34 @@
+package a3_1801040081.kengine;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview A store that keeps the text of documents outside the Java heap, 
+ *           so that a compact <code>Doc</code> can drop its text and read it 
+ *           back when it is needed.
+ * 
+ *           A store is safe for use by multiple threads.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+public interface DocStore {
+  /**
+   * @modifies <code>this</code>
+   * @effects if <code>text</code> cannot be stored throws 
+   *          <code>NotPossibleException</code>, else stores 
+   *          <code>text</code> in <code>this</code> and returns the key by 
+   *          which it is read
+   */
+  long put(String text) throws NotPossibleException;
+
+  /**
+   * @requires <code>key</code> was returned by <code>put</code> of 
+   *           <code>this</code>
+   * @effects if the text cannot be read throws 
+   *          <code>NotPossibleException</code>, else returns the text that 
+   *          was stored with <code>key</code>
+   */
+  String get(long key) throws NotPossibleException;
+}
@@ -1,8 +1,13 @@
 package a3_1801040081.kengine;
 
-import java.util.Hashtable;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import utils.NotPossibleException;
 
@@ -12,22 +17,85 @@ import utils.NotPossibleException;
  *           contains a string explaining the problem. All instance methods modify the state of
  *           <code>this</code>.
  *           
+ *           Documents can be added by multiple threads at once. The words of a new document 
+ *           are counted and indexed concurrently; the document then becomes visible to
+ *           <code>WordTable</code> look-ups and to the current query in one step, so a query
+ *           either sees the whole document or none of it.
+ *           
+ *           Documents can also be removed, or updated by replacing the document with 
+ *           the same title. A removed document is no longer returned by queries.
+ *           
+ *           The matches of the queries created by <code>queryFirst</code> and 
+ *           <code>queryMore</code> are cached by their sets of keywords. Adding or 
+ *           removing a document drops the cached queries that share a keyword with it,
+ *           and those ranked by BM25, whose scores depend on all the documents.
+ *           
+ *           Each user of a shared engine queries it through its own <code>Session</code>. 
+ *           Sessions query the engine concurrently; publishing or removing a document 
+ *           excludes them for as long as it takes to update the live sessions. The 
+ *           query methods of the engine itself use a live session of the engine.
+ *           
+ *           Standing queries can be registered to be notified of the new documents 
+ *           that match them.
  * 
  * @see "Program Development in Java", pgs: 313, 316-323, 365
  * 
- * @version 4.0 implement the full logic
+ * @version 
+ * - 4.0 implement the full logic <br>
+ * - 4.1 support concurrent addition of documents <br>
+ * - 4.2 write and open a disk-resident, memory-mapped index <br>
+ * - 4.3 save and restore snapshots <br>
+ * - 4.4 remove and update documents <br>
+ * - 4.5 phrase and proximity queries <br>
+ * - 4.6 rank the matches of new queries by count or by BM25 score <br>
+ * - 4.7 search for the top k documents <br>
+ * - 4.8 boolean queries <br>
+ * - 4.9 cache the matches of keyword queries <br>
+ * - 5.0 sessions with their own queries <br>
+ * - 5.1 standing queries <br>
+ * - 5.2 support for shards of a <code>ShardedEngine</code> <br>
+ * - 5.3 add the documents of a web site with a pipeline of threads <br>
+ * - 5.4 compact documents <br>
+ * - 5.5 find the keys of words with an <code>Analyzer</code> <br>
+ * - 5.6 fuzzy queries
  * @author dmle
  *
  */
 public class Engine {
   private TitleTable tt;
   private WordTable wt;
-  private Query q;
   
   //dmle: use Vector instead of array to ease maintenance  
   // private String[] urls;
   private Vector urls;
 
+  // serialises updates of documents
+  private final Object updateLock = new Object();
+  // held for reading while documents are indexed and published or removed, 
+  // and for writing while the documents and postings are written to disk
+  private final ReentrantReadWriteLock ingestLock = new ReentrantReadWriteLock();
+
+  // the number of keyword queries whose matches are cached
+  private static final int CACHE_SIZE = 1024;
+  private final QueryCache cache = new QueryCache(CACHE_SIZE);
+
+  // held for reading while a query is created and for writing while a document 
+  // is published or removed
+  private final ReentrantReadWriteLock publishLock = new ReentrantReadWriteLock();
+  // the number of documents published or removed, guarded by publishLock
+  private long stamp;
+  // the live sessions, guarded by the write lock of publishLock
+  private final Vector<Session> sessions = new Vector<>();
+  // the session of the query methods of this
+  private final Session session = openSession(true);
+
+  private final Percolator percolator = new Percolator();
+
+  // whether the documents are made compact once they are published, and the
+  // store of their content; docStore is set before compactDocs
+  private volatile boolean compactDocs;
+  private DocStore docStore;
+
   /**
    * Constructor method 
    * 
@@ -36,12 +104,346 @@ public class Engine {
    *          the application state appropriately
    */
   public Engine() throws NotPossibleException {
+    this(Analyzer.STANDARD);
+  }
+
+  /**
+   * Constructor method 
+   * 
+   * @param analyzer  the analyzer of the words of documents and queries
+   * @effects as for <code>Engine()</code>, except that the keys of words are 
+   *          their canonical forms by <code>analyzer</code>; if 
+   *          <code>analyzer</code> is <code>null</code> throws 
+   *          <code>NotPossibleException</code>
+   * @version 5.5
+   */
+  public Engine(Analyzer analyzer) throws NotPossibleException {
     tt = new TitleTable();
     // the exception is thrown by this line
-    wt = new WordTable();
+    wt = new WordTable(null, WordTable.DEFAULT_BUFFER_SIZE, 
+        WordTable.DEFAULT_MERGE_FACTOR, analyzer);
+    urls = new Vector();
+  }
+
+  /**
+   * Constructor method
+   * 
+   * @effects if uninteresting words cannot be retrieved from the persistent state
+   *          throw <code>NotPossibleException</code> else initialises 
+   *          the application state to contain the documents of <code>base</code>, 
+   *          whose words are analyzed by <code>analyzer</code>
+   * @version 
+   * - 4.2 <br>
+   * - 5.5 analyze the words with <code>analyzer</code>
+   */
+  private Engine(MappedIndex base, Analyzer analyzer) throws NotPossibleException {
+    tt = new TitleTable(base);
+    wt = new WordTable(base, WordTable.DEFAULT_BUFFER_SIZE, 
+        WordTable.DEFAULT_MERGE_FACTOR, analyzer);
     urls = new Vector();
   }
 
+  /**
+   * A method to open an engine on an index that was written by 
+   * <code>writeIndex</code>.
+   * 
+   * @param dir   the directory of the index
+   * @effects   if <code>dir</code> does not contain a readable index throws 
+   *            <code>NotPossibleException</code>, else returns an engine whose 
+   *            documents and postings are read from the memory-mapped index files. 
+   *            Documents added to the engine are kept on the heap, together with 
+   *            the index. The words are analyzed by <code>Analyzer.STANDARD</code>.
+   * @version 4.2
+   */
+  public static Engine open(Path dir) throws NotPossibleException {
+    return open(dir, Analyzer.STANDARD);
+  }
+
+  /**
+   * A method to open an engine on an index that was written by 
+   * <code>writeIndex</code> from an engine with a given analyzer.
+   * 
+   * @param dir       the directory of the index
+   * @param analyzer  the analyzer of the engine that wrote the index
+   * @requires  the index in <code>dir</code> was written by an engine whose 
+   *            analyzer is <code>analyzer</code>, since its keys are the 
+   *            canonical forms by that analyzer
+   * @effects   as for <code>open(dir)</code>, except that the words of the 
+   *            documents and queries of the result are analyzed by 
+   *            <code>analyzer</code>; if <code>analyzer</code> is <code>null</code> 
+   *            throws <code>NotPossibleException</code>
+   * @version 5.5
+   */
+  public static Engine open(Path dir, Analyzer analyzer) throws NotPossibleException {
+    if (analyzer == null)
+      throw new NotPossibleException("Engine.open: analyzer is null");
+    return new Engine(MappedIndex.open(dir), analyzer);
+  }
+
+  /**
+   * A method to write the documents and postings of <code>this</code> as an 
+   * on-disk index.
+   * 
+   * @param dir   the directory to write the index to
+   * @effects   if the index cannot be written throws <code>NotPossibleException</code>, 
+   *            else writes the term dictionary, postings, document texts and 
+   *            document offsets of <code>this</code> to <code>dir</code>, so that 
+   *            they can be opened by <code>open(dir)</code>. Documents are not 
+   *            indexed or removed while the index is written; documents that are 
+   *            being counted are left out.
+   * @version 4.2
+   */
+  public void writeIndex(Path dir) throws NotPossibleException {
+    ingestLock.writeLock().lock();
+    try {
+      MappedIndex.write(tt, wt, dir);
+    } finally {
+      ingestLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * A method to save the state of <code>this</code> to a snapshot file.
+   * 
+   * @param f   the file to write
+   * @effects   if <code>f</code> cannot be written throws <code>NotPossibleException</code>, 
+   *            else writes the documents, the <code>WordTable</code> postings and the 
+   *            registered URLs of <code>this</code> to <code>f</code> as one compact 
+   *            binary file. The current query is not saved. Documents are not 
+   *            indexed or removed while the snapshot is written; documents that 
+   *            are being counted are left out.
+   * @version 4.3
+   */
+  public void saveSnapshot(Path f) throws NotPossibleException {
+    ingestLock.writeLock().lock();
+    try {
+      Snapshot.write(f, tt, wt, urls);
+    } finally {
+      ingestLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * A method to restore an engine from a snapshot file.
+   * 
+   * @param f   a file written by <code>saveSnapshot</code>
+   * @effects   if <code>f</code> cannot be read or is not a snapshot throws 
+   *            <code>NotPossibleException</code>, else returns a new engine with the 
+   *            documents, postings and URLs stored in <code>f</code>. The file is 
+   *            read sequentially once and no document is tokenized again. The 
+   *            words are analyzed by <code>Analyzer.STANDARD</code>.
+   * @version 4.3
+   */
+  public static Engine restore(Path f) throws NotPossibleException {
+    return restore(f, Analyzer.STANDARD);
+  }
+
+  /**
+   * A method to restore an engine with a given analyzer from a snapshot file.
+   * 
+   * @param f         a file written by <code>saveSnapshot</code>
+   * @param analyzer  the analyzer of the engine that saved the snapshot
+   * @requires  <code>f</code> was saved by an engine whose analyzer is 
+   *            <code>analyzer</code>, since its keys are the canonical forms by 
+   *            that analyzer
+   * @effects   as for <code>restore(f)</code>, except that the words of the 
+   *            documents and queries of the result are analyzed by 
+   *            <code>analyzer</code>; if <code>analyzer</code> is <code>null</code> 
+   *            throws <code>NotPossibleException</code>
+   * @version 5.5
+   */
+  public static Engine restore(Path f, Analyzer analyzer) throws NotPossibleException {
+    if (analyzer == null)
+      throw new NotPossibleException("Engine.restore: analyzer is null");
+    Snapshot s = Snapshot.read(f);
+
+    Engine e = new Engine(analyzer);
+    e.wt.load(s.docs, s.lengths, s.segment);
+    for (int i = 0; i < s.docs.length; i++) {
+      e.tt.addDoc(s.docs[i]);
+    }
+    e.urls.addAll(s.urls);
+
+    return e;
+  }
+
+  /**
+   * A method to set how the matches of the queries that are created after this 
+   * method are ranked.
+   * 
+   * @param r   the ranking
+   * @effects   if <code>r</code> is <code>null</code> throws <code>NotPossibleException</code>, 
+   *            else makes new queries of <code>this</code> rank their matches by 
+   *            <code>r</code>. The default ranking is <code>Ranking.Count</code>.
+   *            Sessions that are opened afterwards start with ranking <code>r</code>.
+   * @version 4.6
+   */
+  public void setRanking(Ranking r) throws NotPossibleException {
+    if (r == null)
+      throw new NotPossibleException("Engine.setRanking: ranking is null");
+
+    session.setRanking(r);
+  }
+
+  /**
+   * @effects returns how the matches of new queries of <code>this</code> are ranked
+   * @version 4.6
+   */
+  public Ranking getRanking() {
+    return session.getRanking();
+  }
+
+  /**
+   * A method to make the documents that are added to <code>this</code> from 
+   * now on compact.
+   * 
+   * @param store   the store of the texts of the documents, or <code>null</code>
+   * @modifies <code>this</code>
+   * @effects   makes each document that is added afterwards compact once it is 
+   *            published, as by <code>Doc.compact(store)</code>: if 
+   *            <code>store</code> is not <code>null</code> the document keeps 
+   *            only its title and the key of its text in <code>store</code>, 
+   *            else it keeps only its title and words. The titles and words of 
+   *            the documents are unchanged, but their bodies and words are found 
+   *            again each time they are used.
+   * @version 5.4
+   */
+  public void compactDocs(DocStore store) {
+    docStore = store;
+    compactDocs = true;
+  }
+
+  /**
+   * A method to open a session, which owns its own current query.
+   * 
+   * @param live  whether the session receives the documents that are added to or 
+   *              removed from <code>this</code> while it is open
+   * @effects   returns a new session of <code>this</code> without a query, whose 
+   *            ranking is the current ranking of <code>this</code>. If <code>live</code>
+   *            is <code>true</code> the current query of the session is updated by 
+   *            <code>addDoc</code> and <code>removeDoc</code> until it is closed.
+   * @version 5.0
+   */
+  public Session openSession(boolean live) {
+    Session s = new Session(this, live, (session != null) ? getRanking()
+        : Ranking.Count);
+    if (live) {
+      publishLock.writeLock().lock();
+      try {
+        sessions.add(s);
+      } finally {
+        publishLock.writeLock().unlock();
+      }
+    }
+    return s;
+  }
+
+  /**
+   * A method to register a standing query, whose listener is notified of each new 
+   * document that contains all its keywords.
+   * 
+   * @param keys  the keywords of the query
+   * @param l     the listener to notify
+   * @effects   if <code>keys</code> or <code>l</code> is <code>null</code> or 
+   *            <code>keys</code> contains no interesting word then throws 
+   *            <code>NotPossibleException</code>, else registers and returns a standing 
+   *            query for the interesting words of <code>keys</code>. From then on, 
+   *            <code>l</code> is notified of each document published by 
+   *            <code>addDoc</code> that contains all of them, on the thread that adds 
+   *            the document.
+   * @version 5.1
+   */
+  public StandingQuery register(String[] keys, MatchListener l) throws NotPossibleException {
+    if (keys == null || l == null)
+      throw new NotPossibleException("Engine.register: invalid arguments");
+
+    Vector<String> ks = new Vector<>();
+    String w;
+    for (int i = 0; i < keys.length; i++) {
+      w = (keys[i] != null) ? wt.canon(keys[i]) : null;
+      if (wt.isInteresting(w) && !ks.contains(w))
+        ks.add(w);
+    }
+
+    if (ks.isEmpty())
+      throw new NotPossibleException("Engine.register: none of the specified words is interesting: " 
+          + Arrays.toString(keys));
+
+    return percolator.register(wt, ks.toArray(new String[ks.size()]), l);
+  }
+
+  /**
+   * @effects   if <code>q</code> is registered with <code>this</code> removes it and 
+   *            returns <code>true</code>, else returns <code>false</code>
+   * @version 5.1
+   */
+  public boolean unregister(StandingQuery q) {
+    return q != null && percolator.remove(q);
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects stops updating the query of <code>s</code>
+   */
+  void close(Session s) {
+    publishLock.writeLock().lock();
+    try {
+      sessions.remove(s);
+    } finally {
+      publishLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @effects returns the lock that a session holds while it creates a query
+   */
+  Lock readLock() {
+    return publishLock.readLock();
+  }
+
+  /**
+   * @effects returns the session of the query methods of <code>this</code>
+   */
+  Session session() {
+    return session;
+  }
+
+  /**
+   * @effects returns <code>true</code> if a document of <code>this</code> 
+   *          contains <code>w</code>, else returns <code>false</code>
+   */
+  boolean isFound(String w) {
+    return wt.isFound(w);
+  }
+
+  /**
+   * @requires <code>w</code> is not <code>null</code>
+   * @effects returns the key of <code>w</code> by the analyzer of 
+   *          <code>this</code>, or <code>null</code> if it has none
+   * @version 5.5
+   */
+  String canon(String w) {
+    return wt.canon(w);
+  }
+
+  /**
+   * @requires <code>w</code> is in canonical form
+   * @effects returns a new query for <code>w</code>, which is empty if 
+   *          <code>w</code> is not found in any documents
+   */
+  Query newQuery(String w, Ranking ranking) {
+    return new Query(wt, w, ranking);
+  }
+
+  /**
+   * @requires the caller holds <code>readLock()</code>
+   * @effects returns a number that changes whenever a document is published or 
+   *          removed
+   */
+  long stamp() {
+    return stamp;
+  }
+
   /**
    * A method to create a <code>Query</code> object containing the matching documents 
    * of a given keyword <code>w</code>
@@ -50,20 +452,228 @@ public class Engine {
    * @effects   if <code>w</code> is not a word or <code>w</code> is an uninteresting word 
    *            then throws <code>NotPossibleException</code>, else returns 
    *            a <code>Query</code> object containing the documents matching the keyword
-   * @version 4.0
+   * @version 
+   * - 4.0 <br>
+   * - 4.9 look up the matches in the cache <br>
+   * - 5.0 the query of the session of <code>this</code>
    */
   public Query queryFirst(String w) throws NotPossibleException {
-    if (w != null) 
-      w = Helpers.canon(w);
+    return session.queryFirst(w);
+  }
+
+  /**
+   * @effects as for <code>queryFirst</code>, but returns a new query that ranks by 
+   *          <code>ranking</code>
+   */
+  Query first(String w, Ranking ranking) throws NotPossibleException {
+    String k = (w != null) ? wt.canon(w) : null;
     
-    // check w
-    if (wt.lookup(w) == null) {
-      throw new NotPossibleException("Engine.queryFirst: the specified word is either not found in any documents or uninteresting: " + w);
+    // check the key of w
+    if (k == null || !wt.isFound(k)) {
+      throw new NotPossibleException("Engine.queryFirst: the specified word is either not found in any documents or uninteresting: " + ((k != null) ? k : w));
     }
+    w = k;
     
-    q = new Query(wt, w);
+    String[] ks = { w };
+    Vector ms = cache.get(ks, ranking);
+    Query q;
+    if (ms != null) {
+      q = new Query(wt, ks, ms, ranking);
+    } else {
+      q = new Query(wt, w, ranking);
+      cache.put(ks, ranking, q.matches());
+    }
     return q;
   }
+
+  /**
+   * A method to create a <code>Query</code> object containing the documents that 
+   * contain a given phrase <code>p</code>
+   * 
+   * @param p   a phrase to search, e.g. a full name
+   * @effects   if <code>p</code> contains no interesting words or one of them is not 
+   *            found in any documents then throws <code>NotPossibleException</code>, 
+   *            else returns a <code>Query</code> object containing the documents in 
+   *            which the words of <code>p</code> occur next to each other in the order
+   *            of <code>p</code>. Uninteresting words of <code>p</code> match any word.
+   * @version 
+   * - 4.5 <br>
+   * - 5.0 the query of the session of <code>this</code>
+   */
+  public Query queryPhrase(String p) throws NotPossibleException {
+    return session.queryPhrase(p);
+  }
+
+  /**
+   * @effects as for <code>queryPhrase</code>, but returns a new query that ranks by 
+   *          <code>ranking</code>
+   */
+  Query phrase(String p, Ranking ranking) throws NotPossibleException {
+    return query(Proximity.phrase(wt, p), ranking, "Engine.queryPhrase");
+  }
+
+  /**
+   * A method to create a <code>Query</code> object containing the documents in which 
+   * some given words occur near each other
+   * 
+   * @param ws        the words to search
+   * @param distance  the largest number of positions between the first and the last 
+   *                  of the words
+   * @effects   if <code>ws</code> contains no interesting words, one of them is not 
+   *            found in any documents or <code>distance &lt; 0</code> then throws 
+   *            <code>NotPossibleException</code>, else returns a <code>Query</code> 
+   *            object containing the documents in which the interesting words of 
+   *            <code>ws</code> occur, in any order, within <code>distance</code> 
+   *            positions of each other
+   * @version 
+   * - 4.5 <br>
+   * - 5.0 the query of the session of <code>this</code>
+   */
+  public Query queryNear(String[] ws, int distance) throws NotPossibleException {
+    return session.queryNear(ws, distance);
+  }
+
+  /**
+   * @effects as for <code>queryNear</code>, but returns a new query that ranks by 
+   *          <code>ranking</code>
+   */
+  Query near(String[] ws, int distance, Ranking ranking) throws NotPossibleException {
+    return query(Proximity.near(wt, ws, distance), ranking, "Engine.queryNear");
+  }
+
+  /**
+   * A method to create a <code>Query</code> object containing the documents that 
+   * satisfy a boolean combination of keywords
+   * 
+   * @param s   a query string of keywords combined by <code>AND</code>, <code>OR</code>, 
+   *            <code>NOT</code> and parentheses, e.g. <code>nguyen (van OR le) NOT hanoi</code>;
+   *            keywords next to each other are combined by <code>AND</code>
+   * @effects   if <code>s</code> is not a valid query, contains an uninteresting word 
+   *            or a <code>NOT</code> that is not combined by <code>AND</code> with 
+   *            another clause then throws <code>NotPossibleException</code>, else 
+   *            returns a <code>Query</code> object containing the documents that 
+   *            satisfy <code>s</code>
+   * @version 
+   * - 4.8 <br>
+   * - 5.0 the query of the session of <code>this</code>
+   */
+  public Query queryBoolean(String s) throws NotPossibleException {
+    return session.queryBoolean(s);
+  }
+
+  /**
+   * @effects as for <code>queryBoolean</code>, but returns a new query that ranks by 
+   *          <code>ranking</code>
+   */
+  Query bool(String s, Ranking ranking) throws NotPossibleException {
+    return new Query(wt, BooleanQuery.parse(wt, s), ranking);
+  }
+
+  /**
+   * A method to create a <code>Query</code> object containing the documents that 
+   * contain a word or a keyword that differs from it by a few typing errors.
+   * 
+   * @param w         a word to search, which may be misspelled
+   * @param maxEdits  the largest number of characters inserted, deleted or 
+   *                  replaced to turn <code>w</code> into a keyword
+   * @effects   if <code>w</code> is <code>null</code> or not a word, 
+   *            <code>maxEdits</code> is not between 0 and 
+   *            <code>FuzzyIndex.MAX_EDITS</code>, or no keyword within 
+   *            <code>maxEdits</code> edits of <code>w</code> is interesting and 
+   *            found in some documents, throws <code>NotPossibleException</code>, 
+   *            else returns a <code>Query</code> object containing the documents 
+   *            that contain any of those keywords, as for 
+   *            <code>queryBoolean</code> of the keywords combined by 
+   *            <code>OR</code>. The keywords are found with a 
+   *            <code>FuzzyIndex</code>, without scanning all the keywords.
+   * @version 5.6
+   */
+  public Query queryFuzzy(String w, int maxEdits) throws NotPossibleException {
+    return session.queryFuzzy(w, maxEdits);
+  }
+
+  /**
+   * @effects as for <code>queryFuzzy</code>, but returns a new query that ranks by 
+   *          <code>ranking</code>
+   */
+  Query fuzzy(String w, int maxEdits, Ranking ranking) throws NotPossibleException {
+    if (maxEdits < 0 || maxEdits > FuzzyIndex.MAX_EDITS)
+      throw new NotPossibleException("Engine.queryFuzzy: invalid number of edits: " + maxEdits);
+
+    String k = (w != null) ? wt.canon(w) : null;
+    if (k == null)
+      throw new NotPossibleException("Engine.queryFuzzy: the specified word is not a word: " + w);
+
+    Vector<String> ks = new Vector<>();
+    for (String t : wt.similar(k, maxEdits)) {
+      if (wt.isInteresting(t) && wt.isFound(t))
+        ks.add(t);
+    }
+    if (ks.isEmpty())
+      throw new NotPossibleException("Engine.queryFuzzy: no word within " + maxEdits 
+          + " edits of the specified word is found in any documents or interesting: " + k);
+
+    return new Query(wt, BooleanQuery.anyOf(ks.toArray(new String[ks.size()])), ranking);
+  }
+
+  /**
+   * A method to find the best documents for some keywords, without sorting all the 
+   * matching documents.
+   * 
+   * @param keys  the keywords to search
+   * @param k     the largest number of documents to return
+   * @effects   if <code>keys</code> contains no interesting word that is found in 
+   *            some documents or <code>k &lt; 1</code> then throws 
+   *            <code>NotPossibleException</code>, else returns a vector of at most 
+   *            <code>k</code> <code>DocCnt</code>s of the documents that contain 
+   *            any of <code>keys</code>, with the highest scores by the current 
+   *            ranking of <code>this</code> in descending order of score. The score 
+   *            of a document is the sum of the scores of the keywords that it 
+   *            contains. The current query is not changed.
+   * @version 4.7
+   */
+  public Vector search(String[] keys, int k) throws NotPossibleException {
+    return search(keys, k, getRanking());
+  }
+
+  /**
+   * @effects as for <code>search(keys, k)</code>, but ranks the documents by 
+   *          <code>ranking</code>
+   */
+  Vector search(String[] keys, int k, Ranking ranking) throws NotPossibleException {
+    if (keys == null || k < 1)
+      throw new NotPossibleException("Engine.search: invalid arguments");
+
+    Vector<String> ks = new Vector<>();
+    String w;
+    for (int i = 0; i < keys.length; i++) {
+      w = (keys[i] != null) ? wt.canon(keys[i]) : null;
+      if (wt.isInteresting(w) && wt.isFound(w) && !ks.contains(w))
+        ks.add(w);
+    }
+
+    if (ks.isEmpty())
+      throw new NotPossibleException("Engine.search: none of the specified words is found in any documents or interesting: " 
+          + Arrays.toString(keys));
+
+    return TopK.search(wt, ks.toArray(new String[ks.size()]), k, ranking);
+  }
+
+  /**
+   * @effects if a keyword of <code>p</code> is not found in any documents throws 
+   *          <code>NotPossibleException</code>, else returns a new query for 
+   *          <code>p</code>
+   */
+  private Query query(Proximity p, Ranking ranking, String method) throws NotPossibleException {
+    String[] ks = p.keys();
+    for (int i = 0; i < ks.length; i++) {
+      if (!wt.isFound(ks[i])) {
+        throw new NotPossibleException(method + ": the specified word is not found in any documents: " + ks[i]);
+      }
+    }
+
+    return new Query(wt, p, ranking);
+  }
   
   /**
    * A method to query the matching documents of an existing <code>Query</code> object for  
@@ -73,18 +683,48 @@ public class Engine {
    * @effects   if <code>w</code> is not a word or <code>w</code> is an uninteresting word 
    *            then throws <code>NotPossibleException</code>, else returns 
    *            an updated <code>Query</code> object containing the documents matching all keywords
-   * @version 4.0
+   * @version 
+   * - 4.0 <br>
+   * - 4.9 look up the matches in the cache <br>
+   * - 5.0 the query of the session of <code>this</code>
    */
   public Query queryMore(String w) throws NotPossibleException {
-    if (w != null) 
-      w = Helpers.canon(w);
+    return session.queryMore(w);
+  }
 
-    // check w
-    if (wt.lookup(w) == null) {
-      throw new NotPossibleException("Engine.queryMore: the specified word is either not found in any documents or uninteresting: " + w);
+  /**
+   * @param current  whether no document was published or removed since 
+   *                 <code>q</code> was created
+   * @requires <code>q</code> is not <code>null</code>
+   * @modifies <code>q</code>
+   * @effects as for <code>queryMore</code> on the query <code>q</code>; returns 
+   *          <code>q</code> or a new query that replaces it. The matches are only 
+   *          cached if <code>current</code> is <code>true</code>.
+   */
+  Query more(Query q, String w, boolean current) throws NotPossibleException {
+    String k = (w != null) ? wt.canon(w) : null;
+
+    // check the key of w
+    if (k == null || !wt.isFound(k)) {
+      throw new NotPossibleException("Engine.queryMore: the specified word is either not found in any documents or uninteresting: " + ((k != null) ? k : w));
     }
+    w = k;
 
-    q.addKey(w);
+    String[] ks = q.keys();
+    if (q.isConjunction() && q.size() > 0 && !Arrays.asList(ks).contains(w)) {
+      ks = Arrays.copyOf(ks, ks.length + 1);
+      ks[ks.length - 1] = w;
+      Vector ms = cache.get(ks, q.ranking());
+      if (ms != null) {
+        q = new Query(wt, ks, ms, q.ranking());
+      } else {
+        q.addKey(w);
+        if (current)
+          cache.put(ks, q.ranking(), q.matches());
+      }
+    } else {
+      q.addKey(w);
+    }
     
     return q;
   }
@@ -113,26 +753,225 @@ public class Engine {
    *        throws NullPointerException
    *    else
    *       add d to this.tt and this.wt using their respective methods.
-   *       If this.q is not null
-   *          update this.q to contain any new matching documents.
-   *       Return this.q
+   *       For each live session whose query is not null
+   *          update the query to contain any new matching documents.
+   *       Notify the standing queries that d matches.
+   *       Return the query of the session of this
+   *
+   * @version 
+   * - 4.1 safe to invoke from multiple threads at once <br>
+   * - 4.4 do not publish d if it was removed while being indexed <br>
+   * - 4.9 drop the cached queries that share a keyword with d <br>
+   * - 5.0 update the queries of the live sessions <br>
+   * - 5.1 percolate d through the standing queries <br>
+   * - 5.3 implemented by <code>count</code> and <code>addCounted</code>
    */
   public Query addDoc(Doc d){
       if (d == null){
         throw new NullPointerException("Doc is null");
       }
-      else{
-        tt.addDoc(d);
-        Hashtable h = wt.addDoc(d);
 
-        if(q != null){
-          q.addDoc(d, h);
+      // count and index the words of d without holding the lock of this
+      KeywordMap h = count(d);
+      if (h != null)
+        addCounted(new Doc[] { d }, new KeywordMap[] { h }, 1);
+
+      return session.query();
+  }
+
+  /**
+   * A method to perform the first step of adding a document, which may run 
+   * concurrently with other steps.
+   * 
+   * @requires <code>d</code> is not <code>null</code>
+   * @modifies <code>this</code>
+   * @effects adds <code>d</code> to <code>this.tt</code>, then returns 
+   *          <code>this.wt.keywords(d)</code>
+   * @version 5.3
+   */
+  KeywordMap count(Doc d) {
+    tt.addDoc(d);
+    return wt.keywords(d);
+  }
+
+  /**
+   * A method to perform the last step of adding documents: index them and 
+   * publish them all at once.
+   * 
+   * @requires each <code>hs[i]</code> is the non-null result of 
+   *           <code>count(ds[i])</code>, for <code>0 &lt;= i &lt; n</code>
+   * @modifies <code>this</code>
+   * @effects indexes <code>ds[0..n-1]</code> in <code>this.wt</code>, then 
+   *          publishes those that were not removed meanwhile in one step, 
+   *          updating the live sessions, and percolates them through the 
+   *          standing queries, then makes them compact if 
+   *          <code>compactDocs</code> was invoked
+   * @version 
+   * - 5.3 <br>
+   * - 5.4 make the documents compact
+   */
+  void addCounted(Doc[] ds, KeywordMap[] hs, int n) {
+    // the keywords of the batch, whose cached queries are dropped
+    Set words;
+    if (n == 1) {
+      words = hs[0].keySet();
+    } else {
+      words = new HashSet();
+      for (int i = 0; i < n; i++)
+        words.addAll(hs[i].keySet());
+    }
+
+    boolean[] published = new boolean[n];
+    ingestLock.readLock().lock();
+    try {
+      int[] docIds = new int[n];
+      for (int i = 0; i < n; i++)
+        docIds[i] = wt.index(hs[i]);
+
+      // publish the documents and update the live queries in one step
+      publishLock.writeLock().lock();
+      try {
+        for (int i = 0; i < n; i++) {
+          if (!tt.contains(ds[i])) {
+            // removed while being indexed
+            wt.discard(docIds[i]);
+          } else {
+            wt.publish(docIds[i], ds[i]);
+            published[i] = true;
+            for (Session s : sessions) {
+              s.addDoc(ds[i], hs[i]);
+            }
+          }
         }
+        stamp++;
+        cache.invalidate(words);
+      } finally {
+        publishLock.writeLock().unlock();
       }
+    } finally {
+      ingestLock.readLock().unlock();
+    }
 
-      return q;
+    // notify outside the lock, so that slow listeners do not hold up queries
+    try {
+      for (int i = 0; i < n; i++) {
+        if (published[i])
+          percolator.percolate(ds[i], hs[i]);
+      }
+    } finally {
+      if (compactDocs) {
+        DocStore s = docStore;
+        for (int i = 0; i < n; i++) {
+          if (published[i])
+            ds[i].compact(s);
+        }
+      }
+    }
   }
   
+  /**
+   * A method to remove a document given its title.
+   * 
+   * @param t   the title of the document to remove
+   * @effects   if <code>t</code> is not in <code>TitleTable</code> 
+   *            then throw <code>NotPossibleException</code>, 
+   *            else removes the <code>Doc</code> object with title <code>t</code> 
+   *            from <code>TitleTable</code>, <code>WordTable</code> and the queries 
+   *            of the live sessions, and returns it
+   * @version 
+   * - 4.4 <br>
+   * - 4.9 drop the cached queries that share a keyword with the document <br>
+   * - 5.0 update the queries of the live sessions
+   */
+  public Doc removeDoc(String t) throws NotPossibleException {
+    Doc d;
+    ingestLock.readLock().lock();
+    try {
+      d = tt.remove(t);
+      KeywordMap h = wt.keywords(d);
+
+      publishLock.writeLock().lock();
+      try {
+        if (wt.removeDoc(t) >= 0) {
+          stamp++;
+          if (h != null)
+            cache.invalidate(h.keySet());
+        }
+        for (Session s : sessions) {
+          s.removeDoc(d);
+        }
+      } finally {
+        publishLock.writeLock().unlock();
+      }
+    } finally {
+      ingestLock.readLock().unlock();
+    }
+
+    return d;
+  }
+
+  /**
+   * A method to update a document in place.
+   * 
+   * @param d   the new version of a document
+   * @effects   if d is null
+   *              throws NullPointerException
+   *            else
+   *              removes the document with the same title as <code>d</code> (if any) 
+   *              and adds <code>d</code> using <code>addDoc</code>. 
+   *              Return the query of the session of this. 
+   *            A document whose title changes, e.g. that of a renamed 
+   *            <code>Customer</code>, is updated by <code>updateDoc(t, d)</code>
+   * @version 4.4
+   */
+  public Query updateDoc(Doc d) {
+    if (d == null){
+      throw new NullPointerException("Doc is null");
+    }
+
+    return updateDoc(d.title(), d);
+  }
+
+  /**
+   * A method to update a document whose title may have changed.
+   * 
+   * @param t   the title of the old version of the document
+   * @param d   the new version of the document
+   * @effects   if d is null
+   *              throws NullPointerException
+   *            else
+   *              removes the document with title <code>t</code> (if any) 
+   *              and adds <code>d</code> using <code>addDoc</code>. 
+   *              Return the query of the session of this
+   * @version 4.4
+   */
+  public Query updateDoc(String t, Doc d) {
+    if (d == null){
+      throw new NullPointerException("Doc is null");
+    }
+
+    synchronized (updateLock) {
+      try {
+        removeDoc(t);
+      } catch (NotPossibleException e) {
+        // a new document
+      }
+
+      return addDoc(d);
+    }
+  }
+
+  /**
+   * A method to drop the postings of removed documents from the indexes.
+   * 
+   * @effects  compacts <code>WordTable</code> so that it no longer contains the 
+   *           postings of removed documents 
+   * @version 4.4
+   */
+  public void compact() {
+    wt.compact();
+  }
+
   /**
    * A method to retrieve documents from remote web site <code>u</code> and store 
    * them for query processing.
@@ -145,38 +984,83 @@ public class Engine {
    *            respective methods. If no query was in progress then return an empty
    *            <code>Query</code> object, else returns an updated object that contains 
    *            any matching new documents.
-   * @version 4.0  add each new document to the current query (if one exists)
+   * @version 
+   * - 4.0  add each new document to the current query (if one exists) <br>
+   * - 4.1  add each document using <code>addDoc</code>; claim <code>u</code> 
+   *        atomically before reading it, and release it if none of its 
+   *        documents could be added
    */
   public Query addDocs(String u) throws NotPossibleException {
-    if (urls.contains(u)) 
-      throw new NotPossibleException("Engine.addDocs: URL has been used: " + u);
-        
-    // use Comm.getDocs to obtain documents
-    // this method will throw exception if u is not a valid URL
-    Iterator docs = Comm.getDocs(u);
-    Doc d;
-    Hashtable h;
-    while (docs.hasNext()) {
-      d = (Doc) docs.next();
-      //addDoc(d);
-      tt.addDoc(d);
-      h = wt.addDoc(d);
-      
-      if (q != null) {        
-        q.addDoc(d, h);
+    // stores URL to urls before reading it, so that two threads cannot both
+    // add the same site
+    claim(urls, u, "Engine.addDocs");
+
+    boolean added = false;
+    try {
+      // use Comm.getDocs to obtain documents
+      // this method will throw exception if u is not a valid URL
+      Iterator docs = Comm.getDocs(u);
+      Doc d;
+      while (docs.hasNext()) {
+        d = (Doc) docs.next();
+        addDoc(d);
+        added = true;
       }
+    } catch (RuntimeException e) {
+      if (!added)
+        urls.remove(u);
+      throw e;
     }
-    
-    if (q == null) {
-      q = new Query();
-    }
-    
-    // stores URL to urls 
-    urls.add(u);
-    
-    return q;
+
+    return session.emptyIfNone();
   }  
 
+  /**
+   * A method to retrieve the documents of a web site and add them using 
+   * several threads.
+   * 
+   * @param u         the URL of the web site
+   * @param threads   the number of threads that count the words of the documents
+   * @effects   as for <code>addDocs(u)</code>, except that the documents are read,
+   *            counted and indexed concurrently by an <code>IngestPipeline</code>,
+   *            in no particular order; if <code>threads &lt; 1</code> throws
+   *            <code>NotPossibleException</code>
+   * @version 5.3
+   */
+  public Query addDocs(String u, int threads) throws NotPossibleException {
+    if (threads < 1)
+      throw new NotPossibleException("Engine.addDocs: invalid number of threads: " + threads);
+    claim(urls, u, "Engine.addDocs");
+
+    // as for addDocs(u), u stays recorded once any of its documents is added
+    IngestPipeline p = new IngestPipeline(this, threads);
+    boolean done = false;
+    try {
+      p.run(Comm.listFiles(u));
+      done = true;
+    } finally {
+      if (!done && p.added() == 0)
+        urls.remove(u);
+    }
+
+    return session.emptyIfNone();
+  }
+
+  /**
+   * @modifies <code>urls</code>
+   * @effects if <code>u</code> is in <code>urls</code> throws
+   *          <code>NotPossibleException</code>, else adds <code>u</code> to
+   *          <code>urls</code>, atomically
+   */
+  static void claim(Vector urls, String u, String method)
+      throws NotPossibleException {
+    synchronized (urls) {
+      if (urls.contains(u))
+        throw new NotPossibleException(method + ": URL has been used: " + u);
+      urls.add(u);
+    }
+  }
+
   /**
    * @effects 
    *  if tt is empty
@@ -0,0 +1,117 @@
+package a3_1801040081.kengine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview A <code>DocStore</code> that appends the texts of documents to a 
+ *           file, each as an <code>int</code> length followed by its UTF-8 
+ *           bytes. The key of a text is the position of its entry in the file, 
+ *           from which it is read back with one positional read, so that 
+ *           readers do not wait for each other or for writers.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+public class FileDocStore implements DocStore {
+  private final Path path;
+  private final FileChannel ch;
+  // the size of the file, guarded by this
+  private long size;
+
+  private FileDocStore(Path path) throws IOException {
+    this.path = path;
+    ch = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+  }
+
+  /**
+   * A method to create a store.
+   * 
+   * @param p
+   *          the file of the store
+   * @effects if <code>p</code> cannot be created throws 
+   *          <code>NotPossibleException</code>, else returns an empty store 
+   *          in <code>p</code>, replacing its content if it exists
+   */
+  public static FileDocStore create(Path p) throws NotPossibleException {
+    try {
+      return new FileDocStore(p);
+    } catch (IOException e) {
+      throw new NotPossibleException("FileDocStore.create: failed to create "
+          + p + " due to " + e);
+    }
+  }
+
+  /**
+   * @effects as for <code>DocStore.put</code>
+   */
+  public long put(String text) throws NotPossibleException {
+    byte[] b = text.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer e = ByteBuffer.allocate(4 + b.length);
+    e.putInt(b.length).put(b).flip();
+
+    synchronized (this) {
+      long key = size;
+      try {
+        write(e, key);
+      } catch (IOException ex) {
+        throw new NotPossibleException("FileDocStore.put: failed to write to "
+            + path + " due to " + ex);
+      }
+      size += 4 + b.length;
+      return key;
+    }
+  }
+
+  /**
+   * @effects as for <code>DocStore.get</code>
+   */
+  public String get(long key) throws NotPossibleException {
+    try {
+      ByteBuffer n = ByteBuffer.allocate(4);
+      read(n, key);
+      ByteBuffer b = ByteBuffer.allocate(n.getInt(0));
+      read(b, key + 4);
+      return new String(b.array(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new NotPossibleException("FileDocStore.get: failed to read from "
+          + path + " due to " + e);
+    }
+  }
+
+  /**
+   * @effects closes the file of <code>this</code>, after which the texts 
+   *          can no longer be read
+   */
+  public void close() {
+    try {
+      ch.close();
+    } catch (IOException e) {
+      // nothing more to release
+    }
+  }
+
+  private void write(ByteBuffer b, long pos) throws IOException {
+    while (b.hasRemaining())
+      pos += ch.write(b, pos);
+  }
+
+  private void read(ByteBuffer b, long pos) throws IOException {
+    int n;
+    while (b.hasRemaining()) {
+      n = ch.read(b, pos);
+      if (n < 0)
+        throw new IOException("unexpected end of file at " + pos);
+      pos += n;
+    }
+  }
+}
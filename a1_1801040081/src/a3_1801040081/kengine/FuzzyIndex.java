@@ -0,0 +1,282 @@
+package a3_1801040081.kengine;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @overview A symmetric-delete index of the keywords of a 
+ *           <code>WordTable</code>, which finds the keywords within a small 
+ *           edit distance of a word without scanning all of them.
+ *
+ *           Each keyword is indexed under every string that is obtained by 
+ *           deleting at most <code>MAX_EDITS</code> of its characters. Two 
+ *           words within Levenshtein distance <code>e</code> of each other 
+ *           share such a string that is obtained by at most <code>e</code> 
+ *           deletions from each, so the candidates of a word are the keywords 
+ *           indexed under its own deletions; they are then checked by 
+ *           computing their distances.
+ *
+ *           The deletions are kept as their hash codes, in an open-addressing 
+ *           table of chains of keyword ids, so that no string is kept per 
+ *           deletion; two deletions with the same hash code only add 
+ *           candidates that are rejected by the check. Keywords longer than 
+ *           <code>MAX_LENGTH</code> characters are only found exactly.
+ *
+ *           An index can be used by multiple threads: keywords are added 
+ *           under a write lock and looked up under a read lock, so lookups 
+ *           run concurrently with each other.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+class FuzzyIndex {
+  static final int MAX_EDITS = 2;
+  static final int MAX_LENGTH = 32;
+
+  private static final int INITIAL_SIZE = 1 << 10;
+
+  // the keywords by id, and the ids by keyword
+  private final Vector<String> terms = new Vector<>();
+  private final HashMap<String, Integer> ids = new HashMap<>();
+
+  // slot i of the table holds a hash code, or 0 if empty, and the first
+  // entry of its chain
+  private int[] hashes = new int[INITIAL_SIZE];
+  private int[] heads = new int[INITIAL_SIZE];
+  private int used; // the number of slots in use
+
+  // entry j is the keyword id entryTerms[j] and the next entry of its chain,
+  // or -1
+  private int[] entryTerms = new int[INITIAL_SIZE];
+  private int[] next = new int[INITIAL_SIZE];
+  private int entries;
+
+  // held for writing by add and for reading by the other methods
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * @modifies <code>this</code>
+   * @effects if <code>t</code> is not in <code>this</code> adds it
+   */
+  void add(String t) {
+    // most keywords that are new to a write buffer are already indexed
+    lock.readLock().lock();
+    try {
+      if (ids.containsKey(t))
+        return;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    HashSet<String> ds = null;
+    if (t.length() <= MAX_LENGTH) {
+      // found outside the lock
+      ds = new HashSet<>();
+      deletes(t, MAX_EDITS, ds);
+    }
+
+    lock.writeLock().lock();
+    try {
+      if (ids.containsKey(t))
+        return;
+
+      int id = terms.size();
+      terms.add(t);
+      ids.put(t, id);
+      if (ds != null) {
+        for (String d : ds)
+          put(hash(d), id);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @requires <code>0 &lt;= maxEdits &lt;= MAX_EDITS</code>
+   * @effects returns the keywords of <code>this</code> whose Levenshtein 
+   *          distance to <code>w</code> is at most <code>maxEdits</code>, in 
+   *          ascending order of distance and then of keyword
+   */
+  Vector<String> lookup(String w, int maxEdits) {
+    Vector<String> found = new Vector<>();
+    HashSet<String> ds = null;
+    if (w.length() <= MAX_LENGTH + maxEdits) {
+      ds = new HashSet<>();
+      deletes(w, maxEdits, ds);
+    }
+
+    // <distance, id> of the matches
+    Vector<long[]> ms = new Vector<>();
+    lock.readLock().lock();
+    try {
+      if (ds == null) {
+        // only an exact match is indexed
+        if (ids.containsKey(w))
+          found.add(w);
+        return found;
+      }
+
+      // the ids of the candidates, each checked once
+      HashSet<Integer> seen = new HashSet<>();
+      int slot, id, dist;
+      for (String d : ds) {
+        slot = find(hash(d));
+        if (hashes[slot] == 0)
+          continue;
+        for (int j = heads[slot]; j >= 0; j = next[j]) {
+          id = entryTerms[j];
+          if (seen.add(id)) {
+            dist = distance(w, terms.get(id), maxEdits);
+            if (dist <= maxEdits)
+              ms.add(new long[] { dist, id });
+          }
+        }
+      }
+      // a long keyword is not indexed under its deletions
+      Integer lid = ids.get(w);
+      if (lid != null && !seen.contains(lid))
+        ms.add(new long[] { 0, lid });
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    long[][] a = ms.toArray(new long[ms.size()][]);
+    final Vector<String> ts = terms;
+    Arrays.sort(a, new Comparator<long[]>() {
+      public int compare(long[] x, long[] y) {
+        return (x[0] != y[0]) ? Long.compare(x[0], y[0])
+            : ts.get((int) x[1]).compareTo(ts.get((int) y[1]));
+      }
+    });
+    for (int i = 0; i < a.length; i++)
+      found.add(terms.get((int) a[i][1]));
+    return found;
+  }
+
+  /**
+   * @effects returns the number of keywords in <code>this</code>
+   */
+  int size() {
+    lock.readLock().lock();
+    try {
+      return terms.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @modifies <code>ds</code>
+   * @effects adds to <code>ds</code> <code>w</code> and the strings obtained 
+   *          by deleting at most <code>n</code> characters of <code>w</code>
+   */
+  private static void deletes(String w, int n, HashSet<String> ds) {
+    int len = w.length();
+    if (!ds.add(w) || n == 0 || len == 0)
+      return;
+    char[] a = w.toCharArray();
+    char[] b = new char[len - 1];
+    for (int i = 0; i < len; i++) {
+      // b is a without a[i]
+      System.arraycopy(a, 0, b, 0, i);
+      System.arraycopy(a, i + 1, b, i, len - i - 1);
+      deletes(new String(b), n - 1, ds);
+    }
+  }
+
+  /**
+   * @effects returns the Levenshtein distance between <code>a</code> and 
+   *          <code>b</code> if it is at most <code>max</code>, else returns 
+   *          a number greater than <code>max</code>
+   */
+  static int distance(String a, String b, int max) {
+    int m = a.length(), n = b.length();
+    if (Math.abs(m - n) > max)
+      return max + 1;
+
+    int[] prev = new int[n + 1], cur = new int[n + 1], tmp;
+    for (int j = 0; j <= n; j++)
+      prev[j] = j;
+    int rowMin;
+    for (int i = 1; i <= m; i++) {
+      cur[0] = i;
+      rowMin = i;
+      for (int j = 1; j <= n; j++) {
+        cur[j] = Math.min(Math.min(cur[j - 1], prev[j]) + 1,
+            prev[j - 1] + ((a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1));
+        if (cur[j] < rowMin)
+          rowMin = cur[j];
+      }
+      // the distance is at least the smallest value of any row
+      if (rowMin > max)
+        return max + 1;
+      tmp = prev;
+      prev = cur;
+      cur = tmp;
+    }
+    return prev[n];
+  }
+
+  /**
+   * @effects returns a non-zero hash code of <code>s</code>
+   */
+  private static int hash(String s) {
+    int h = s.hashCode();
+    h ^= (h >>> 16);
+    h *= 0x85EBCA6B;
+    h ^= (h >>> 13);
+    return (h != 0) ? h : 1;
+  }
+
+  /**
+   * @effects returns the slot of <code>h</code>, or the empty slot where it 
+   *          is to be put
+   */
+  private int find(int h) {
+    int mask = hashes.length - 1;
+    int i = h & mask;
+    while (hashes[i] != 0 && hashes[i] != h)
+      i = (i + 1) & mask;
+    return i;
+  }
+
+  private void put(int h, int id) {
+    int slot = find(h);
+    if (hashes[slot] == 0) {
+      hashes[slot] = h;
+      heads[slot] = -1;
+      used++;
+    }
+
+    if (entries == entryTerms.length) {
+      entryTerms = Arrays.copyOf(entryTerms, entries * 2);
+      next = Arrays.copyOf(next, entries * 2);
+    }
+    entryTerms[entries] = id;
+    next[entries] = heads[slot];
+    heads[slot] = entries++;
+
+    if (used * 2 > hashes.length)
+      rehash();
+  }
+
+  private void rehash() {
+    int[] oh = hashes, ohd = heads;
+    hashes = new int[oh.length * 2];
+    heads = new int[oh.length * 2];
+    int slot;
+    for (int i = 0; i < oh.length; i++) {
+      if (oh[i] != 0) {
+        slot = find(oh[i]);
+        hashes[slot] = oh[i];
+        heads[slot] = ohd[i];
+      }
+    }
+  }
+}
@@ -6,7 +6,7 @@ import utils.NotPossibleException;
  * @overview A general helper class responsible for performing procedures that are 
  *           needed by a number of application classes.
  *           At present only <code>canon</code> is defined.
- * @version  2.0
+ * @version  2.1
  *              
  * @see      "Program development in Java", pgs 332-333,365
  * @author dmle
@@ -20,9 +20,38 @@ public class Helpers {
    * @param s a <code>String</code> from which a canonical form is to be generated
    * @effects If <code>s</code> is <code>null</code> throws <code>NotPossibleException</code>
    *          else returns a canonical form of <code>s</code>.
-   * @version 2.0 uses the lower-case of <code>s</code> as the canonical form of <code>s</code> 
+   * @version 
+   * - 2.0 uses the lower-case of <code>s</code> as the canonical form of <code>s</code> <br>
+   * - 2.1 lower-cases ASCII strings without <code>String.toLowerCase</code>, and 
+   *       returns <code>s</code> itself if it is already in lower case
    */
   public static String canon(String s) throws NotPossibleException {    
-    return s.toLowerCase();
+    if (s == null)
+      throw new NotPossibleException("Helpers.canon: string is null");
+
+    int n = s.length();
+    int i = 0;
+    char c;
+    // skip the prefix that is already canonical
+    while (i < n) {
+      c = s.charAt(i);
+      if (c >= 0x80)
+        return s.toLowerCase();
+      if (c >= 'A' && c <= 'Z')
+        break;
+      i++;
+    }
+    if (i == n)
+      return s;
+
+    char[] a = s.toCharArray();
+    for (; i < n; i++) {
+      c = a[i];
+      if (c >= 0x80)
+        return s.toLowerCase();
+      if (c >= 'A' && c <= 'Z')
+        a[i] = (char) (c + ('a' - 'A'));
+    }
+    return new String(a);
   }
 }
@@ -0,0 +1,309 @@
+package a3_1801040081.kengine;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * @overview A tokenizer that reads an HTML document from a character stream
+ *           through a fixed-size window and extracts its title and the words
+ *           of its body as it goes, so the text of the document is never held
+ *           in memory.
+ *
+ *           The title and the words are those that <code>Doc.title</code> and
+ *           <code>Doc.words</code> find in the text, after its line endings
+ *           are changed to <code>'\n'</code> as by <code>Comm.readDoc</code>.
+ *           The words are kept separated by spaces, after the start of the
+ *           content of the compact document that is returned, so that the
+ *           content is completed in the same buffer; the words of a text that
+ *           may still be dropped, because it is not yet ended by a
+ *           <code>'&lt;'</code>, are removed when it is dropped.
+ *
+ *           A title longer than <code>MAX_TITLE</code> characters is ignored.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+class HtmlStreamTokenizer {
+  static final int WINDOW_SIZE = 1 << 13;
+  static final int MAX_TITLE = 1 << 16;
+
+  private static final char[][] SPECIAL_TAGS = { "script".toCharArray(),
+      "SCRIPT".toCharArray(), "style".toCharArray(), "STYLE".toCharArray() };
+
+  private final Title title = new Title("<title>", "</title>");
+  private final Title upperTitle = new Title("<TITLE>", "</TITLE>");
+  private final Body body = new Body("<body", "</body>");
+  private final Body upperBody = new Body("<BODY", "</BODY>");
+
+  /**
+   * @effects reads <code>in</code> to its end and returns the document that
+   *          consists of the title and the words of the body of the HTML
+   *          document of <code>in</code>, whose <code>title</code> and
+   *          <code>words</code> are the same as those of the HTML document;
+   *          the result has a body even if the HTML document does not
+   */
+  static Doc read(Reader in) throws IOException {
+    HtmlStreamTokenizer t = new HtmlStreamTokenizer();
+    char[] window = new char[WINDOW_SIZE];
+    boolean cr = false; // whether the last character was '\r'
+    int n;
+    char c;
+    while ((n = in.read(window)) >= 0) {
+      for (int i = 0; i < n; i++) {
+        c = window[i];
+        if (c == '\r') {
+          c = '\n';
+          cr = true;
+        } else if (c == '\n' && cr) {
+          cr = false;
+          continue;
+        } else {
+          cr = false;
+        }
+        t.next(c);
+      }
+    }
+
+    return t.doc();
+  }
+
+  private void next(char c) {
+    title.next(c);
+    upperTitle.next(c);
+    body.next(c);
+    // the upper-case body is only used if there is no lower-case one
+    if (body.state == Body.WAITING)
+      upperBody.next(c);
+  }
+
+  /**
+   * @effects returns the document of the title and words found
+   */
+  private Doc doc() {
+    // as by Doc.title and Doc.bodyBounds
+    Title t = (title.state != Title.WAITING) ? title : upperTitle;
+    StringBuilder words = (body.state != Body.WAITING) ? body.words()
+        : upperBody.words();
+    if (words == null)
+      words = new StringBuilder(Doc.COMPACT_START);
+
+    return new Doc(Doc.compactText(words, t.text, t == upperTitle), true);
+  }
+
+  /**
+   * @overview A matcher of a tag that starts with <code>'&lt;'</code> and
+   *           does not otherwise contain it.
+   */
+  private static class Tag {
+    private final char[] p;
+    private int k; // the number of characters of p matched
+
+    Tag(String p) {
+      this.p = p.toCharArray();
+    }
+
+    /**
+     * @effects if <code>c</code> completes a match of the tag returns
+     *          <code>true</code>, else returns <code>false</code>
+     */
+    boolean next(char c) {
+      if (c == p[k])
+        k++;
+      else
+        k = (c == p[0]) ? 1 : 0;
+
+      if (k == p.length) {
+        k = 0;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * @overview The text between the first opening tag of a title and the first
+   *           closing tag, or no text if the closing tag is first.
+   */
+  private static class Title {
+    static final int WAITING = 0, READING = 1, DONE = 2;
+
+    private final Tag open, close;
+    int state;
+    private StringBuilder buf;
+    String text; // the title if DONE, else null
+    // whether the first closing tag is before the opening tag
+    private boolean closedFirst;
+
+    Title(String open, String close) {
+      this.open = new Tag(open);
+      this.close = new Tag(close);
+    }
+
+    void next(char c) {
+      if (state == WAITING) {
+        if (open.next(c)) {
+          state = closedFirst ? DONE : READING;
+          buf = new StringBuilder();
+        } else if (close.next(c)) {
+          closedFirst = true;
+        }
+      } else if (state == READING) {
+        buf.append(c);
+        if (close.next(c)) {
+          buf.setLength(buf.length() - close.p.length);
+          text = buf.toString();
+          buf = null;
+          state = DONE;
+        } else if (buf.length() > MAX_TITLE + close.p.length) {
+          // too long to be a title
+          buf = null;
+          state = DONE;
+        }
+      }
+    }
+  }
+
+  /**
+   * @overview The words between the first opening tag of a body and the first
+   *           closing tag, found as by <code>HtmlTokenizer</code>, or no words
+   *           if the closing tag is first.
+   */
+  private static class Body {
+    static final int WAITING = 0, READING = 1, DONE = 2;
+
+    private final Tag open, close;
+    int state;
+    private StringBuilder words;
+    // whether the first closing tag is before the opening tag
+    private boolean closedFirst;
+
+    // as in HtmlTokenizer
+    private boolean inTag;
+    private final char[] tagName = new char[6]; // the start of the tag name
+    private int tagLength;
+    private boolean tagClosed;
+    private boolean special;
+    private boolean inText;
+
+    // the length of words at the start of the text
+    private int textStart;
+    // whether a word of the text is being read, and the length of words
+    // after its last character that is not trimmed
+    private boolean inWord;
+    private int wordEnd;
+
+    Body(String open, String close) {
+      this.open = new Tag(open);
+      this.close = new Tag(close);
+    }
+
+    /**
+     * @effects if the body was found returns <code>Doc.COMPACT_START</code>
+     *          followed by its words, else returns <code>null</code>
+     */
+    StringBuilder words() {
+      return (state == DONE) ? words : null;
+    }
+
+    void next(char c) {
+      if (state == WAITING) {
+        if (open.next(c)) {
+          words = new StringBuilder(Doc.COMPACT_START);
+          state = closedFirst ? DONE : READING;
+          // inside the opening tag of the body, which is not special
+          inTag = true;
+          tagClosed = true;
+        } else if (close.next(c)) {
+          closedFirst = true;
+        }
+        return;
+      }
+      if (state == DONE)
+        return;
+
+      token(c);
+      if (close.next(c)) {
+        // drop the text after the closing tag
+        if (inText)
+          words.setLength(textStart);
+        state = DONE;
+      }
+    }
+
+    private void token(char c) {
+      if (!inTag) {
+        if (c == '<') {
+          inTag = true;
+          tagLength = 0;
+          tagClosed = false;
+        }
+      } else if (c == '>') {
+        if (!tagClosed) {
+          special = isSpecial();
+          tagClosed = true;
+        }
+        if (!special) {
+          // a '>' in a text drops the text before it
+          if (inText)
+            words.setLength(textStart);
+          inText = true;
+          textStart = words.length();
+          inWord = false;
+        }
+      } else if (c == '<') {
+        if (inText) {
+          endWord();
+          inText = false;
+        }
+        tagLength = 0;
+        tagClosed = false;
+      } else {
+        if (!tagClosed && tagLength < tagName.length)
+          tagName[tagLength++] = c;
+        if (inText && c != '\n')
+          text(c);
+      }
+    }
+
+    private void text(char c) {
+      if (c == ' ' || c == '\t') {
+        endWord();
+        return;
+      }
+
+      if (!inWord) {
+        // as String.trim
+        if (c <= ' ')
+          return;
+        if (words.length() > Doc.COMPACT_START.length())
+          words.append(' ');
+        inWord = true;
+      }
+      words.append(c);
+      if (c > ' ')
+        wordEnd = words.length();
+    }
+
+    private void endWord() {
+      if (inWord) {
+        // as String.trim
+        words.setLength(wordEnd);
+        inWord = false;
+      }
+    }
+
+    private boolean isSpecial() {
+      for (char[] t : SPECIAL_TAGS) {
+        if (tagLength >= t.length) {
+          int j = 0;
+          while (j < t.length && tagName[j] == t[j])
+            j++;
+          if (j == t.length)
+            return true;
+        }
+      }
+      return false;
+    }
+  }
+}
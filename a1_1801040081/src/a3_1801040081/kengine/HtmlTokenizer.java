@@ -0,0 +1,161 @@
+package a3_1801040081.kengine;
+
+/**
+ * @overview A tokenizer that splits the text of an HTML document into words
+ *           in one pass over its characters, without creating any objects per
+ *           word: the words are handed to a <code>TokenSink</code> as slices
+ *           of a buffer that is reused by the next document.
+ *
+ *           The words are the same as those of <code>Doc.words</code> version
+ *           1.0:
+ *           <ul>
+ *           <li>the text between a <code>'&gt;'</code> and the next
+ *           <code>'&lt;'</code> is split at spaces and tabs, and each part is
+ *           trimmed; a <code>'\n'</code> in the text is dropped, so it does not
+ *           separate words,
+ *           <li>the text after a tag whose name starts with
+ *           <code>script</code>, <code>SCRIPT</code>, <code>style</code> or
+ *           <code>STYLE</code> is skipped,
+ *           <li>a <code>'&gt;'</code> in the text of a tag drops the text
+ *           before it, and the text after the last <code>'&gt;'</code> of the
+ *           document is dropped.
+ *           </ul>
+ *
+ *           A tokenizer is not safe for use by multiple threads.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+class HtmlTokenizer {
+  // the buffers larger than this are not kept for the next document
+  private static final int MAX_KEPT = 1 << 20;
+  private static final int INITIAL_SIZE = 1 << 12;
+
+  private static final char[][] SPECIAL_TAGS = { "script".toCharArray(),
+      "SCRIPT".toCharArray(), "style".toCharArray(), "STYLE".toCharArray() };
+
+  private char[] buf = new char[INITIAL_SIZE];
+
+  /**
+   * @requires <code>0 &lt;= from &lt;= to &lt;= s.length()</code>
+   * @effects passes the words of <code>s[from..to-1]</code> to
+   *          <code>sink</code> in the order they appear
+   */
+  void tokenize(String s, int from, int to, TokenSink sink) {
+    int n = to - from;
+    if (buf.length < n)
+      buf = new char[Math.max(n, buf.length * 2)];
+    char[] a = buf;
+    s.getChars(from, to, a, 0);
+
+    // the text of a word is moved left over the dropped characters, so the
+    // write index never passes the read index
+    boolean inTag = false; // after a '<'
+    int tag = 0; // the index after the last '<'
+    boolean tagClosed = false; // whether the tag has had a '>'
+    boolean special = false; // whether the tag is skipped
+    boolean inText = false; // whether collecting the text after a '>'
+    int start = 0, end = 0; // the collected text is a[start..end-1]
+    char c;
+    for (int i = 0; i < n; i++) {
+      c = a[i];
+      if (!inTag) {
+        if (c == '<') {
+          inTag = true;
+          tag = i + 1;
+          tagClosed = false;
+        }
+      } else if (c == '>') {
+        if (!tagClosed) {
+          special = isSpecial(a, tag, i);
+          tagClosed = true;
+        }
+        if (!special) {
+          inText = true;
+          start = end = i + 1;
+        }
+      } else if (c == '<') {
+        if (inText) {
+          split(a, start, end, sink);
+          inText = false;
+        }
+        tag = i + 1;
+        tagClosed = false;
+      } else if (inText && c != '\n') {
+        a[end++] = c;
+      }
+    }
+
+    if (buf.length > MAX_KEPT)
+      buf = new char[INITIAL_SIZE];
+  }
+
+  /**
+   * @requires <code>s[from..to-1]</code> is words separated by single spaces
+   * @effects passes the words of <code>s[from..to-1]</code> to
+   *          <code>sink</code> in the order they appear, copying only one word
+   *          at a time
+   */
+  void split(String s, int from, int to, TokenSink sink) {
+    int end, n;
+    while (from < to) {
+      end = s.indexOf(' ', from);
+      if (end < 0 || end > to)
+        end = to;
+      n = end - from;
+      if (n > 0) {
+        if (buf.length < n)
+          buf = new char[Math.max(n, buf.length * 2)];
+        s.getChars(from, end, buf, 0);
+        sink.token(buf, 0, n);
+      }
+      from = end + 1;
+    }
+
+    if (buf.length > MAX_KEPT)
+      buf = new char[INITIAL_SIZE];
+  }
+
+  /**
+   * @effects if the tag name <code>a[from..to-1]</code> starts with one of
+   *          <code>SPECIAL_TAGS</code> returns <code>true</code>, else returns
+   *          <code>false</code>
+   */
+  private static boolean isSpecial(char[] a, int from, int to) {
+    for (char[] t : SPECIAL_TAGS) {
+      if (to - from >= t.length) {
+        int j = 0;
+        while (j < t.length && a[from + j] == t[j])
+          j++;
+        if (j == t.length)
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @effects passes the parts of <code>a[from..to-1]</code> between spaces and
+   *          tabs to <code>sink</code>, trimmed, except the empty ones
+   */
+  private static void split(char[] a, int from, int to, TokenSink sink) {
+    int s, e;
+    char c;
+    for (int i = from; i <= to; i++) {
+      c = (i < to) ? a[i] : ' ';
+      if (c == ' ' || c == '\t') {
+        // as String.trim
+        s = from;
+        e = i;
+        while (s < e && a[s] <= ' ')
+          s++;
+        while (e > s && a[e - 1] <= ' ')
+          e--;
+        if (e > s)
+          sink.token(a, s, e - s);
+        from = i + 1;
+      }
+    }
+  }
+}
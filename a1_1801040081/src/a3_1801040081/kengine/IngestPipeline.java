@@ -0,0 +1,220 @@
+package a3_1801040081.kengine;
+
+import java.io.File;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview A pipeline that adds the documents of many files to an
+ *           <code>Engine</code> in three concurrent stages:
+ *           <ol>
+ *           <li>the files are read by a pool of I/O threads,
+ *           <li>the words of the documents are counted by a pool of CPU
+ *           threads,
+ *           <li>the counted documents are indexed and published in batches by
+ *           the thread that runs the pipeline.
+ *           </ol>
+ *           The stages are connected by bounded queues, so a stage that runs
+ *           ahead waits for the next one rather than filling the memory with
+ *           documents.
+ *
+ *           The documents are added in the order in which they finish
+ *           counting, not in the order of their files.
+ *
+ *           A file that fails to be read or counted, for any reason, is
+ *           passed on to the next stage as a failure, so that every stage
+ *           sees every file once and none waits for a document that never
+ *           comes.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+class IngestPipeline {
+  static final int DEFAULT_READERS = 4;
+  static final int DEFAULT_BATCH_SIZE = 256;
+  static final int DEFAULT_QUEUE_SIZE = 1024;
+
+  // stands for a file that could not be read
+  private static final Doc UNREAD = new Doc("");
+
+  private final Engine engine;
+  private final int readers;
+  private final int counters;
+  private final int batchSize;
+  private final int queueSize;
+
+  // the number of documents indexed by the last run
+  private volatile int added;
+
+  /**
+   * Constructor method
+   *
+   * @requires all the arguments are positive
+   * @effects initialises <code>this</code> to add documents to
+   *          <code>engine</code> using <code>readers</code> I/O threads and
+   *          <code>counters</code> CPU threads, publishing up to
+   *          <code>batchSize</code> documents at a time
+   */
+  IngestPipeline(Engine engine, int readers, int counters, int batchSize,
+      int queueSize) {
+    this.engine = engine;
+    this.readers = readers;
+    this.counters = counters;
+    this.batchSize = batchSize;
+    this.queueSize = queueSize;
+  }
+
+  /**
+   * @effects as for <code>IngestPipeline(engine, DEFAULT_READERS, counters,
+   *          DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_SIZE)</code>
+   */
+  IngestPipeline(Engine engine, int counters) {
+    this(engine, DEFAULT_READERS, counters, DEFAULT_BATCH_SIZE,
+        DEFAULT_QUEUE_SIZE);
+  }
+
+  /**
+   * A method to add the documents of some files to the engine.
+   *
+   * @modifies the engine of <code>this</code>
+   * @effects reads the documents of <code>files</code> and adds them to the
+   *          engine as by <code>Engine.addDoc</code>; if any file cannot be
+   *          read or any document cannot be added, throws the first such
+   *          exception or error after the other documents are added, else 
+   *          returns the number of documents indexed, which contain 
+   *          interesting words. In either case <code>added()</code> returns
+   *          this number afterwards.
+   */
+  int run(final File[] files) throws NotPossibleException {
+    final int n = files.length;
+    final BlockingQueue<Doc> read = new ArrayBlockingQueue<>(queueSize);
+    // <document, its keywords or null>
+    final BlockingQueue<Object[]> counted = new ArrayBlockingQueue<>(queueSize);
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    added = 0;
+
+    ExecutorService io = Executors.newFixedThreadPool(readers,
+        factory("kengine-reader"));
+    ExecutorService cpu = Executors.newFixedThreadPool(counters,
+        factory("kengine-counter"));
+    try {
+      // stage 1: read
+      for (int i = 0; i < n; i++) {
+        final File f = files[i];
+        io.execute(new Runnable() {
+          public void run() {
+            Doc d;
+            try {
+              d = Comm.readDoc(f);
+            } catch (Throwable e) {
+              error.compareAndSet(null, e);
+              d = UNREAD;
+            }
+            try {
+              read.put(d);
+            } catch (InterruptedException e) {
+              // the pipeline is aborted
+            }
+          }
+        });
+      }
+
+      // stage 2: count, taking each document exactly once
+      final AtomicInteger taken = new AtomicInteger();
+      for (int i = 0; i < counters; i++) {
+        cpu.execute(new Runnable() {
+          public void run() {
+            Doc d;
+            KeywordMap h;
+            try {
+              while (taken.getAndIncrement() < n) {
+                d = read.take();
+                h = null;
+                if (d != UNREAD) {
+                  try {
+                    h = engine.count(d);
+                  } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                  }
+                }
+                counted.put(new Object[] { d, h });
+              }
+            } catch (InterruptedException e) {
+              // the pipeline is aborted
+            }
+          }
+        });
+      }
+
+      // stage 3: index and publish in batches
+      Vector<Object[]> batch = new Vector<>(batchSize);
+      Doc[] ds = new Doc[batchSize];
+      KeywordMap[] hs = new KeywordMap[batchSize];
+      int m;
+      for (int done = 0; done < n; done += batch.size()) {
+        batch.clear();
+        batch.add(counted.take());
+        counted.drainTo(batch, batchSize - 1);
+
+        m = 0;
+        for (Object[] c : batch) {
+          if (c[1] != null) {
+            ds[m] = (Doc) c[0];
+            hs[m] = (KeywordMap) c[1];
+            m++;
+          }
+        }
+        if (m > 0) {
+          try {
+            engine.addCounted(ds, hs, m);
+            added += m;
+          } catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      }
+
+      Throwable e = error.get();
+      if (e instanceof RuntimeException)
+        throw (RuntimeException) e;
+      else if (e instanceof Error)
+        throw (Error) e;
+      else if (e != null)
+        throw new NotPossibleException("IngestPipeline.run: failed due to " + e);
+      return added;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NotPossibleException("IngestPipeline.run: interrupted");
+    } finally {
+      io.shutdownNow();
+      cpu.shutdownNow();
+    }
+  }
+
+  /**
+   * @effects returns the number of documents indexed by the last run of 
+   *          <code>this</code>, including one that failed
+   */
+  int added() {
+    return added;
+  }
+
+  private static ThreadFactory factory(final String name) {
+    return new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+}
@@ -0,0 +1,175 @@
+package a3_1801040081.kengine;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * @overview A writer of a JSON value to a character stream, token by token,
+ *           so that a large value is written as it is produced rather than
+ *           built in memory first.
+ *
+ *           The writer inserts the commas and colons between the tokens and
+ *           escapes the strings. It does not check that the tokens form a
+ *           valid value.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+class JsonWriter {
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final Writer out;
+
+  // whether the current array or object has a member, by depth
+  private boolean[] hasMember;
+  private int depth;
+
+  // whether a name was written whose value is next
+  private boolean afterName;
+
+  /**
+   * Constructor method
+   *
+   * @effects initialises <code>this</code> to write to <code>out</code>
+   */
+  JsonWriter(Writer out) {
+    this.out = out;
+    hasMember = new boolean[8];
+  }
+
+  JsonWriter beginObject() throws IOException {
+    return begin('{');
+  }
+
+  JsonWriter endObject() throws IOException {
+    return end('}');
+  }
+
+  JsonWriter beginArray() throws IOException {
+    return begin('[');
+  }
+
+  JsonWriter endArray() throws IOException {
+    return end(']');
+  }
+
+  /**
+   * @effects writes the name of the next member of the current object
+   */
+  JsonWriter name(String n) throws IOException {
+    separate();
+    string(n);
+    out.write(':');
+    afterName = true;
+    return this;
+  }
+
+  JsonWriter value(String s) throws IOException {
+    separate();
+    if (s == null)
+      out.write("null");
+    else
+      string(s);
+    return this;
+  }
+
+  JsonWriter value(long n) throws IOException {
+    separate();
+    out.write(Long.toString(n));
+    return this;
+  }
+
+  /**
+   * @effects writes <code>d</code>, or <code>null</code> if it is not finite
+   */
+  JsonWriter value(double d) throws IOException {
+    separate();
+    out.write(Double.isNaN(d) || Double.isInfinite(d) ? "null" : Double
+        .toString(d));
+    return this;
+  }
+
+  JsonWriter value(boolean b) throws IOException {
+    separate();
+    out.write(b ? "true" : "false");
+    return this;
+  }
+
+  /**
+   * @effects flushes the characters written so far to the stream
+   */
+  void flush() throws IOException {
+    out.flush();
+  }
+
+  private JsonWriter begin(char c) throws IOException {
+    separate();
+    out.write(c);
+    if (++depth == hasMember.length) {
+      boolean[] a = new boolean[depth * 2];
+      System.arraycopy(hasMember, 0, a, 0, depth);
+      hasMember = a;
+    }
+    hasMember[depth] = false;
+    return this;
+  }
+
+  private JsonWriter end(char c) throws IOException {
+    out.write(c);
+    depth--;
+    return this;
+  }
+
+  /**
+   * @effects writes a comma before a value or a name that follows another
+   *          member of the current array or object
+   */
+  private void separate() throws IOException {
+    if (afterName) {
+      afterName = false;
+      return;
+    }
+
+    if (hasMember[depth])
+      out.write(',');
+    hasMember[depth] = true;
+  }
+
+  private void string(String s) throws IOException {
+    out.write('"');
+    int from = 0;
+    char c;
+    for (int i = 0; i < s.length(); i++) {
+      c = s.charAt(i);
+      if (c >= 0x20 && c != '"' && c != '\\')
+        continue;
+
+      out.write(s, from, i - from);
+      from = i + 1;
+      switch (c) {
+      case '"':
+        out.write("\\\"");
+        break;
+      case '\\':
+        out.write("\\\\");
+        break;
+      case '\n':
+        out.write("\\n");
+        break;
+      case '\r':
+        out.write("\\r");
+        break;
+      case '\t':
+        out.write("\\t");
+        break;
+      default:
+        out.write("\\u00");
+        out.write(HEX[c >> 4]);
+        out.write(HEX[c & 0xF]);
+      }
+    }
+    out.write(s, from, s.length() - from);
+    out.write('"');
+  }
+}
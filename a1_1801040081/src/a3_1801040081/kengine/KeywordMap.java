@@ -0,0 +1,80 @@
+package a3_1801040081.kengine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+
+/**
+ * @overview A table that maps the interesting words of a document to their 
+ *           frequencies in the document, as used by <code>Query.addDoc</code>, 
+ *           and also records the positions at which each word occurs. 
+ *           
+ *           The position of a word is its index in the sequence of all the 
+ *           words of the document, including the uninteresting ones, so that 
+ *           the distances between keywords are kept. The length of the 
+ *           document, which is the number of all of its words, is also kept.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+class KeywordMap extends Hashtable {
+  // the positions of each word; only the first get(w) elements are used
+  private final HashMap<String, int[]> positions;
+  private int length;
+
+  /**
+   * Constructor method
+   *
+   * @effects initialises <code>this</code> to be empty
+   */
+  KeywordMap() {
+    positions = new HashMap<>();
+  }
+
+  /**
+   * @requires <code>pos</code> is greater than the positions already added 
+   * @modifies <code>this</code>
+   * @effects adds one to the frequency of <code>w</code> and records 
+   *          <code>pos</code> as a position of <code>w</code>
+   */
+  void add(String w, int pos) {
+    Integer f = (Integer) get(w);
+    int n = (f == null) ? 0 : f.intValue();
+    int[] ps = positions.get(w);
+    if (ps == null) {
+      ps = new int[4];
+      positions.put(w, ps);
+    } else if (n == ps.length) {
+      ps = Arrays.copyOf(ps, n * 2);
+      positions.put(w, ps);
+    }
+
+    ps[n] = pos;
+    put(w, new Integer(n + 1));
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects sets the length of the document to <code>n</code> words
+   */
+  void setLength(int n) {
+    length = n;
+  }
+
+  /**
+   * @effects returns the length of the document in words
+   */
+  int length() {
+    return length;
+  }
+
+  /**
+   * @effects if <code>w</code> is in <code>this</code> returns a new array of
+   *          its positions in ascending order, else returns <code>null</code>
+   */
+  int[] positions(String w) {
+    Integer f = (Integer) get(w);
+    return (f == null) ? null : Arrays.copyOf(positions.get(w), f.intValue());
+  }
+}
@@ -0,0 +1,113 @@
+package a3_1801040081.kengine;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * @overview A read-only file that is mapped into memory using
+ *           <code>FileChannel.map</code>. Because a single mapping is limited
+ *           to 2GB, the file is mapped as a sequence of chunks and read with
+ *           <code>long</code> positions.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+class MappedFile {
+  private static final int CHUNK_BITS = 30;
+  private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+  private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private final MappedByteBuffer[] chunks;
+  private final long size;
+
+  /**
+   * Constructor method
+   *
+   * @effects if <code>p</code> cannot be mapped throws
+   *          <code>IOException</code>, else maps the whole of <code>p</code>
+   *          read-only
+   */
+  MappedFile(Path p) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(p.toFile(), "r");
+    try {
+      FileChannel ch = raf.getChannel();
+      size = ch.size();
+      int n = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+      chunks = new MappedByteBuffer[n];
+      for (int i = 0; i < n; i++) {
+        long start = i * CHUNK_SIZE;
+        chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY, start,
+            Math.min(CHUNK_SIZE, size - start));
+      }
+    } finally {
+      // the mappings remain valid after the channel is closed
+      raf.close();
+    }
+  }
+
+  /**
+   * @effects returns the size of <code>this</code> in bytes
+   */
+  long size() {
+    return size;
+  }
+
+  /**
+   * @requires <code>0 &lt;= pos &lt; size()</code>
+   * @effects returns the byte at <code>pos</code>
+   */
+  byte get(long pos) {
+    return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & CHUNK_MASK));
+  }
+
+  /**
+   * @requires <code>0 &lt;= pos &lt;= size() - 4</code>
+   * @effects returns the big-endian <code>int</code> at <code>pos</code>
+   */
+  int getInt(long pos) {
+    int off = (int) (pos & CHUNK_MASK);
+    if (off <= CHUNK_SIZE - 4)
+      return chunks[(int) (pos >>> CHUNK_BITS)].getInt(off);
+
+    // spans two chunks
+    int v = 0;
+    for (int i = 0; i < 4; i++)
+      v = (v << 8) | (get(pos + i) & 0xFF);
+    return v;
+  }
+
+  /**
+   * @requires <code>0 &lt;= pos &lt;= size() - 8</code>
+   * @effects returns the big-endian <code>long</code> at <code>pos</code>
+   */
+  long getLong(long pos) {
+    return ((long) getInt(pos) << 32) | (getInt(pos + 4) & 0xFFFFFFFFL);
+  }
+
+  /**
+   * @requires <code>0 &lt;= pos &lt;= size() - len</code>
+   * @effects returns a new array holding the <code>len</code> bytes at
+   *          <code>pos</code>
+   */
+  byte[] getBytes(long pos, int len) {
+    byte[] b = new byte[len];
+    int i = 0;
+    while (i < len) {
+      long p = pos + i;
+      MappedByteBuffer chunk = chunks[(int) (p >>> CHUNK_BITS)];
+      int off = (int) (p & CHUNK_MASK);
+      int n = Math.min(len - i, chunk.capacity() - off);
+      // use a duplicate so that the position of the shared chunk is unchanged
+      ByteBuffer dup = chunk.duplicate();
+      dup.position(off);
+      dup.get(b, i, n);
+      i += n;
+    }
+    return b;
+  }
+}
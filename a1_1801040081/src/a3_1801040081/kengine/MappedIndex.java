@@ -0,0 +1,572 @@
+package a3_1801040081.kengine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview A read-only inverted index that is stored on disk and read
+ *           through memory-mapped files, so that the OS page cache rather than
+ *           the Java heap holds the index. An index is a directory of four
+ *           files:
+ *           <ul>
+ *           <li><code>terms.dat</code>: the term dictionary. An
+ *           <code>int</code> count followed by one fixed-size entry per
+ *           keyword, in ascending order of keywords:
+ *           <code>&lt;nameOffset:long, nameLength:int, postingsOffset:long,
+ *           postingsLength:int, docFreq:int, maxCount:int&gt;</code>, where 
+ *           <code>maxCount</code> is the largest count of the postings, 
+ *           followed by the UTF-8
+ *           names.
+ *           <li><code>postings.dat</code>: the postings of all keywords,
+ *           encoded as in a <code>PostingList</code>.
+ *           <li><code>docs.dat</code>: the UTF-8 text of all documents.
+ *           <li><code>docs.idx</code>: the document offsets. An
+ *           <code>int</code> count and the <code>long</code> total length in 
+ *           words of all documents, followed by one entry
+ *           <code>&lt;textOffset:long, textLength:int, docLength:int&gt;</code>
+ *           per document id, then an <code>int</code> count followed by one entry
+ *           <code>&lt;nameOffset:long, nameLength:int, docId:int&gt;</code> per
+ *           document in ascending order of canonical title, followed by the
+ *           UTF-8 titles.
+ *           </ul>
+ *
+ *           Documents are numbered densely from 0. A <code>Doc</code> is
+ *           created from the mapped text each time it is looked up.
+ *
+ * @version 
+ * - 1.0 <br>
+ * - 1.1 the postings contain positions <br>
+ * - 1.2 the lengths of the documents <br>
+ * - 1.3 the largest count of the postings of each keyword
+ * @author agent
+ *
+ */
+class MappedIndex {
+  static final String TERMS_FILE = "terms.dat";
+  static final String POSTINGS_FILE = "postings.dat";
+  static final String DOCS_FILE = "docs.dat";
+  static final String DOCS_INDEX_FILE = "docs.idx";
+
+  private static final int TERM_ENTRY = 8 + 4 + 8 + 4 + 4 + 4;
+  private static final int DOCS_HEADER = 4 + 8;
+  private static final int DOC_ENTRY = 8 + 4 + 4;
+  private static final int TITLE_ENTRY = 8 + 4 + 4;
+  private static final int TERM_CACHE_SIZE = 1 << 8;
+
+  private final MappedFile terms;
+  private final MappedFile postings;
+  private final MappedFile docs;
+  private final MappedFile docsIndex;
+
+  private final int termCount;
+  private final int docCount;
+  private final long titlesStart; // position of the title count in docsIndex
+  private final int titleCount;
+
+  // slot i holds the index of a keyword whose hash is i modulo the size, 
+  // or null; an entry is immutable, so it can be replaced without locking
+  private final Term[] termCache = new Term[TERM_CACHE_SIZE];
+
+  private MappedIndex(Path dir) throws IOException {
+    terms = new MappedFile(dir.resolve(TERMS_FILE));
+    postings = new MappedFile(dir.resolve(POSTINGS_FILE));
+    docs = new MappedFile(dir.resolve(DOCS_FILE));
+    docsIndex = new MappedFile(dir.resolve(DOCS_INDEX_FILE));
+
+    termCount = terms.getInt(0);
+    docCount = docsIndex.getInt(0);
+    titlesStart = DOCS_HEADER + (long) docCount * DOC_ENTRY;
+    titleCount = docsIndex.getInt(titlesStart);
+  }
+
+  /**
+   * A method to open an index.
+   *
+   * @param dir
+   *          the directory of the index
+   * @effects if <code>dir</code> does not contain a readable index throws
+   *          <code>NotPossibleException</code>, else returns a
+   *          <code>MappedIndex</code> for it
+   */
+  static MappedIndex open(Path dir) throws NotPossibleException {
+    try {
+      return new MappedIndex(dir);
+    } catch (IOException | RuntimeException e) {
+      throw new NotPossibleException("MappedIndex.open: failed to open index "
+          + dir + " due to " + e);
+    }
+  }
+
+  /**
+   * @effects returns the number of documents in <code>this</code>
+   */
+  int docCount() {
+    return docCount;
+  }
+
+  /**
+   * @requires <code>0 &lt;= id &lt; docCount()</code>
+   * @effects returns a new <code>Doc</code> made from the text of document
+   *          <code>id</code>
+   */
+  Doc doc(int id) {
+    long e = DOCS_HEADER + (long) id * DOC_ENTRY;
+    byte[] text = docs.getBytes(docsIndex.getLong(e), docsIndex.getInt(e + 8));
+    return new Doc(new String(text, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @requires <code>0 &lt;= id &lt; docCount()</code>
+   * @effects returns the length in words of document <code>id</code>
+   */
+  int docLength(int id) {
+    return docsIndex.getInt(DOCS_HEADER + (long) id * DOC_ENTRY + 12);
+  }
+
+  /**
+   * @effects returns the total length in words of the documents of 
+   *          <code>this</code>
+   */
+  long totalLength() {
+    return docsIndex.getLong(4);
+  }
+
+  /**
+   * @param t
+   *          a canonical title
+   * @effects if a document of <code>this</code> has title <code>t</code>
+   *          returns its id, else returns -1
+   */
+  int docId(String t) {
+    int i = search(docsIndex, titlesStart + 4, TITLE_ENTRY, titleCount, 
+        t.getBytes(StandardCharsets.UTF_8));
+    return (i >= 0) ? docsIndex.getInt(titlesStart + 4 + (long) i
+        * TITLE_ENTRY + 12) : -1;
+  }
+
+  /**
+   * @effects returns the number of documents in <code>this</code> that
+   *          contain <code>k</code>
+   */
+  int docFreq(String k) {
+    int i = term(k);
+    return (i >= 0) ? terms.getInt(4 + (long) i * TERM_ENTRY + 24) : 0;
+  }
+
+  /**
+   * @effects returns the largest count of the postings of <code>k</code> in 
+   *          <code>this</code>, or 0 if there are none
+   */
+  int maxCount(String k) {
+    int i = term(k);
+    return (i >= 0) ? terms.getInt(4 + (long) i * TERM_ENTRY + 28) : 0;
+  }
+
+  /**
+   * @effects if <code>k</code> is a keyword of <code>this</code> returns a
+   *          cursor that decodes its postings straight from the mapped
+   *          postings file, else returns <code>null</code>
+   */
+  PostingCursor cursor(String k) {
+    int i = term(k);
+    if (i < 0)
+      return null;
+
+    long e = 4 + (long) i * TERM_ENTRY;
+    long start = terms.getLong(e + 12);
+    return new Cursor(postings, start, start + terms.getInt(e + 20));
+  }
+
+  /**
+   * @modifies <code>ks</code>
+   * @effects adds the keywords of <code>this</code> to <code>ks</code>
+   */
+  void addKeywords(SortedSet<String> ks) {
+    for (int i = 0; i < termCount; i++) {
+      ks.add(name(terms, 4 + (long) i * TERM_ENTRY));
+    }
+  }
+
+  /**
+   * @effects returns the ids of the documents of <code>this</code> in
+   *          ascending order of their canonical titles
+   */
+  int[] titleOrder() {
+    int[] ids = new int[titleCount];
+    for (int i = 0; i < titleCount; i++) {
+      ids[i] = docsIndex.getInt(titlesStart + 4 + (long) i * TITLE_ENTRY + 12);
+    }
+    return ids;
+  }
+
+  /**
+   * @effects returns the name of the entry at <code>e</code> of
+   *          <code>f</code>, whose first fields are its offset and length
+   */
+  private static String name(MappedFile f, long e) {
+    return new String(f.getBytes(f.getLong(e), f.getInt(e + 8)),
+        StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @effects if <code>k</code> is a keyword of <code>this</code> returns the 
+   *          index of its entry in the term dictionary, else returns -1
+   */
+  private int term(String k) {
+    int h = k.hashCode();
+    int slot = (h ^ (h >>> 16)) & (TERM_CACHE_SIZE - 1);
+    Term t = termCache[slot];
+    if (t != null && t.key.equals(k))
+      return t.index;
+
+    // the docFreq, maxCount and cursor of a keyword are looked up together
+    int i = search(terms, 4, TERM_ENTRY, termCount,
+        k.getBytes(StandardCharsets.UTF_8));
+    termCache[slot] = new Term(k, i);
+    return i;
+  }
+
+  /**
+   * @effects binary searches the <code>n</code> entries of size
+   *          <code>entrySize</code> that start at <code>start</code> of
+   *          <code>f</code> for the one whose UTF-8 name is <code>k</code>; 
+   *          returns its index if found, else returns -1
+   */
+  private static int search(MappedFile f, long start, int entrySize, int n,
+      byte[] k) {
+    int lo = 0;
+    int hi = n - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int c = compare(f, start + (long) mid * entrySize, k);
+      if (c < 0)
+        lo = mid + 1;
+      else if (c > 0)
+        hi = mid - 1;
+      else
+        return mid;
+    }
+    return -1;
+  }
+
+  /**
+   * @effects compares the name of the entry at <code>e</code> of 
+   *          <code>f</code>, whose first fields are its offset and length, 
+   *          with the UTF-8 name <code>k</code> in place, in the order of 
+   *          <code>String.compareTo</code>; returns a negative number, zero or 
+   *          a positive number as the name is less than, equal to or greater 
+   *          than <code>k</code>
+   */
+  private static int compare(MappedFile f, long e, byte[] k) {
+    long pos = f.getLong(e);
+    int len = f.getInt(e + 8);
+    int n = Math.min(len, k.length);
+    int a, b;
+    for (int i = 0; i < n; i++) {
+      a = f.get(pos + i) & 0xFF;
+      b = k[i] & 0xFF;
+      if (a != b) {
+        // the bytes order the characters by code point, except that a
+        // supplementary character (lead byte 0xF0..0xF4) is a surrogate
+        // pair, which is before the characters from U+E000 (lead byte 0xEE
+        // or 0xEF) in the order of String.compareTo
+        if (a >= 0xF0 && (b == 0xEE || b == 0xEF))
+          return -1;
+        if (b >= 0xF0 && (a == 0xEE || a == 0xEF))
+          return 1;
+        return a - b;
+      }
+    }
+    return len - k.length;
+  }
+
+  /**
+   * A method to write the documents and postings of an engine as an index.
+   *
+   * @param tt
+   *          the title table of the engine
+   * @param wt
+   *          the word table of the engine
+   * @param dir
+   *          the directory to write the index to
+   * @effects if the index cannot be written to <code>dir</code> throws
+   *          <code>NotPossibleException</code>, else writes the published
+   *          documents of <code>wt</code>, the documents of <code>tt</code>
+   *          that have no keywords and the postings of <code>wt</code> to the
+   *          index files in <code>dir</code>, renumbering the documents
+   *          densely in the order of their ids. Documents that are indexed
+   *          while the index is written may be left out.
+   */
+  static void write(TitleTable tt, WordTable wt, Path dir)
+      throws NotPossibleException {
+    try {
+      Files.createDirectories(dir);
+
+      // the documents
+      int maxId = wt.maxDocId();
+      int[] newIds = new int[maxId];
+      TreeMap<String, Integer> titles = new TreeMap<>();
+      Vector<long[]> docEntries = new Vector<>();
+      CountingOutput docsOut = new CountingOutput(dir.resolve(DOCS_FILE));
+      try {
+        Doc d;
+        for (int id = 0; id < maxId; id++) {
+          d = wt.doc(id);
+          newIds[id] = (d != null) ? writeDoc(d, wt.docLength(id), docsOut,
+              titles, docEntries) : -1;
+        }
+
+        for (Iterator<Doc> it = tt.docIterator(); it != null && it.hasNext();) {
+          d = it.next();
+          // a document with keywords that is not published yet is still 
+          // being indexed
+          if (!titles.containsKey(Helpers.canon(d.title()))
+              && wt.keywords(d) == null)
+            writeDoc(d, 0, docsOut, titles, docEntries);
+        }
+      } finally {
+        docsOut.close();
+      }
+
+      DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(dir.resolve(DOCS_INDEX_FILE).toFile())));
+      try {
+        long total = 0;
+        for (long[] e : docEntries) {
+          total += e[2];
+        }
+        idx.writeInt(docEntries.size());
+        idx.writeLong(total);
+        for (long[] e : docEntries) {
+          idx.writeLong(e[0]);
+          idx.writeInt((int) e[1]);
+          idx.writeInt((int) e[2]);
+        }
+        writeNames(idx, DOCS_HEADER + (long) docEntries.size() * DOC_ENTRY,
+            titles);
+      } finally {
+        idx.close();
+      }
+
+      // the postings and the term dictionary
+      SortedSet<String> ks = wt.keywords();
+      String[] names = ks.toArray(new String[ks.size()]);
+      long[] offsets = new long[names.length];
+      int[] lengths = new int[names.length];
+      int[] dfs = new int[names.length];
+      int[] maxCounts = new int[names.length];
+      CountingOutput postOut = new CountingOutput(dir.resolve(POSTINGS_FILE));
+      try {
+        byte[] vbuf = new byte[64];
+        int[] ps;
+        for (int i = 0; i < names.length; i++) {
+          offsets[i] = postOut.count;
+          int lastId = -1;
+          for (PostingCursor c = wt.cursor(names[i]); c != null && c.next();) {
+            // a document indexed after maxId was read is left out
+            int id = (c.docId() < maxId) ? newIds[c.docId()] : -1;
+            if (id >= 0) {
+              ps = c.positions();
+              if (5 + PostingList.maxPositionsSize(ps) > vbuf.length)
+                vbuf = new byte[5 + PostingList.maxPositionsSize(ps)];
+              int n = PostingList.writeVInt(vbuf, 0, id - lastId);
+              n = PostingList.writePositions(vbuf, n, ps);
+              postOut.write(vbuf, 0, n);
+              lastId = id;
+              dfs[i]++;
+              maxCounts[i] = Math.max(maxCounts[i], ps.length);
+            }
+          }
+          lengths[i] = (int) (postOut.count - offsets[i]);
+        }
+      } finally {
+        postOut.close();
+      }
+
+      DataOutputStream termsOut = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(dir.resolve(TERMS_FILE).toFile())));
+      try {
+        termsOut.writeInt(names.length);
+        long nameOff = 4 + (long) names.length * TERM_ENTRY;
+        byte[][] bs = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+          bs[i] = names[i].getBytes(StandardCharsets.UTF_8);
+          termsOut.writeLong(nameOff);
+          termsOut.writeInt(bs[i].length);
+          termsOut.writeLong(offsets[i]);
+          termsOut.writeInt(lengths[i]);
+          termsOut.writeInt(dfs[i]);
+          termsOut.writeInt(maxCounts[i]);
+          nameOff += bs[i].length;
+        }
+        for (int i = 0; i < bs.length; i++) {
+          termsOut.write(bs[i]);
+        }
+      } finally {
+        termsOut.close();
+      }
+    } catch (IOException e) {
+      throw new NotPossibleException("MappedIndex.write: failed to write index "
+          + dir + " due to " + e);
+    }
+  }
+
+  /**
+   * @modifies <code>out, titles, docEntries</code>
+   * @effects writes the text of <code>d</code> to <code>out</code>, records
+   *          its offset, length <code>len</code> and title and returns its 
+   *          new id
+   */
+  private static int writeDoc(Doc d, int len, CountingOutput out,
+      TreeMap<String, Integer> titles, Vector<long[]> docEntries)
+      throws IOException {
+    int id = docEntries.size();
+    byte[] text = d.text().getBytes(StandardCharsets.UTF_8);
+    docEntries.add(new long[] { out.count, text.length, len });
+    out.write(text, 0, text.length);
+    titles.put(Helpers.canon(d.title()), id);
+    return id;
+  }
+
+  /**
+   * @modifies <code>out</code>
+   * @effects writes the count and entries of <code>titles</code> followed by
+   *          their UTF-8 names, where the entries start at position
+   *          <code>start</code> of the file
+   */
+  private static void writeNames(DataOutputStream out, long start,
+      TreeMap<String, Integer> titles) throws IOException {
+    out.writeInt(titles.size());
+    long nameOff = start + 4 + (long) titles.size() * TITLE_ENTRY;
+    Vector<byte[]> bs = new Vector<>();
+    for (String t : titles.keySet()) {
+      byte[] b = t.getBytes(StandardCharsets.UTF_8);
+      out.writeLong(nameOff);
+      out.writeInt(b.length);
+      out.writeInt(titles.get(t));
+      nameOff += b.length;
+      bs.add(b);
+    }
+    for (byte[] b : bs) {
+      out.write(b);
+    }
+  }
+
+  /**
+   * @overview A buffered file output stream that counts the bytes written.
+   */
+  private static class CountingOutput {
+    private final OutputStream out;
+    long count;
+
+    CountingOutput(Path p) throws IOException {
+      out = new BufferedOutputStream(new FileOutputStream(p.toFile()), 1 << 16);
+      count = 0;
+    }
+
+    void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    void close() throws IOException {
+      out.close();
+    }
+  }
+
+  /**
+   * @overview A cursor that decodes postings straight from a mapped file.
+   */
+  private static class Cursor extends PostingCursor {
+    private final MappedFile f;
+    private final long end;
+    private long pos;
+    private int docId;
+    private int cnt;
+    private long posStart; // position of the positions of the current posting
+
+    Cursor(MappedFile f, long start, long end) {
+      this.f = f;
+      this.end = end;
+      pos = start;
+      docId = -1;
+      cnt = 0;
+    }
+
+    @Override
+    public boolean next() {
+      if (pos >= end)
+        return false;
+
+      docId += readVInt();
+      cnt = readVInt();
+
+      // skip the positions
+      posStart = pos;
+      for (int i = 0; i < cnt; i++) {
+        while (f.get(pos++) < 0)
+          ;
+      }
+      return true;
+    }
+
+    @Override
+    public int docId() {
+      return docId;
+    }
+
+    @Override
+    public int count() {
+      return cnt;
+    }
+
+    @Override
+    public int[] positions() {
+      long next = pos;
+      pos = posStart;
+      int[] ps = new int[cnt];
+      int last = 0;
+      for (int i = 0; i < cnt; i++) {
+        last += readVInt();
+        ps[i] = last;
+      }
+      pos = next;
+      return ps;
+    }
+
+    private int readVInt() {
+      byte b = f.get(pos++);
+      int v = b & 0x7F;
+      for (int shift = 7; b < 0; shift += 7) {
+        b = f.get(pos++);
+        v |= (b & 0x7F) << shift;
+      }
+      return v;
+    }
+  }
+
+  /**
+   * @overview The index of a keyword in the term dictionary, or -1.
+   */
+  private static class Term {
+    final String key;
+    final int index;
+
+    Term(String key, int index) {
+      this.key = key;
+      this.index = index;
+    }
+  }
+}
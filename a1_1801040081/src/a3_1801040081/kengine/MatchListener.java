@@ -0,0 +1,21 @@
+package a3_1801040081.kengine;
+
+/**
+ * @overview A subscriber to the new documents that match a
+ *           <code>StandingQuery</code>.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+public interface MatchListener {
+  /**
+   * @effects handles a document that was added to an engine and that
+   *          contains all the keywords of <code>q</code>; <code>m</code> is
+   *          the document and the sum of the numbers of occurrences of the
+   *          keywords in it. A <code>RuntimeException</code> thrown by this
+   *          method is ignored: the document stays added, and the other
+   *          listeners are still notified
+   */
+  public void matched(StandingQuery q, DocCnt m);
+}
@@ -0,0 +1,95 @@
+package a3_1801040081.kengine;
+
+/**
+ * @overview A cursor that merges the postings of several cursors, whose
+ *           document ids are disjoint, into one sequence in ascending order of
+ *           document id.
+ *
+ * @version 
+ * - 1.0 <br>
+ * - 1.1 advance the merged cursors
+ * @author agent
+ *
+ */
+class MergedCursor extends PostingCursor {
+  private final PostingCursor[] cursors;
+  private final boolean[] live; // live[i] = cursors[i] is on a posting
+  private boolean started;
+  private int curr; // index of the cursor on the current posting
+
+  /**
+   * Constructor method
+   *
+   * @requires <code>cursors</code> are positioned before their first postings
+   *           and have disjoint document ids
+   */
+  MergedCursor(PostingCursor[] cursors) {
+    this.cursors = cursors;
+    live = new boolean[cursors.length];
+    started = false;
+    curr = -1;
+  }
+
+  @Override
+  public boolean next() {
+    if (!started) {
+      for (int i = 0; i < cursors.length; i++) {
+        live[i] = cursors[i].next();
+      }
+      started = true;
+    } else if (curr >= 0) {
+      live[curr] = cursors[curr].next();
+    }
+
+    return pick();
+  }
+
+  @Override
+  public boolean advance(int target) {
+    if (!started && !next())
+      return false;
+    if (curr < 0)
+      return false;
+    if (docId() >= target)
+      return true;
+
+    for (int i = 0; i < cursors.length; i++) {
+      if (live[i] && cursors[i].docId() < target)
+        live[i] = cursors[i].advance(target);
+    }
+
+    return pick();
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects makes the live cursor with the smallest document id the current
+   *          one and returns <code>true</code>, or returns <code>false</code>
+   *          if there is none
+   */
+  private boolean pick() {
+    curr = -1;
+    for (int i = 0; i < cursors.length; i++) {
+      if (live[i] && (curr < 0 || cursors[i].docId() < cursors[curr].docId())) {
+        curr = i;
+      }
+    }
+
+    return curr >= 0;
+  }
+
+  @Override
+  public int docId() {
+    return cursors[curr].docId();
+  }
+
+  @Override
+  public int count() {
+    return cursors[curr].count();
+  }
+
+  @Override
+  public int[] positions() {
+    return cursors[curr].positions();
+  }
+}
@@ -0,0 +1,111 @@
+package a3_1801040081.kengine;
+
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * @overview Matches new documents against many standing queries. The queries
+ *           are indexed by their trigger keywords, so a new document is only
+ *           checked against the queries whose trigger keyword it contains,
+ *           rather than against every query.
+ *
+ *           A percolator is safe for use by multiple threads. Queries may be
+ *           registered and removed while documents are percolated.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+class Percolator {
+  private final ConcurrentHashMap<String, CopyOnWriteArrayList<StandingQuery>> byTrigger;
+
+  /**
+   * Constructor method
+   *
+   * @effects initialises <code>this</code> to have no queries
+   */
+  Percolator() {
+    byTrigger = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * A method to create and register a standing query.
+   *
+   * @param wt
+   *          the word table whose document frequencies choose the trigger
+   * @param keys
+   *          distinct keywords in canonical form
+   * @requires <code>keys</code> is not empty
+   * @modifies <code>this</code>
+   * @effects registers and returns a standing query for <code>keys</code>,
+   *          triggered by the keyword of <code>keys</code> that is in the
+   *          fewest documents of <code>wt</code>
+   */
+  StandingQuery register(WordTable wt, String[] keys, MatchListener l) {
+    String trigger = keys[0];
+    int df = wt.docFreq(trigger);
+    for (int i = 1; i < keys.length && df > 0; i++) {
+      int f = wt.docFreq(keys[i]);
+      if (f < df) {
+        trigger = keys[i];
+        df = f;
+      }
+    }
+
+    StandingQuery q = new StandingQuery(keys, trigger, l);
+    CopyOnWriteArrayList<StandingQuery> qs = byTrigger.get(trigger);
+    if (qs == null) {
+      qs = new CopyOnWriteArrayList<>();
+      CopyOnWriteArrayList<StandingQuery> old = byTrigger.putIfAbsent(trigger,
+          qs);
+      if (old != null)
+        qs = old;
+    }
+    qs.add(q);
+    return q;
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects if <code>q</code> is registered with <code>this</code> removes it
+   *          and returns <code>true</code>, else returns <code>false</code>
+   */
+  boolean remove(StandingQuery q) {
+    CopyOnWriteArrayList<StandingQuery> qs = byTrigger.get(q.trigger());
+    return qs != null && qs.remove(q);
+  }
+
+  /**
+   * @param h
+   *          the keyword counts of <code>d</code>
+   * @effects notifies the listeners of the queries of <code>this</code> that
+   *          <code>d</code> matches
+   */
+  void percolate(Doc d, Hashtable h) {
+    if (byTrigger.isEmpty())
+      return;
+
+    // look up the smaller of the keywords of d and the triggers
+    if (h.size() <= byTrigger.size()) {
+      CopyOnWriteArrayList<StandingQuery> qs;
+      for (Iterator it = h.keySet().iterator(); it.hasNext();) {
+        qs = byTrigger.get(it.next());
+        if (qs != null) {
+          for (StandingQuery q : qs)
+            q.percolate(d, h);
+        }
+      }
+    } else {
+      for (Map.Entry<String, CopyOnWriteArrayList<StandingQuery>> e : byTrigger
+          .entrySet()) {
+        if (h.containsKey(e.getKey())) {
+          for (StandingQuery q : e.getValue())
+            q.percolate(d, h);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package a3_1801040081.kengine;
+
+/**
+ * @overview A forward-only cursor over a sequence of postings
+ *           <code>&lt;docId,cnt,positions&gt;</code> of a keyword, in ascending
+ *           order of <code>docId</code>.
+ *
+ * @version 
+ * - 1.0 <br>
+ * - 1.1 positions <br>
+ * - 1.2 advance to a document
+ * @author agent
+ *
+ */
+public abstract class PostingCursor {
+
+  /**
+   * @modifies <code>this</code>
+   * @effects if there is another posting then moves <code>this</code> to it
+   *          and returns <code>true</code>, else returns <code>false</code>
+   */
+  public abstract boolean next();
+
+  /**
+   * @requires <code>next()</code> has returned <code>true</code>
+   * @effects returns the document id of the current posting
+   */
+  public abstract int docId();
+
+  /**
+   * @requires <code>next()</code> has returned <code>true</code>
+   * @effects returns the count of the current posting
+   */
+  public abstract int count();
+
+  /**
+   * @requires <code>next()</code> has returned <code>true</code>
+   * @effects returns a new array of the <code>count()</code> positions of the
+   *          keyword in the document of the current posting, in ascending 
+   *          order
+   * @version 1.1
+   */
+  public abstract int[] positions();
+
+  /**
+   * @requires <code>next()</code> has returned <code>true</code>
+   * @modifies <code>this</code>
+   * @effects if there is a posting whose document id is at least 
+   *          <code>target</code> then moves <code>this</code> to the first 
+   *          such posting (it does not move if the current posting is one) 
+   *          and returns <code>true</code>, else returns <code>false</code>
+   * @version 1.2
+   */
+  public boolean advance(int target) {
+    while (docId() < target) {
+      if (!next())
+        return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,360 @@
+package a3_1801040081.kengine;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * @overview A compressed list of postings <code>&lt;docId,cnt,positions&gt;</code>
+ *           of a keyword, where <code>docId</code> is the dense integer id that
+ *           <code>WordTable</code> assigns to a document, <code>cnt</code>
+ *           is the number of occurrences of the keyword in that document and
+ *           <code>positions</code> are the word positions of those
+ *           occurrences.
+ *
+ *           Postings are kept in ascending order of <code>docId</code>. Each
+ *           posting is stored as the difference between its <code>docId</code>
+ *           and that of the previous posting, followed by its count and then
+ *           by the differences between consecutive positions, all
+ *           written as variable-length integers (7 bits per byte) into a
+ *           growable byte array. Postings are decoded lazily by a
+ *           {@link Cursor}; the positions of a posting are only decoded when
+ *           they are asked for.
+ *
+ *           A posting list is safe for use by multiple threads. Postings are
+ *           never modified in place, so a cursor is not affected by postings
+ *           that are added after it was created.
+ *
+ * @version
+ * - 1.0 <br>
+ * - 1.1 support concurrent writers, whose postings may arrive out of order <br>
+ * - 1.2 store the positions of the occurrences <br>
+ * - 1.3 keep the largest count
+ * @author agent
+ *
+ */
+public class PostingList {
+  private static final int INIT_CAPACITY = 8;
+
+  private byte[] buf; // the encoded postings
+  private int len; // number of bytes used in buf
+  private int size; // number of postings
+  private int lastDocId; // docId of the last posting
+  private int maxCnt; // the largest count of the postings
+
+  /**
+   * Constructor method
+   *
+   * @effects initialises <code>this</code> to be an empty list
+   */
+  public PostingList() {
+    buf = new byte[INIT_CAPACITY];
+    len = 0;
+    size = 0;
+    lastDocId = -1;
+    maxCnt = 0;
+  }
+
+  /**
+   * A method to add a posting to <code>this</code>.
+   *
+   * @param docId
+   *          the id of a document
+   * @param positions
+   *          the positions of the occurrences of the keyword in the document,
+   *          in ascending order
+   * @modifies <code>this</code>
+   * @effects if <code>this</code> already contains a posting for
+   *          <code>docId</code> or <code>positions</code> is empty throws
+   *          <code>IllegalArgumentException</code>, else adds
+   *          <code>&lt;docId,positions.length,positions&gt;</code> to 
+   *          <code>this</code> in docId order.
+   * @version 
+   * - 1.1 insert postings that arrive out of order <br>
+   * - 1.2 add positions rather than a count
+   */
+  public synchronized void add(int docId, int[] positions)
+      throws IllegalArgumentException {
+    if (positions.length == 0)
+      throw new IllegalArgumentException("PostingList.add: invalid posting <"
+          + docId + "," + positions.length + ">");
+
+    if (docId > lastDocId) {
+      // the common case: append
+      ensureCapacity(len + 5 + maxPositionsSize(positions));
+      len = writeVInt(buf, len, docId - lastDocId);
+      len = writePositions(buf, len, positions);
+      lastDocId = docId;
+    } else {
+      insert(docId, positions);
+    }
+    size++;
+    maxCnt = Math.max(maxCnt, positions.length);
+  }
+
+  /**
+   * @requires <code>docId &lt;= lastDocId</code>
+   * @modifies <code>this</code>
+   * @effects if <code>this</code> contains a posting for <code>docId</code>
+   *          throws <code>IllegalArgumentException</code>, else inserts
+   *          the posting before the first posting whose
+   *          document id is greater than <code>docId</code>. Only the delta of
+   *          that posting is re-encoded; the other bytes are copied into a new
+   *          array so that existing cursors are not affected.
+   */
+  private void insert(int docId, int[] positions)
+      throws IllegalArgumentException {
+    Cursor c = new Cursor(buf, 0, len);
+    int prevId = -1;
+    int off = 0; // offset of the first posting after docId
+    while (true) {
+      off = c.pos;
+      c.next(); // must succeed because docId <= lastDocId
+      if (c.docId == docId)
+        throw new IllegalArgumentException(
+            "PostingList.add: duplicate posting for document " + docId);
+      if (c.docId > docId)
+        break;
+      prevId = c.docId;
+    }
+
+    int nextId = c.docId;
+    int tail = off + vIntSize(nextId - prevId); // start of the count of nextId
+
+    byte[] nbuf = new byte[Math.max(buf.length, len + 10
+        + maxPositionsSize(positions))];
+    System.arraycopy(buf, 0, nbuf, 0, off);
+    int pos = writeVInt(nbuf, off, docId - prevId);
+    pos = writePositions(nbuf, pos, positions);
+    pos = writeVInt(nbuf, pos, nextId - docId);
+    System.arraycopy(buf, tail, nbuf, pos, len - tail);
+
+    len = pos + (len - tail);
+    buf = nbuf;
+  }
+
+  /**
+   * @effects returns the number of postings in <code>this</code>
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * @effects returns the largest count of the postings of <code>this</code>,
+   *          or 0 if it is empty
+   * @version 1.3
+   */
+  public synchronized int maxCount() {
+    return maxCnt;
+  }
+
+  /**
+   * @effects returns the number of bytes used to encode <code>this</code>
+   */
+  public synchronized int byteSize() {
+    return len;
+  }
+
+  /**
+   * @effects returns a new cursor positioned before the first posting of
+   *          <code>this</code>
+   */
+  public synchronized Cursor cursor() {
+    return new Cursor(buf, 0, len);
+  }
+
+  /**
+   * @modifies <code>out</code>
+   * @effects if <code>out</code> cannot be written throws 
+   *          <code>IOException</code>, else writes the number of postings, the
+   *          largest count, the number of bytes and the encoded postings of 
+   *          <code>this</code> to <code>out</code>
+   */
+  synchronized void writeTo(DataOutput out) throws IOException {
+    out.writeInt(size);
+    out.writeInt(maxCnt);
+    out.writeInt(len);
+    out.write(buf, 0, len);
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects grows <code>buf</code> (into a new array) so that it can hold at
+   *          least <code>capacity</code> bytes
+   */
+  private void ensureCapacity(int capacity) {
+    if (capacity > buf.length) {
+      byte[] nbuf = new byte[Math.max(buf.length * 2, capacity)];
+      System.arraycopy(buf, 0, nbuf, 0, len);
+      buf = nbuf;
+    }
+  }
+
+  /**
+   * @requires <code>b</code> has at least 5 bytes from <code>pos</code>
+   * @modifies <code>b</code>
+   * @effects writes <code>v</code> to <code>b</code> at <code>pos</code> as a
+   *          variable-length integer and returns the position after it
+   */
+  static int writeVInt(byte[] b, int pos, int v) {
+    while ((v & ~0x7F) != 0) {
+      b[pos++] = (byte) ((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    b[pos++] = (byte) v;
+    return pos;
+  }
+
+  /**
+   * @requires <code>b</code> has at least <code>maxPositionsSize(ps)</code>
+   *           bytes from <code>pos</code>
+   * @modifies <code>b</code>
+   * @effects writes the count of <code>ps</code> followed by the differences
+   *          between its consecutive elements to <code>b</code> at
+   *          <code>pos</code> as variable-length integers and returns the
+   *          position after them
+   */
+  static int writePositions(byte[] b, int pos, int[] ps) {
+    pos = writeVInt(b, pos, ps.length);
+    int last = 0;
+    for (int i = 0; i < ps.length; i++) {
+      pos = writeVInt(b, pos, ps[i] - last);
+      last = ps[i];
+    }
+    return pos;
+  }
+
+  /**
+   * @effects returns the largest number of bytes that
+   *          <code>writePositions</code> may need to write <code>ps</code>
+   */
+  static int maxPositionsSize(int[] ps) {
+    return 5 * (ps.length + 1);
+  }
+
+  /**
+   * @effects returns the number of bytes needed to write <code>v</code> as a
+   *          variable-length integer
+   */
+  static int vIntSize(int v) {
+    int n = 1;
+    while ((v & ~0x7F) != 0) {
+      v >>>= 7;
+      n++;
+    }
+    return n;
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer sb = new StringBuffer("[");
+    for (Cursor c = cursor(); c.next();) {
+      if (sb.length() > 1)
+        sb.append(", ");
+      sb.append("<").append(c.docId()).append(",").append(c.count())
+          .append(">");
+    }
+    return sb.append("]").toString();
+  }
+
+  /**
+   * @overview A cursor over postings that are encoded as in a
+   *           <code>PostingList</code>. A posting is only decoded when the
+   *           cursor moves onto it.
+   *
+   *           A cursor sees the postings that were in the list when it was
+   *           created.
+   *
+   * @author agent
+   */
+  public static class Cursor extends PostingCursor {
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+    private int docId;
+    private int cnt;
+    private int posStart; // offset of the positions of the current posting
+
+    /**
+     * @requires <code>buf[start..end)</code> contains encoded postings
+     */
+    Cursor(byte[] buf, int start, int end) {
+      this.buf = buf;
+      this.end = end;
+      pos = start;
+      docId = -1;
+      cnt = 0;
+    }
+
+    @Override
+    public boolean next() {
+      if (pos >= end)
+        return false;
+
+      docId += readVInt();
+      cnt = readVInt();
+
+      // skip the positions
+      posStart = pos;
+      for (int i = 0; i < cnt; i++) {
+        while (buf[pos++] < 0)
+          ;
+      }
+      return true;
+    }
+
+    @Override
+    public int docId() {
+      return docId;
+    }
+
+    @Override
+    public int count() {
+      return cnt;
+    }
+
+    /**
+     * @effects returns the offset in the buffer of the next posting
+     */
+    int offset() {
+      return pos;
+    }
+
+    /**
+     * @requires <code>pos</code> is the offset of a posting whose previous 
+     *           posting is of document <code>prevDocId</code>
+     * @modifies <code>this</code>
+     * @effects moves <code>this</code> to just before the posting at 
+     *          <code>pos</code>
+     */
+    void seek(int pos, int prevDocId) {
+      this.pos = pos;
+      docId = prevDocId;
+      cnt = 0;
+    }
+
+    @Override
+    public int[] positions() {
+      int next = pos;
+      pos = posStart;
+      int[] ps = new int[cnt];
+      int last = 0;
+      for (int i = 0; i < cnt; i++) {
+        last += readVInt();
+        ps[i] = last;
+      }
+      pos = next;
+      return ps;
+    }
+
+    private int readVInt() {
+      byte b = buf[pos++];
+      int v = b & 0x7F;
+      for (int shift = 7; b < 0; shift += 7) {
+        b = buf[pos++];
+        v |= (b & 0x7F) << shift;
+      }
+      return v;
+    }
+  }
+}
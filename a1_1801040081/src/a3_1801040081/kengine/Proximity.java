@@ -0,0 +1,224 @@
+package a3_1801040081.kengine;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview A constraint on the positions of the keywords of a query. It is
+ *           either
+ *           <ul>
+ *           <li>a phrase: the keywords occur next to each other in the order
+ *           of the phrase, or
+ *           <li>a proximity constraint: the keywords occur, in any order,
+ *           within a window of <code>distance + 1</code> consecutive words.
+ *           </ul>
+ *
+ *           Uninteresting words of a phrase are not indexed, so they are not
+ *           checked; they still take up their positions in the phrase, so that
+ *           e.g. <code>"nguyen a van"</code> matches a document that contains
+ *           <code>"nguyen"</code>, any word and then <code>"van"</code>.
+ *
+ *           A constraint is evaluated on the positions of its keywords in one
+ *           document, as stored in the postings of the keywords.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+class Proximity {
+  private final String[] keys; // the distinct keywords
+  private final int[] slotKeys; // the index in keys of each phrase word
+  private final int[] offsets; // the offset of each phrase word in the phrase
+  private final int distance; // -1 for a phrase
+
+  private Proximity(String[] keys, int[] slotKeys, int[] offsets, int distance) {
+    this.keys = keys;
+    this.slotKeys = slotKeys;
+    this.offsets = offsets;
+    this.distance = distance;
+  }
+
+  /**
+   * A method to create a phrase constraint.
+   *
+   * @param wt
+   *          the word table whose uninteresting words are ignored
+   * @param p
+   *          a phrase, whose words are separated by white spaces
+   * @effects if <code>p</code> is <code>null</code> or contains no interesting
+   *          words throws <code>NotPossibleException</code>, else returns a
+   *          constraint for the phrase <code>p</code>
+   */
+  static Proximity phrase(WordTable wt, String p) throws NotPossibleException {
+    if (p == null)
+      throw new NotPossibleException("Proximity.phrase: phrase is null");
+
+    Vector<String> ks = new Vector<>();
+    Vector<Integer> slots = new Vector<>();
+    Vector<Integer> offs = new Vector<>();
+    String[] ws = p.trim().split("\\s+");
+    String w;
+    for (int i = 0; i < ws.length; i++) {
+      w = wt.canon(ws[i]);
+      if (wt.isInteresting(w) && !w.equals("")) {
+        if (!ks.contains(w))
+          ks.add(w);
+        slots.add(ks.indexOf(w));
+        offs.add(i);
+      }
+    }
+
+    if (ks.isEmpty())
+      throw new NotPossibleException(
+          "Proximity.phrase: phrase has no interesting words: " + p);
+
+    return new Proximity(ks.toArray(new String[ks.size()]), toArray(slots),
+        toArray(offs), -1);
+  }
+
+  /**
+   * A method to create a proximity constraint.
+   *
+   * @param wt
+   *          the word table whose uninteresting words are ignored
+   * @param ws
+   *          the words that must occur near each other
+   * @param distance
+   *          the largest number of positions between the first and the last
+   *          of the words
+   * @effects if <code>ws</code> is <code>null</code>, contains no interesting
+   *          words or <code>distance &lt; 0</code> throws
+   *          <code>NotPossibleException</code>, else returns a constraint that
+   *          the interesting words of <code>ws</code> occur within
+   *          <code>distance</code> positions of each other
+   */
+  static Proximity near(WordTable wt, String[] ws, int distance)
+      throws NotPossibleException {
+    if (ws == null || distance < 0)
+      throw new NotPossibleException("Proximity.near: invalid arguments");
+
+    Vector<String> ks = new Vector<>();
+    String w;
+    for (int i = 0; i < ws.length; i++) {
+      w = (ws[i] != null) ? wt.canon(ws[i]) : null;
+      if (wt.isInteresting(w) && !ks.contains(w))
+        ks.add(w);
+    }
+
+    if (ks.isEmpty())
+      throw new NotPossibleException(
+          "Proximity.near: no interesting words: " + Arrays.toString(ws));
+
+    int[] slots = new int[ks.size()];
+    for (int i = 0; i < slots.length; i++)
+      slots[i] = i;
+
+    return new Proximity(ks.toArray(new String[ks.size()]), slots,
+        new int[slots.length], distance);
+  }
+
+  /**
+   * @effects returns the distinct keywords of <code>this</code>
+   */
+  String[] keys() {
+    return keys.clone();
+  }
+
+  /**
+   * @effects if <code>k</code> is a keyword of <code>this</code> returns
+   *          <code>true</code>, else returns <code>false</code>
+   */
+  boolean hasKey(String k) {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i].equals(k))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @param positions
+   *          the positions in one document of each keyword of
+   *          <code>this</code>, in the order of <code>keys()</code>, each in
+   *          ascending order
+   * @effects returns the number of times that <code>this</code> is satisfied
+   *          in the document: the number of occurrences of a phrase, or the
+   *          number of occurrences of the keywords that start a window of
+   *          at most <code>distance + 1</code> words containing all the
+   *          keywords
+   */
+  int matches(int[][] positions) {
+    return (distance < 0) ? phraseMatches(positions)
+        : windowMatches(positions);
+  }
+
+  private int phraseMatches(int[][] ps) {
+    // drive from the phrase word with the fewest positions
+    int r = 0;
+    for (int j = 1; j < slotKeys.length; j++) {
+      if (ps[slotKeys[j]].length < ps[slotKeys[r]].length)
+        r = j;
+    }
+
+    int n = 0;
+    int[] rps = ps[slotKeys[r]];
+    int start;
+    boolean match;
+    for (int i = 0; i < rps.length; i++) {
+      start = rps[i] - offsets[r];
+      match = true;
+      for (int j = 0; j < slotKeys.length && match; j++) {
+        if (j != r)
+          match = Arrays.binarySearch(ps[slotKeys[j]], start + offsets[j]) >= 0;
+      }
+      if (match)
+        n++;
+    }
+
+    return n;
+  }
+
+  private int windowMatches(int[][] ps) {
+    int[] next = new int[ps.length]; // the next position of each keyword
+    int n = 0;
+    while (true) {
+      int min = -1, max = -1;
+      for (int i = 0; i < ps.length; i++) {
+        if (next[i] >= ps[i].length)
+          return n;
+        if (min < 0 || ps[i][next[i]] < ps[min][next[min]])
+          min = i;
+        if (max < 0 || ps[i][next[i]] > ps[max][next[max]])
+          max = i;
+      }
+
+      if (ps[max][next[max]] - ps[min][next[min]] <= distance)
+        n++;
+
+      next[min]++;
+    }
+  }
+
+  private static int[] toArray(Vector<Integer> v) {
+    int[] a = new int[v.size()];
+    for (int i = 0; i < a.length; i++)
+      a[i] = v.get(i);
+    return a;
+  }
+
+  @Override
+  public String toString() {
+    if (distance >= 0)
+      return "near/" + distance + Arrays.toString(keys);
+
+    StringBuffer sb = new StringBuffer("\"");
+    for (int j = 0; j < slotKeys.length; j++) {
+      if (j > 0)
+        sb.append(' ');
+      sb.append(keys[slotKeys[j]]);
+    }
+    return sb.append('"').toString();
+  }
+}
@@ -1,5 +1,6 @@
 package a3_1801040081.kengine;
 
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Vector;
@@ -8,20 +9,51 @@ import utils.*;
 
 
 /**
- * @overview Represents a user query
+ * @overview Represents a user query. 
+ *           
+ *           A query may also constrain the positions of its keywords, e.g. to 
+ *           match a phrase. Such a query is evaluated by a positional merge of
+ *           the postings of its keywords: the postings are intersected on 
+ *           document ids and the positions of the keywords are only compared 
+ *           in the documents that contain all of them.
+ *           
+ *           A query may instead be a boolean combination of keywords, which is 
+ *           evaluated over the postings of the keywords as planned by 
+ *           <code>BooleanQuery</code>.
+ *           
+ *           The matches are ranked either by the sum of the counts of the 
+ *           keywords (<code>Ranking.Count</code>, the default) or by their 
+ *           BM25 relevance score (<code>Ranking.BM25</code>).
  * 
  * @see "Program development in Java", pgs 314,322,326-332,365
  * 
- * @version 4.0 implements full code
+ * @version 
+ * - 4.0 implements full code <br>
+ * - 4.1 phrase and proximity queries <br>
+ * - 4.2 rank matches by BM25 scores <br>
+ * - 4.3 intersect the matches with the postings of a new keyword <br>
+ * - 4.4 boolean queries <br>
+ * - 4.5 create a query from cached matches <br>
+ * - 4.6 create a query from merged matches; narrow an empty query
  * @author dmle
  * 
  */
 public class Query {
+  // addKey advances through the postings rather than reading all of them if
+  // they are this many times more than the matches
+  private static final int GALLOP_FACTOR = 8;
+
   private WordTable wt; // reference to the engine's word table
   private Vector matches; // document matches
   // dmle: use Vector instead of array
   // private String[] keys; // the keywords of this query
   private Vector keys;
+  // the constraint on the positions of the keywords (optional)
+  private Proximity proximity;
+  // the boolean combination of the keywords (optional)
+  private BooleanQuery bool;
+  // the BM25 scorer, or null to rank by count
+  private BM25 bm25;
 
   /**
    * Constructor method to create an empty <code>Query</code>
@@ -48,28 +80,307 @@ public class Query {
    * @see "Program development in Java", pg 329
    */
   public Query(WordTable wt, String w) {
+    this(wt, w, Ranking.Count);
+  }
+
+  /**
+   * Constructor method to create a new <code>Query</code> from a single keyword
+   * 
+   * @param w
+   *          a keyword to create the query with
+   * @param wt
+   *          the <code>WordTable</code> object of the engine
+   * @param r
+   *          how to rank the matches
+   * @requires <code>w</code>, <code>wt</code> and <code>r</code> are not 
+   *           <code>null</code>
+   * @effects make a <code>Query</code> for the single keyword <code>w</code>, 
+   *          whose matches are ranked by <code>r</code>.
+   * 
+   * @version 4.2
+   */
+  public Query(WordTable wt, String w, Ranking r) {
     // call this to initialise rep
     this();
     
     this.wt = wt;
+    if (r == Ranking.BM25)
+      bm25 = new BM25(wt);
 
     // look up the key in the word table
     // sort the matches using quick sort
-    Vector newDocs = wt.lookup(w);
-
-    if (newDocs != null) {
-      // must clone newDocs so that changes to the doc counts of its objects
-      // do not affect the word table
-      Vector docClones = new Vector();
-      for (Iterator it = newDocs.iterator(); it.hasNext();) {
-        DocCnt dc = (DocCnt) ((DocCnt) it.next()).clone();
-        docClones.add(dc);
+    PostingCursor c = wt.cursor(w);
+
+    if (c != null) {
+      // decode the postings into new DocCnt objects, so that changes to their 
+      // counts do not affect the word table
+      // skip documents that are not yet published
+      double idf = idf(w);
+      Doc d;
+      while (c.next()) {
+        d = wt.doc(c.docId());
+        if (d != null)
+          matches.add(match(d, c.docId(), c.count(), idf));
       }
-      matches.addAll(docClones);
-      keys.add(w);
       
       Sorting.quickSort(matches);
     }
+    keys.add(w);
+  }
+
+  /**
+   * Constructor method to create a new <code>Query</code> from a phrase or 
+   * proximity constraint
+   * 
+   * @param wt
+   *          the <code>WordTable</code> object of the engine
+   * @param p
+   *          the constraint on the positions of the keywords
+   * @param r
+   *          how to rank the matches
+   * @requires <code>wt</code>, <code>p</code> and <code>r</code> are not 
+   *           <code>null</code>
+   * @effects make a <code>Query</code> for the documents that contain all the
+   *          keywords of <code>p</code> at positions that satisfy 
+   *          <code>p</code>. The count of a match is the number of times that 
+   *          <code>p</code> is satisfied in the document; its BM25 score 
+   *          treats that number as the frequency of a term whose idf is the
+   *          sum of those of the keywords.
+   * 
+   * @version 
+   * - 4.1 <br>
+   * - 4.2 rank the matches by <code>r</code>
+   */
+  Query(WordTable wt, Proximity p, Ranking r) {
+    this();
+
+    this.wt = wt;
+    proximity = p;
+    if (r == Ranking.BM25)
+      bm25 = new BM25(wt);
+
+    String[] ks = p.keys();
+    PostingCursor[] cs = new PostingCursor[ks.length];
+    for (int i = 0; i < ks.length; i++) {
+      keys.add(ks[i]);
+      cs[i] = wt.cursor(ks[i]);
+      if (cs[i] == null || !cs[i].next())
+        return;
+    }
+
+    double idf = proximityIdf();
+    int[][] ps = new int[ks.length][];
+    Doc d;
+    int n;
+    while (align(cs)) {
+      d = wt.doc(cs[0].docId());
+      if (d != null) {
+        for (int i = 0; i < cs.length; i++)
+          ps[i] = cs[i].positions();
+        n = p.matches(ps);
+        if (n > 0)
+          matches.add(match(d, cs[0].docId(), n, idf));
+      }
+
+      if (!cs[0].next())
+        break;
+    }
+
+    Sorting.quickSort(matches);
+  }
+
+  /**
+   * Constructor method to create a new <code>Query</code> from a boolean 
+   * combination of keywords
+   * 
+   * @param wt
+   *          the <code>WordTable</code> object of the engine
+   * @param b
+   *          the planned boolean query
+   * @param r
+   *          how to rank the matches
+   * @requires <code>wt</code>, <code>b</code> and <code>r</code> are not 
+   *           <code>null</code>
+   * @effects make a <code>Query</code> for the documents that satisfy 
+   *          <code>b</code>. The count and score of a match are the sums of 
+   *          those of the keywords of the clauses of <code>b</code> that it
+   *          satisfies.
+   * 
+   * @version 4.4
+   */
+  Query(WordTable wt, BooleanQuery b, Ranking r) {
+    this();
+
+    this.wt = wt;
+    bool = b;
+    if (r == Ranking.BM25)
+      bm25 = new BM25(wt);
+
+    keys.addAll(Arrays.asList(b.keys()));
+
+    BooleanQuery.Clause c = b.open(wt, bm25);
+    if (c != null) {
+      Doc d;
+      DocCnt dc;
+      while (c.next()) {
+        d = wt.doc(c.docId());
+        if (d != null) {
+          dc = new DocCnt(d, c.count(), c.score(wt.docLength(c.docId())));
+          dc.docId = c.docId();
+          matches.add(dc);
+        }
+      }
+    }
+
+    Sorting.quickSort(matches);
+  }
+
+  /**
+   * Constructor method to create a new <code>Query</code> from matches that 
+   * were computed before
+   * 
+   * @param wt
+   *          the <code>WordTable</code> object of the engine
+   * @param ks
+   *          the keywords of the query
+   * @param ms
+   *          the matches of the query for <code>ks</code> ranked by 
+   *          <code>r</code>, in order
+   * @param r
+   *          how to rank the matches
+   * @requires the arguments are not <code>null</code>
+   * @effects make a <code>Query</code> for the keywords <code>ks</code> whose 
+   *          matches are <code>ms</code>
+   * 
+   * @version 4.5
+   */
+  Query(WordTable wt, String[] ks, Vector ms, Ranking r) {
+    this();
+
+    this.wt = wt;
+    if (r == Ranking.BM25)
+      bm25 = new BM25(wt);
+    keys.addAll(Arrays.asList(ks));
+    matches = ms;
+  }
+
+  /**
+   * Constructor method to create a new <code>Query</code> whose matches were 
+   * merged from the matches of other queries
+   * 
+   * @param ks
+   *          the keywords of the query
+   * @param ms
+   *          the matches of the query, in order
+   * @requires the arguments are not <code>null</code>
+   * @effects make a <code>Query</code> for the keywords <code>ks</code> whose 
+   *          matches are <code>ms</code>. The query cannot be extended by 
+   *          <code>addKey</code> or <code>addDoc</code>.
+   * 
+   * @version 4.6
+   */
+  Query(String[] ks, Vector ms) {
+    this();
+
+    keys.addAll(Arrays.asList(ks));
+    matches = ms;
+  }
+
+  /**
+   * @effects if <code>this</code> is a query for documents that contain all 
+   *          its keywords, without a constraint on their positions, returns 
+   *          <code>true</code>, else returns <code>false</code>
+   * @version 4.5
+   */
+  boolean isConjunction() {
+    return proximity == null && bool == null;
+  }
+
+  /**
+   * @effects returns how the matches of <code>this</code> are ranked
+   * @version 4.5
+   */
+  Ranking ranking() {
+    return (bm25 != null) ? Ranking.BM25 : Ranking.Count;
+  }
+
+  /**
+   * @effects returns the matches of <code>this</code>, in order
+   * @version 4.5
+   */
+  Vector matches() {
+    return matches;
+  }
+
+  /**
+   * @effects if <code>this</code> ranks by BM25 returns the idf of 
+   *          <code>w</code>, else returns 0
+   */
+  private double idf(String w) {
+    return (bm25 != null) ? bm25.idf(w) : 0;
+  }
+
+  /**
+   * @effects returns a match of document <code>d</code>, whose id is 
+   *          <code>docId</code>, in which a term whose idf is <code>idf</code>
+   *          occurs <code>tf</code> times
+   */
+  private DocCnt match(Doc d, int docId, int tf, double idf) {
+    DocCnt dc = new DocCnt(d, tf, score(idf, tf, wt.docLength(docId)));
+    dc.docId = docId;
+    return dc;
+  }
+
+  /**
+   * @requires <code>proximity != null</code>
+   * @effects returns the sum of <code>idf(k)</code> over the keywords of 
+   *          <code>proximity</code>
+   */
+  private double proximityIdf() {
+    double idf = 0;
+    String[] ks = proximity.keys();
+    for (int i = 0; i < ks.length; i++)
+      idf += idf(ks[i]);
+    return idf;
+  }
+
+  /**
+   * @effects if <code>this</code> ranks by BM25 returns the score of a term 
+   *          whose idf is <code>idf</code> and that occurs <code>tf</code> 
+   *          times in a document of <code>docLength</code> words, else returns 
+   *          <code>tf</code>
+   */
+  private double score(double idf, int tf, int docLength) {
+    return (bm25 != null) ? bm25.score(idf, tf, docLength) : tf;
+  }
+
+  /**
+   * @requires each of <code>cs</code> is on a posting
+   * @modifies <code>cs</code>
+   * @effects moves <code>cs</code> forward until they are all on the same 
+   *          document and returns <code>true</code>, or returns 
+   *          <code>false</code> if there is no such document
+   */
+  private static boolean align(PostingCursor[] cs) {
+    int target = cs[0].docId();
+    int agreed = 1; // the number of cursors known to be on target
+    int i = 1 % cs.length;
+    while (agreed < cs.length) {
+      while (cs[i].docId() < target) {
+        if (!cs[i].next())
+          return false;
+      }
+
+      if (cs[i].docId() > target) {
+        target = cs[i].docId();
+        agreed = 1;
+      } else {
+        agreed++;
+      }
+      i = (i + 1) % cs.length;
+    }
+
+    return true;
   }
 
   /**
@@ -83,7 +394,14 @@ public class Query {
    *          <code>NotPossibleException</code>, else modifies <code>this</code>
    *          to be a query for <code>w</code> and all the keywords already in
    *          <code>this</code>.
-   * @version 4.0
+   *          
+   *          The matches are intersected with the postings of <code>w</code> 
+   *          in one pass, in the order of document ids. If the postings are 
+   *          much longer than the matches, the cursor advances to each match 
+   *          (skipping the postings in between), else it reads every posting.
+   * @version 
+   * - 4.0 <br>
+   * - 4.3 intersect sorted document ids
    * @see "Program development in Java", pg 329
    * 
    */
@@ -93,41 +411,71 @@ public class Query {
           "Query.addKey: query is empty OR keyword already exists in query: "
               + w);
 
+    narrow(w);
+  }
+
+  /**
+   * A method to add a new keyword to <code>this</code>, which may be empty.
+   * 
+   * @requires <code>w</code> is not a keyword of <code>this</code> and 
+   *           <code>this</code> was created from a word table
+   * @modifies <code>this</code>
+   * @effects modifies <code>this</code> to be a query for <code>w</code> and 
+   *          all the keywords already in <code>this</code>
+   * @version 4.6
+   */
+  void narrow(String w) {
     keys.add(w);
 
-    // look up the new query in word table
-    // store the information about matches in a hash table
-    Vector newDocs = wt.lookup(w);
+    // the matches in the order of their document ids: <docId, index>
+    int m = matches.size();
+    long[] ids = new long[m];
+    int n = 0;
+    DocCnt dc;
+    for (int i = 0; i < m; i++) {
+      dc = (DocCnt) matches.get(i);
+      if (dc.docId < 0)
+        dc.docId = wt.docId(dc.getDoc());
+      if (dc.docId >= 0)
+        ids[n++] = ((long) dc.docId << 32) | i;
+    }
+    Arrays.sort(ids, 0, n);
 
-    // for each current match, look up the document in the hash table and if it
-    // is there, add it to the matches vector
-    DocCnt currentMatch, newDoc;
-    boolean foundNewMatch = false;
+    // the matches that contain w
+    boolean[] found = new boolean[m];
+    PostingCursor c = wt.cursor(w);
+    if (c != null && n > 0) {
+      boolean gallop = (long) n * GALLOP_FACTOR < wt.docFreq(w);
+      double idf = idf(w);
+      int docId;
+      boolean more = c.next();
+      for (int j = 0; j < n && more; j++) {
+        docId = (int) (ids[j] >>> 32);
+        if (gallop) {
+          more = c.advance(docId);
+        } else {
+          while (more && c.docId() < docId)
+            more = c.next();
+        }
 
-    for (int i = 0; i < matches.size(); i++) {
-      currentMatch = (DocCnt) matches.get(i);
-      boolean containsKeyword = false;  // whether or not the current match contains the new keyword
-      INNER: for (Iterator dit = newDocs.iterator(); dit.hasNext();) {
-        newDoc = (DocCnt) dit.next();
-        if (currentMatch.getDoc().equals(newDoc.getDoc())) {
-          // found a new match, update the sum of count in the vector
-          currentMatch.addCount(newDoc.getCount());
-          containsKeyword = true;
-          if (!foundNewMatch)
-            foundNewMatch = true;
-          break INNER;
+        if (more && c.docId() == docId) {
+          dc = (DocCnt) matches.get((int) ids[j]);
+          dc.add(c.count(), score(idf, c.count(), wt.docLength(docId)));
+          found[(int) ids[j]] = true;
         }
       }
-      
-      if (!containsKeyword) {
-        // remove current match
-        matches.removeElementAt(i);
-        i--;
-      }
     }
 
+    // keep the surviving matches in their current order
+    Vector survivors = new Vector(m);
+    for (int i = 0; i < m; i++) {
+      if (found[i])
+        survivors.add(matches.get(i));
+    }
+    matches = survivors;
+
     // sort the vector using quick-sort
-    if (foundNewMatch) {
+    if (!matches.isEmpty()) {
       Sorting.quickSort(matches);
     }
   }
@@ -143,40 +491,103 @@ public class Query {
    * @requires <code>d</code> and <code>h</code> are not <code>null</code>
    * @modifies <code>this</code>
    * @effects If <code>this</code> is not empty and <code>d</code> contains all
-   *          the keywords of <code>this</code> then adds <code>d</code> and its
-   *          keyword entries in <code>h</code> to <code>matches</code> as a
-   *          query result, else does nothing
+   *          the keywords of <code>this</code> (at positions that satisfy the 
+   *          phrase or proximity constraint of <code>this</code>, if any, or 
+   *          satisfies the boolean query of <code>this</code>) then 
+   *          adds <code>d</code> and its keyword entries in <code>h</code> to 
+   *          <code>matches</code> as a query result, else does nothing
    * 
-   * @version 4.0
+   * @version 
+   * - 4.0 <br>
+   * - 4.1 check the positions of the keywords <br>
+   * - 4.2 insert <code>d</code> once, by score <br>
+   * - 4.4 evaluate the boolean query
    */
   public void addDoc(Doc d, Hashtable h) {
     if (!keys.isEmpty()) {
+      // the length of d, if known
+      int len = (h instanceof KeywordMap) ? ((KeywordMap) h).length()
+          : (int) wt.avgDocLength();
+
       String k;
       Integer c;
       int sum = 0;
+      double score = 0;
       for (Iterator kit = keys.iterator(); kit.hasNext();) {
         k = (String) kit.next();
+        if (bool != null && bool.hasKey(k))
+          // checked below
+          continue;
         c = (Integer) h.get(k);
         if (c == null) {
           // d does not contain all keywords of this
           return;
-        } else {
+        } else if (proximity == null || !proximity.hasKey(k)) {
           sum += c.intValue();
+          score += score(idf(k), c.intValue(), len);
         }
       }
 
+      if (bool != null) {
+        double[] acc = new double[2];
+        if (!bool.matches(h, len, bm25, acc))
+          return;
+        sum += (int) acc[0];
+        score += acc[1];
+      }
+
+      if (proximity != null) {
+        // the positions are only known for a KeywordMap
+        if (!(h instanceof KeywordMap))
+          return;
+
+        String[] ks = proximity.keys();
+        int[][] ps = new int[ks.length][];
+        for (int i = 0; i < ks.length; i++)
+          ps[i] = ((KeywordMap) h).positions(ks[i]);
+
+        int n = proximity.matches(ps);
+        if (n == 0)
+          return;
+        sum += n;
+        score += score(proximityIdf(), n, len);
+      }
+
       // if we get here then d satisfies the query
-      DocCnt dc = new DocCnt(d, sum);
-      matches.add(dc);
+      DocCnt dc = new DocCnt(d, sum, score);
       DocCnt cm;
 
       // add dc to a position in the matches vector
-      for (int i = 0; i < matches.size(); i++) {
+      int i = 0;
+      while (i < matches.size()) {
         cm = (DocCnt) matches.get(i);
-        if (cm.getCount() < dc.getCount()) {
-          matches.insertElementAt(dc, i);
+        if (cm.getScore() < dc.getScore())
           break;
-        }
+        i++;
+      }
+      matches.insertElementAt(dc, i);
+    }
+  }
+
+  /**
+   * A method to remove a document from the matches of this query.
+   * 
+   * @param d
+   *          the <code>Doc</code> object to remove
+   * @requires <code>d</code> is not <code>null</code>
+   * @modifies <code>this</code>
+   * @effects if <code>d</code> is a matching document of <code>this</code> 
+   *          removes it from <code>matches</code>, else does nothing
+   * 
+   * @version 4.1
+   */
+  public void removeDoc(Doc d) {
+    DocCnt cm;
+    for (int i = 0; i < matches.size(); i++) {
+      cm = (DocCnt) matches.get(i);
+      if (cm.getDoc().equals(d)) {
+        matches.remove(i);
+        return;
       }
     }
   }
@@ -229,6 +640,10 @@ public class Query {
     StringBuffer sb = new StringBuffer();
     if (keys != null && !keys.isEmpty()) {
       sb.append("Query: ");
+      if (proximity != null)
+        sb.append(proximity).append(" ");
+      if (bool != null)
+        sb.append(bool).append(" ");
       sb.append(keys.toString());
     }
     
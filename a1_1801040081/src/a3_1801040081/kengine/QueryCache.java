@@ -0,0 +1,186 @@
+package a3_1801040081.kengine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * @overview A bounded cache of the matches of keyword queries, keyed by the
+ *           sorted set of the keywords of a query and its ranking. When the
+ *           cache is full the least recently used entry is evicted.
+ *
+ *           An entry is only valid as long as no document that contains one
+ *           of its keywords is added or removed. Entries are indexed by each
+ *           of their keywords, so that such a change drops exactly the
+ *           entries that share a keyword with the document. The BM25 scores
+ *           of the matches also depend on the number and the average length of
+ *           all the documents, so the entries ranked by BM25 are dropped by any
+ *           change.
+ *
+ *           The matches are copied into and out of the cache, so that changes
+ *           to a query do not affect the cache.
+ *
+ *           A cache is safe for use by multiple threads.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+class QueryCache {
+  private final int capacity;
+  // in order of access, least recent first
+  private final LinkedHashMap<String, Cached> entries;
+  // the keys of the entries that contain each keyword
+  private final HashMap<String, HashSet<String>> byWord;
+  // the keys of the entries ranked by BM25
+  private final HashSet<String> scored;
+
+  /**
+   * Constructor method
+   *
+   * @requires <code>capacity &gt; 0</code>
+   * @effects initialises <code>this</code> to be an empty cache of at most
+   *          <code>capacity</code> entries
+   */
+  QueryCache(int capacity) {
+    this.capacity = capacity;
+    byWord = new HashMap<>();
+    scored = new HashSet<>();
+    entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+        if (size() > QueryCache.this.capacity) {
+          unindex(eldest.getKey(), eldest.getValue().keys);
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * @effects if <code>this</code> contains the matches of the query for
+   *          <code>ks</code> ranked by <code>r</code> returns a copy of them,
+   *          else returns <code>null</code>
+   */
+  synchronized Vector get(String[] ks, Ranking r) {
+    Cached e = entries.get(key(ks, r));
+    return (e != null) ? copy(e.matches) : null;
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects stores a copy of <code>matches</code> as the matches of the
+   *          query for <code>ks</code> ranked by <code>r</code>, evicting the
+   *          least recently used entry if <code>this</code> is full
+   */
+  synchronized void put(String[] ks, Ranking r, Vector matches) {
+    String k = key(ks, r);
+    Cached old = entries.remove(k);
+    if (old != null)
+      unindex(k, old.keys);
+
+    entries.put(k, new Cached(ks.clone(), copy(matches)));
+    if (r == Ranking.BM25)
+      scored.add(k);
+    HashSet<String> s;
+    for (int i = 0; i < ks.length; i++) {
+      s = byWord.get(ks[i]);
+      if (s == null) {
+        s = new HashSet<>();
+        byWord.put(ks[i], s);
+      }
+      s.add(k);
+    }
+  }
+
+  /**
+   * @param words
+   *          the keywords of a document that was added or removed
+   * @modifies <code>this</code>
+   * @effects removes the entries whose keywords include any of
+   *          <code>words</code> and the entries ranked by BM25
+   */
+  synchronized void invalidate(Set words) {
+    if (entries.isEmpty())
+      return;
+
+    HashSet<String> ks;
+    String k;
+    Cached e;
+    for (Iterator<String> kit = scored.iterator(); kit.hasNext();) {
+      k = kit.next();
+      e = entries.remove(k);
+      kit.remove();
+      if (e != null)
+        unindex(k, e.keys);
+    }
+
+    for (Iterator it = words.iterator(); it.hasNext();) {
+      ks = byWord.remove(it.next());
+      if (ks != null) {
+        for (Iterator<String> kit = ks.iterator(); kit.hasNext();) {
+          k = kit.next();
+          e = entries.remove(k);
+          if (e != null)
+            unindex(k, e.keys);
+        }
+      }
+    }
+  }
+
+  /**
+   * @effects returns the number of entries in <code>this</code>
+   */
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @effects removes the entry key <code>k</code> from the index of
+   *          <code>ks</code>
+   */
+  private void unindex(String k, String[] ks) {
+    scored.remove(k);
+    HashSet<String> s;
+    for (int i = 0; i < ks.length; i++) {
+      s = byWord.get(ks[i]);
+      if (s != null) {
+        s.remove(k);
+        if (s.isEmpty())
+          byWord.remove(ks[i]);
+      }
+    }
+  }
+
+  private static String key(String[] ks, Ranking r) {
+    String[] sorted = ks.clone();
+    Arrays.sort(sorted);
+    StringBuffer sb = new StringBuffer(r.name());
+    for (int i = 0; i < sorted.length; i++)
+      sb.append(' ').append(sorted[i]);
+    return sb.toString();
+  }
+
+  private static Vector copy(Vector matches) {
+    Vector v = new Vector(matches.size());
+    for (int i = 0; i < matches.size(); i++)
+      v.add(((DocCnt) matches.get(i)).clone());
+    return v;
+  }
+
+  private static class Cached {
+    private final String[] keys;
+    private final Vector matches;
+
+    Cached(String[] keys, Vector matches) {
+      this.keys = keys;
+      this.matches = matches;
+    }
+  }
+}
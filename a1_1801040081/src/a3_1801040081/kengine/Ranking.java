@@ -0,0 +1,16 @@
+package a3_1801040081.kengine;
+
+/**
+ * @overview 
+ *  Used by {@link Query} to define how the matching documents are ranked.
+ *  
+ * @author agent
+ *
+ * @version 1.0 
+ */
+public enum Ranking {
+  /**by the sum of the numbers of occurrences of the keywords */
+  Count,
+  /**by the Okapi BM25 relevance score */
+  BM25
+}
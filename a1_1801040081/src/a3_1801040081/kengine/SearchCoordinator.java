@@ -0,0 +1,501 @@
+package a3_1801040081.kengine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview The coordinator of a search cluster, whose documents are
+ *           partitioned across several <code>SearchNode</code>s, typically
+ *           each in its own process. A query is sent to all the nodes in
+ *           parallel, and the best matches of the nodes are merged into one
+ *           ranking by a k-way merge.
+ *
+ *           A node that does not answer within the timeout of the coordinator,
+ *           or that cannot be reached, is left out: the result of the query
+ *           then contains the matches of the other nodes only, and records
+ *           which nodes failed. The connections to the nodes are kept open and
+ *           reused by later queries.
+ *
+ *           A coordinator is safe for use by multiple threads.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+public class SearchCoordinator {
+  /** the default timeout of the nodes, in milliseconds */
+  public static final int DEFAULT_TIMEOUT = 2000;
+
+  private static final int BUFFER_SIZE = 1 << 13;
+
+  private final Node[] nodes;
+  private final ExecutorService pool;
+  private volatile int timeout;
+  private volatile Ranking ranking;
+
+  /**
+   * Constructor method
+   *
+   * @param addrs
+   *          the addresses of the nodes, each of the form
+   *          <code>host:port</code> or <code>port</code> (on the loopback
+   *          interface)
+   * @effects if <code>addrs</code> is empty or any of its elements is invalid
+   *          throws <code>NotPossibleException</code>, else initialises
+   *          <code>this</code> to query the nodes at <code>addrs</code> with
+   *          the timeout <code>DEFAULT_TIMEOUT</code> and ranking
+   *          <code>Count</code>
+   */
+  public SearchCoordinator(String[] addrs) throws NotPossibleException {
+    if (addrs == null || addrs.length == 0)
+      throw new NotPossibleException("SearchCoordinator: no nodes");
+
+    nodes = new Node[addrs.length];
+    int port, c;
+    for (int i = 0; i < addrs.length; i++) {
+      c = addrs[i].lastIndexOf(':');
+      try {
+        port = Integer.parseInt(addrs[i].substring(c + 1));
+        nodes[i] = new Node((c < 0) ? new InetSocketAddress(InetAddress
+            .getLoopbackAddress(), port) : new InetSocketAddress(addrs[i]
+            .substring(0, c), port));
+      } catch (IllegalArgumentException e) {
+        // also NumberFormatException
+        throw new NotPossibleException("SearchCoordinator: invalid node address: "
+            + addrs[i]);
+      }
+    }
+
+    pool = Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "kengine-coordinator");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    timeout = DEFAULT_TIMEOUT;
+    ranking = Ranking.Count;
+  }
+
+  /**
+   * @effects returns the number of nodes of <code>this</code>
+   */
+  public int nodeCount() {
+    return nodes.length;
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects if <code>millis &lt; 1</code> throws
+   *          <code>NotPossibleException</code>, else sets the time that later
+   *          queries wait for the nodes to <code>millis</code>
+   */
+  public void setTimeout(int millis) throws NotPossibleException {
+    if (millis < 1)
+      throw new NotPossibleException("SearchCoordinator.setTimeout: invalid timeout: "
+          + millis);
+    timeout = millis;
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects if <code>r</code> is <code>null</code> throws
+   *          <code>NotPossibleException</code>, else sets how the matches of
+   *          later queries are ranked to <code>r</code>
+   */
+  public void setRanking(Ranking r) throws NotPossibleException {
+    if (r == null)
+      throw new NotPossibleException("SearchCoordinator.setRanking: ranking is null");
+    ranking = r;
+  }
+
+  /**
+   * @effects returns how the matches of the queries of <code>this</code> are
+   *          ranked
+   */
+  public Ranking getRanking() {
+    return ranking;
+  }
+
+  /**
+   * A method to find the best documents of the cluster that contain any of
+   * some keywords.
+   *
+   * @effects if <code>keys</code> is empty or has more than
+   *          <code>SearchNode.MAX_KEYS</code> keywords, or <code>k</code> is
+   *          not in <code>1..SearchNode.MAX_K</code>, or no node answers,
+   *          throws <code>NotPossibleException</code>, else returns the result
+   *          whose hits are the best <code>k</code> documents of the nodes
+   *          that answered that contain any of <code>keys</code>, as for
+   *          <code>Engine.search</code>
+   */
+  public Result search(String[] keys, int k) throws NotPossibleException {
+    return query(SearchNode.SEARCH, keys, k);
+  }
+
+  /**
+   * A method to find the best documents of the cluster that contain all of
+   * some keywords.
+   *
+   * @effects if <code>keys</code> is empty or has more than
+   *          <code>SearchNode.MAX_KEYS</code> keywords, or <code>k</code> is
+   *          not in <code>1..SearchNode.MAX_K</code>, or no node answers,
+   *          throws <code>NotPossibleException</code>, else returns the result
+   *          whose hits are the best <code>k</code> documents of the nodes
+   *          that answered that contain all of <code>keys</code>, as for
+   *          <code>Engine.queryMore</code>
+   */
+  public Result match(String[] keys, int k) throws NotPossibleException {
+    return query(SearchNode.MATCH, keys, k);
+  }
+
+  /**
+   * A method to add a document to the node of its shard, which is chosen by
+   * the hash of its canonical title as by <code>ShardedEngine</code>.
+   *
+   * @effects if <code>d</code> is <code>null</code> throws
+   *          <code>NullPointerException</code>; else if the node does not
+   *          answer or fails to add <code>d</code> throws
+   *          <code>NotPossibleException</code>, else adds <code>d</code> to
+   *          the node
+   */
+  public void addDoc(Doc d) throws NotPossibleException {
+    if (d == null)
+      throw new NullPointerException("Doc is null");
+
+    int h = (d.title() != null) ? Helpers.canon(d.title()).hashCode() : 0;
+    Node n = nodes[Math.floorMod(h, nodes.length)];
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      byte[] text = d.text().getBytes(StandardCharsets.UTF_8);
+      out.writeInt(SearchNode.MAGIC);
+      out.writeByte(SearchNode.ADD);
+      out.writeInt(text.length);
+      out.write(text);
+      // not retried, so that d is added at most once
+      n.call(bytes.toByteArray(), timeout, false);
+    } catch (IOException e) {
+      throw new NotPossibleException("SearchCoordinator.addDoc: node " + n
+          + " failed due to " + e);
+    }
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects closes the connections of <code>this</code> to the nodes
+   */
+  public void close() {
+    pool.shutdownNow();
+    for (int i = 0; i < nodes.length; i++)
+      nodes[i].close();
+  }
+
+  /**
+   * @effects sends the request <code>op</code> for <code>keys</code> and
+   *          <code>k</code> to all the nodes in parallel, and returns the
+   *          merged hits of those that answer in time
+   */
+  private Result query(byte op, String[] keys, final int k)
+      throws NotPossibleException {
+    if (keys == null || keys.length == 0 || keys.length > SearchNode.MAX_KEYS
+        || k < 1 || k > SearchNode.MAX_K)
+      throw new NotPossibleException("SearchCoordinator: invalid arguments");
+
+    // the request is the same for all the nodes
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(SearchNode.MAGIC);
+      out.writeByte(op);
+      out.writeByte(ranking.ordinal());
+      out.writeInt(k);
+      out.writeInt(keys.length);
+      for (int i = 0; i < keys.length; i++)
+        out.writeUTF(keys[i]);
+    } catch (IOException e) {
+      // not thrown by a byte array
+      throw new NotPossibleException("SearchCoordinator: " + e);
+    }
+    final byte[] req = bytes.toByteArray();
+    final int millis = timeout;
+
+    Future[] fs = new Future[nodes.length];
+    for (int i = 0; i < nodes.length; i++) {
+      final Node n = nodes[i];
+      fs[i] = pool.submit(new Callable<Vector>() {
+        public Vector call() throws IOException {
+          return n.call(req, millis, true);
+        }
+      });
+    }
+
+    // wait for the nodes until the deadline
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    Vector[] parts = new Vector[nodes.length];
+    Vector<String> failed = new Vector<>();
+    for (int i = 0; i < nodes.length; i++) {
+      try {
+        parts[i] = (Vector) fs[i].get(Math.max(0, deadline - System.nanoTime()),
+            TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        // the task closes its connection when its read times out
+        fs[i].cancel(true);
+        failed.add(nodes[i] + ": timed out");
+      } catch (ExecutionException e) {
+        failed.add(nodes[i] + ": " + e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failed.add(nodes[i] + ": interrupted");
+      }
+    }
+
+    if (failed.size() == nodes.length)
+      throw new NotPossibleException("SearchCoordinator: no node answered: "
+          + failed);
+
+    return new Result(ShardedEngine.merge(parts, k), failed
+        .toArray(new String[failed.size()]));
+  }
+
+  /**
+   * @overview The result of a query of a cluster: the merged hits of the
+   *           nodes that answered, and the nodes that failed to answer.
+   */
+  public static class Result {
+    private final Vector hits;
+    private final String[] failed;
+
+    Result(Vector hits, String[] failed) {
+      this.hits = hits;
+      this.failed = failed;
+    }
+
+    /**
+     * @effects returns the <code>DocCnt</code>s of the matching documents in
+     *          descending order of score
+     */
+    public Vector hits() {
+      return hits;
+    }
+
+    /**
+     * @effects if some nodes failed to answer, so that the hits may miss some
+     *          matching documents, returns <code>true</code>, else returns
+     *          <code>false</code>
+     */
+    public boolean isPartial() {
+      return failed.length > 0;
+    }
+
+    /**
+     * @effects returns the descriptions of the nodes that failed to answer,
+     *          and why
+     */
+    public String[] failed() {
+      return failed.clone();
+    }
+
+    @Override
+    public String toString() {
+      return "Result: " + hits.size() + " hits"
+          + (isPartial() ? ", failed: " + Arrays.toString(failed) : "");
+    }
+  }
+
+  /**
+   * @overview A node of a cluster and its idle connections.
+   */
+  private static class Node {
+    private final InetSocketAddress addr;
+    private final ConcurrentLinkedQueue<Conn> idle;
+
+    Node(InetSocketAddress addr) {
+      this.addr = addr;
+      idle = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * @effects sends the request <code>req</code> to <code>this</code> and
+     *          returns the hits of its response, waiting at most
+     *          <code>millis</code> to connect and for each read; if an idle
+     *          connection is found broken and <code>retry</code> is true the
+     *          request is sent again on a new connection
+     */
+    Vector call(byte[] req, int millis, boolean retry) throws IOException {
+      Conn c = idle.poll();
+      if (c != null) {
+        try {
+          return c.call(req, millis, this);
+        } catch (NodeError e) {
+          throw e;
+        } catch (IOException e) {
+          // the node may have been restarted since c was used
+          if (!retry)
+            throw e;
+        }
+      }
+
+      return connect(millis).call(req, millis, this);
+    }
+
+    private Conn connect(int millis) throws IOException {
+      Socket s = new Socket();
+      try {
+        s.setTcpNoDelay(true);
+        s.connect(addr, millis);
+        return new Conn(s);
+      } catch (IOException e) {
+        s.close();
+        throw e;
+      }
+    }
+
+    void close() {
+      Conn c;
+      while ((c = idle.poll()) != null)
+        c.close();
+    }
+
+    @Override
+    public String toString() {
+      return addr.getHostString() + ":" + addr.getPort();
+    }
+  }
+
+  /**
+   * @overview An error reported by a node in its response, after which its
+   *           connection can still be used.
+   */
+  private static class NodeError extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    NodeError(String msg) {
+      super("node error: " + msg);
+    }
+  }
+
+  /**
+   * @overview A connection to a node.
+   */
+  private static class Conn {
+    private final Socket s;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    Conn(Socket s) throws IOException {
+      this.s = s;
+      in = new DataInputStream(new BufferedInputStream(s.getInputStream(),
+          BUFFER_SIZE));
+      out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(),
+          BUFFER_SIZE));
+    }
+
+    /**
+     * @effects sends <code>req</code> and reads the response; if the response
+     *          is read then returns <code>this</code> to the idle connections
+     *          of <code>n</code>, else closes <code>this</code>
+     */
+    Vector call(byte[] req, int millis, Node n) throws IOException {
+      Vector hits;
+      String msg;
+      try {
+        s.setSoTimeout(millis);
+        out.write(req);
+        out.flush();
+
+        if (in.readByte() == SearchNode.OK) {
+          hits = SearchNode.readHits(in);
+          msg = null;
+        } else {
+          hits = null;
+          msg = in.readUTF();
+        }
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+
+      n.idle.add(this);
+      if (msg != null)
+        throw new NodeError(msg);
+      return hits;
+    }
+
+    void close() {
+      try {
+        s.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Runs a coordinator that answers the queries read from the standard 
+   * input, one per line: the keywords of the query separated by spaces, 
+   * optionally preceded by <code>+</code> to find the documents that contain 
+   * all of them rather than any of them.
+   *
+   * @param args
+   *          the addresses of the nodes
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: SearchCoordinator <node>...");
+      System.exit(1);
+    }
+
+    SearchCoordinator c = new SearchCoordinator(args);
+    BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+    String line;
+    boolean all;
+    while ((line = in.readLine()) != null) {
+      line = line.trim();
+      all = line.startsWith("+");
+      if (all)
+        line = line.substring(1).trim();
+      if (line.isEmpty())
+        continue;
+
+      try {
+        String[] keys = line.split("\\s+");
+        Result r = all ? c.match(keys, 10) : c.search(keys, 10);
+        System.out.println(r);
+        DocCnt dc;
+        for (int i = 0; i < r.hits().size(); i++) {
+          dc = (DocCnt) r.hits().get(i);
+          System.out.println("  " + dc.getDoc().title() + " " + dc.getCount()
+              + " " + dc.getScore());
+        }
+      } catch (NotPossibleException e) {
+        System.out.println(e.getMessage());
+      }
+    }
+    c.close();
+  }
+}
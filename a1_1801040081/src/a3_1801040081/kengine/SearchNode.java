@@ -0,0 +1,376 @@
+package a3_1801040081.kengine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview A node of a search cluster: a process that hosts an
+ *           <code>Engine</code> holding one shard of the documents and
+ *           answers the requests of a <code>SearchCoordinator</code> over TCP
+ *           sockets on the loopback interface.
+ *
+ *           A connection carries a sequence of requests, each answered by one
+ *           response before the next is read. All numbers are big-endian, as
+ *           written by <code>DataOutputStream</code>. A request is
+ *           <pre>
+ *   &lt;MAGIC:int, op:byte, body&gt;
+ *           </pre>
+ *           where the body of
+ *           <ul>
+ *           <li><code>SEARCH</code> (the best documents that contain any of
+ *           the keywords) and <code>MATCH</code> (the best documents that
+ *           contain all the keywords) is
+ *           <code>&lt;ranking:byte, k:int, n:int, n * key:UTF&gt;</code>,
+ *           <li><code>ADD</code> (add a document) is
+ *           <code>&lt;length:int, text&gt;</code>, where <code>text</code> is
+ *           UTF-8.
+ *           </ul>
+ *           A response is <code>&lt;OK:byte, n:int, n * hit&gt;</code>, where
+ *           a hit is <code>&lt;count:int, score:double, length:int,
+ *           text&gt;</code> in descending order of score, or
+ *           <code>&lt;ERROR:byte, message:UTF&gt;</code>. A node that does not
+ *           contain the keywords of a query answers with no hits.
+ *
+ *           A request with an unknown ranking, <code>k &lt; 1</code>,
+ *           <code>k &gt; MAX_K</code> or, for <code>MATCH</code>, no keywords
+ *           is answered by <code>ERROR</code>. A request with a length that
+ *           is negative or larger than <code>MAX_DOC_SIZE</code>, or a number
+ *           of keywords that is negative or larger than <code>MAX_KEYS</code>,
+ *           is answered by <code>ERROR</code>, then its connection is closed,
+ *           because the rest of the request is not read.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+public class SearchNode {
+  static final int MAGIC = 0x4B4E4F44; // "KNOD"
+  static final byte SEARCH = 1;
+  static final byte MATCH = 2;
+  static final byte ADD = 3;
+  static final byte OK = 0;
+  static final byte ERROR = 1;
+
+  // the largest number of documents of a query
+  static final int MAX_K = 1000;
+  // the largest number of keywords of a query
+  static final int MAX_KEYS = 1024;
+  // the largest text of a document, in bytes
+  static final int MAX_DOC_SIZE = 1 << 24;
+
+  private static final int BUFFER_SIZE = 1 << 13;
+
+  private final Engine engine;
+  private final ServerSocket server;
+  private final ExecutorService workers;
+  // the connections being served
+  private final Set<Socket> conns = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Constructor method
+   *
+   * @param engine
+   *          the engine of the shard of this node
+   * @param port
+   *          the port to listen on, or 0 for any free port
+   * @effects if the port cannot be bound throws
+   *          <code>NotPossibleException</code>, else initialises
+   *          <code>this</code> to serve <code>engine</code> on
+   *          <code>port</code> of the loopback interface once it is started
+   */
+  public SearchNode(Engine engine, int port) throws NotPossibleException {
+    this.engine = engine;
+    try {
+      server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    } catch (IOException e) {
+      throw new NotPossibleException("SearchNode: failed to listen on port "
+          + port + " due to " + e);
+    }
+    workers = Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "kengine-node");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * @effects returns the port that <code>this</code> listens on
+   */
+  public int getPort() {
+    return server.getLocalPort();
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects starts accepting connections, each of which is served by its own
+   *          thread
+   */
+  public void start() {
+    workers.execute(new Runnable() {
+      public void run() {
+        while (!server.isClosed()) {
+          final Socket s;
+          try {
+            s = server.accept();
+          } catch (IOException e) {
+            // closed
+            continue;
+          }
+
+          conns.add(s);
+          // so that s is closed if close missed it
+          if (server.isClosed()) {
+            closeConn(s);
+            break;
+          }
+          try {
+            workers.execute(new Runnable() {
+              public void run() {
+                serve(s);
+              }
+            });
+          } catch (RejectedExecutionException e) {
+            closeConn(s);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects stops accepting connections and closes the connections that
+   *          are being served
+   */
+  public void close() {
+    try {
+      server.close();
+    } catch (IOException e) {
+      // ignore
+    }
+    // the workers that wait for requests are not woken up by an interrupt
+    for (Socket s : conns)
+      closeConn(s);
+    workers.shutdownNow();
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects closes the connection <code>s</code> and forgets it
+   */
+  private void closeConn(Socket s) {
+    conns.remove(s);
+    try {
+      s.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  /**
+   * @effects answers the requests of the connection <code>s</code> until it
+   *          is closed or a request is invalid, then closes it
+   */
+  private void serve(Socket s) {
+    try {
+      s.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(s
+          .getInputStream(), BUFFER_SIZE));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s
+          .getOutputStream(), BUFFER_SIZE));
+      int magic;
+      while (true) {
+        try {
+          magic = in.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        if (magic != MAGIC)
+          break;
+
+        boolean more = answer(in.readByte(), in, out);
+        out.flush();
+        if (!more)
+          break;
+      }
+    } catch (IOException e) {
+      // the connection is broken or closed
+    } finally {
+      closeConn(s);
+    }
+  }
+
+  /**
+   * @effects reads the body of a request <code>op</code> from <code>in</code>
+   *          and writes its response to <code>out</code>; returns
+   *          <code>true</code> if the next request can be read from
+   *          <code>in</code>, else returns <code>false</code>
+   */
+  private boolean answer(byte op, DataInputStream in, DataOutputStream out)
+      throws IOException {
+    if (op == SEARCH || op == MATCH) {
+      byte rank = in.readByte();
+      int k = in.readInt();
+      int n = in.readInt();
+      if (n < 0 || n > MAX_KEYS)
+        return error(out, "invalid number of keys: " + n, false);
+      String[] keys = new String[n];
+      for (int i = 0; i < keys.length; i++)
+        keys[i] = in.readUTF();
+
+      if (rank < 0 || rank >= Ranking.values().length)
+        return error(out, "invalid ranking: " + rank, true);
+      if (k < 1 || k > MAX_K)
+        return error(out, "invalid number of documents: " + k, true);
+      if (op == MATCH && n == 0)
+        return error(out, "no keys to match", true);
+      Ranking r = Ranking.values()[rank];
+
+      Vector hits;
+      try {
+        hits = (op == SEARCH) ? search(keys, k, r) : match(keys, k, r);
+      } catch (NotPossibleException e) {
+        // not found in this shard
+        hits = new Vector();
+      }
+      out.writeByte(OK);
+      writeHits(out, hits);
+    } else if (op == ADD) {
+      int len = in.readInt();
+      if (len < 0 || len > MAX_DOC_SIZE)
+        return error(out, "invalid length: " + len, false);
+      byte[] text = new byte[len];
+      in.readFully(text);
+      try {
+        engine.addDoc(new Doc(new String(text, StandardCharsets.UTF_8)));
+        out.writeByte(OK);
+        out.writeInt(0);
+      } catch (RuntimeException e) {
+        return error(out, String.valueOf(e.getMessage()), true);
+      }
+    } else {
+      throw new SocketException("SearchNode: unknown request " + op);
+    }
+    return true;
+  }
+
+  /**
+   * @effects writes the response <code>ERROR</code> with <code>msg</code> to
+   *          <code>out</code> and returns <code>more</code>
+   */
+  private static boolean error(DataOutputStream out, String msg, boolean more)
+      throws IOException {
+    out.writeByte(ERROR);
+    out.writeUTF(msg);
+    return more;
+  }
+
+  private Vector search(String[] keys, int k, Ranking r)
+      throws NotPossibleException {
+    return engine.search(keys, k, r);
+  }
+
+  private Vector match(String[] keys, int k, Ranking r)
+      throws NotPossibleException {
+    Session s = engine.openSession(false);
+    s.setRanking(r);
+    Query q = s.queryFirst(keys[0]);
+    for (int i = 1; i < keys.length; i++)
+      q = s.queryMore(keys[i]);
+
+    Vector ms = q.matches();
+    return new Vector(ms.subList(0, Math.min(k, ms.size())));
+  }
+
+  /**
+   * @effects writes the number of <code>DocCnt</code>s of <code>hits</code>
+   *          followed by each of them to <code>out</code>
+   */
+  static void writeHits(DataOutputStream out, Vector hits) throws IOException {
+    out.writeInt(hits.size());
+    DocCnt dc;
+    byte[] text;
+    for (int i = 0; i < hits.size(); i++) {
+      dc = (DocCnt) hits.get(i);
+      text = dc.getDoc().text().getBytes(StandardCharsets.UTF_8);
+      out.writeInt(dc.getCount());
+      out.writeDouble(dc.getScore());
+      out.writeInt(text.length);
+      out.write(text);
+    }
+  }
+
+  /**
+   * @effects reads a vector of <code>DocCnt</code>s written by
+   *          <code>writeHits</code> from <code>in</code>; if the number of
+   *          hits is negative or larger than <code>MAX_K</code>, or the length
+   *          of a text is negative or larger than <code>MAX_DOC_SIZE</code>,
+   *          throws <code>IOException</code>
+   */
+  static Vector readHits(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    if (n < 0 || n > MAX_K)
+      throw new IOException("SearchNode.readHits: invalid number of hits: " + n);
+    Vector hits = new Vector(n);
+    int cnt, len;
+    double score;
+    byte[] text;
+    for (int i = 0; i < n; i++) {
+      cnt = in.readInt();
+      score = in.readDouble();
+      len = in.readInt();
+      if (len < 0 || len > MAX_DOC_SIZE)
+        throw new IOException("SearchNode.readHits: invalid length: " + len);
+      text = new byte[len];
+      in.readFully(text);
+      hits.add(new DocCnt(new Doc(new String(text, StandardCharsets.UTF_8)),
+          cnt, score));
+    }
+    return hits;
+  }
+
+  /**
+   * Runs a node in its own process.
+   *
+   * @param args
+   *          the port to listen on, followed by the URLs of the documents of
+   *          the shard of the node
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: SearchNode <port> [url]...");
+      System.exit(1);
+    }
+
+    Engine e = new Engine();
+    for (int i = 1; i < args.length; i++)
+      e.addDocs(args[i]);
+
+    SearchNode node = new SearchNode(e, Integer.parseInt(args[0]));
+    node.start();
+    System.out.println("SearchNode: listening on port " + node.getPort());
+
+    // serve until the process is killed
+    Thread.currentThread().join();
+  }
+}
@@ -0,0 +1,369 @@
+package a3_1801040081.kengine;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import utils.DuplicateException;
+import utils.NotPossibleException;
+
+/**
+ * @overview An HTTP server in front of an <code>Engine</code>, which serves
+ *           concurrent clients with JSON responses:
+ *           <ul>
+ *           <li><code>GET /search?q=w1+w2&amp;k=10&amp;ranking=bm25</code>: the
+ *           best <code>k</code> (default 10, at most <code>MAX_K</code>)
+ *           documents that contain any of the keywords of <code>q</code>, as
+ *           for <code>Engine.search</code>,
+ *           <li><code>GET /doc/{title}</code>: the document whose title is
+ *           <code>title</code>,
+ *           <li><code>POST /ingest</code>: adds the HTML document of the
+ *           request body.
+ *           </ul>
+ *           An error is answered with its status and
+ *           <code>{"error": message}</code>.
+ *
+ *           Each request is handled by its own virtual thread if the Java
+ *           runtime supports them, else by a thread of a cached pool. The
+ *           responses are written by a <code>JsonWriter</code> straight to the
+ *           connection, in chunks.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+public class SearchServer {
+  /** the number of documents of a search if it is not specified */
+  public static final int DEFAULT_K = 10;
+
+  /** the largest number of documents of a search */
+  public static final int MAX_K = 1000;
+
+  /** the maximum size of an ingested document, in bytes */
+  public static final int MAX_DOC_SIZE = 1 << 20;
+
+  private final Engine engine;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /**
+   * Constructor method
+   *
+   * @param port
+   *          the port to listen on, or 0 for any free port
+   * @effects if the port cannot be bound throws
+   *          <code>NotPossibleException</code>, else initialises
+   *          <code>this</code> to serve <code>engine</code> on
+   *          <code>port</code> once it is started
+   */
+  public SearchServer(Engine engine, int port) throws NotPossibleException {
+    this.engine = engine;
+    try {
+      server = HttpServer.create(new InetSocketAddress(port), 0);
+    } catch (IOException e) {
+      throw new NotPossibleException("SearchServer: failed to listen on port "
+          + port + " due to " + e);
+    }
+
+    executor = newRequestExecutor();
+    server.setExecutor(executor);
+    server.createContext("/search", new Endpoint("GET") {
+      void serve(HttpExchange ex) throws IOException {
+        search(ex);
+      }
+    });
+    server.createContext("/doc/", new Endpoint("GET") {
+      void serve(HttpExchange ex) throws IOException {
+        doc(ex);
+      }
+    });
+    server.createContext("/ingest", new Endpoint("POST") {
+      void serve(HttpExchange ex) throws IOException {
+        ingest(ex);
+      }
+    });
+  }
+
+  /**
+   * @effects returns the port that <code>this</code> listens on
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects starts serving requests
+   */
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects stops accepting requests, waits at most <code>delay</code>
+   *          seconds for the requests in progress to finish, then stops
+   */
+  public void stop(int delay) {
+    server.stop(delay);
+    executor.shutdownNow();
+  }
+
+  /**
+   * @effects if the Java runtime supports virtual threads returns an executor
+   *          that runs each task on a new virtual thread, else returns a cached
+   *          pool of daemon threads
+   */
+  static ExecutorService newRequestExecutor() {
+    try {
+      // Java 21 and later; looked up so that this compiles for older runtimes
+      Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) m.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "kengine-http");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+  }
+
+  private void search(HttpExchange ex) throws IOException {
+    Hashtable<String, String> params = params(ex);
+    String q = params.get("q");
+    if (q == null || q.trim().isEmpty())
+      throw new HttpError(400, "missing parameter: q");
+    String[] keys = q.trim().split("\\s+");
+
+    int k = DEFAULT_K;
+    if (params.containsKey("k")) {
+      try {
+        k = Integer.parseInt(params.get("k"));
+      } catch (NumberFormatException e) {
+        k = 0;
+      }
+      if (k < 1 || k > MAX_K)
+        throw new HttpError(400, "invalid parameter: k=" + params.get("k"));
+    }
+
+    Ranking r = engine.getRanking();
+    if (params.containsKey("ranking")) {
+      r = null;
+      for (Ranking x : Ranking.values()) {
+        if (x.name().equalsIgnoreCase(params.get("ranking")))
+          r = x;
+      }
+      if (r == null)
+        throw new HttpError(400, "invalid parameter: ranking="
+            + params.get("ranking"));
+    }
+
+    Vector hits;
+    try {
+      hits = engine.search(keys, k, r);
+    } catch (NotPossibleException e) {
+      // none of the keywords is found
+      hits = new Vector();
+    }
+
+    JsonWriter w = respond(ex, 200);
+    w.beginObject();
+    w.name("q").beginArray();
+    for (int i = 0; i < keys.length; i++)
+      w.value(keys[i]);
+    w.endArray();
+    w.name("k").value(k);
+    w.name("ranking").value(r.name());
+    w.name("hits").beginArray();
+    DocCnt dc;
+    for (int i = 0; i < hits.size(); i++) {
+      dc = (DocCnt) hits.get(i);
+      w.beginObject();
+      w.name("title").value(dc.getDoc().title());
+      w.name("count").value(dc.getCount());
+      w.name("score").value(dc.getScore());
+      w.endObject();
+    }
+    w.endArray();
+    w.endObject();
+    w.flush();
+  }
+
+  private void doc(HttpExchange ex) throws IOException {
+    // the decoded path
+    String t = ex.getRequestURI().getPath().substring("/doc/".length());
+    if (t.isEmpty())
+      throw new HttpError(400, "missing title");
+
+    // throws NotPossibleException if not found
+    Doc d = engine.findDoc(t);
+
+    JsonWriter w = respond(ex, 200);
+    w.beginObject();
+    w.name("title").value(d.title());
+    w.name("text").value(d.text());
+    w.endObject();
+    w.flush();
+  }
+
+  private void ingest(HttpExchange ex) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    InputStream in = ex.getRequestBody();
+    byte[] buf = new byte[1 << 13];
+    int n;
+    while ((n = in.read(buf)) > 0) {
+      if (bytes.size() + n > MAX_DOC_SIZE)
+        throw new HttpError(413, "document is larger than " + MAX_DOC_SIZE
+            + " bytes");
+      bytes.write(buf, 0, n);
+    }
+
+    Doc d = new Doc(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    if (d.title() == null)
+      throw new HttpError(400, "document has no title");
+
+    try {
+      engine.addDoc(d);
+    } catch (DuplicateException e) {
+      throw new HttpError(409, e.getMessage());
+    }
+
+    JsonWriter w = respond(ex, 201);
+    w.beginObject();
+    w.name("title").value(d.title());
+    w.endObject();
+    w.flush();
+  }
+
+  /**
+   * @effects returns the decoded parameters of the query string of the
+   *          request of <code>ex</code>
+   */
+  private static Hashtable<String, String> params(HttpExchange ex)
+      throws UnsupportedEncodingException {
+    Hashtable<String, String> params = new Hashtable<>();
+    String q = ex.getRequestURI().getRawQuery();
+    if (q == null)
+      return params;
+
+    int eq;
+    for (String p : q.split("&")) {
+      eq = p.indexOf('=');
+      if (eq > 0)
+        params.put(URLDecoder.decode(p.substring(0, eq), "UTF-8"), URLDecoder
+            .decode(p.substring(eq + 1), "UTF-8"));
+    }
+    return params;
+  }
+
+  /**
+   * @effects sends the headers of a JSON response with status
+   *          <code>status</code> and a body of unknown length, and returns a
+   *          writer of the body
+   */
+  private static JsonWriter respond(HttpExchange ex, int status)
+      throws IOException {
+    ex.getResponseHeaders().set("Content-Type",
+        "application/json; charset=utf-8");
+    ex.sendResponseHeaders(status, 0);
+    return new JsonWriter(new BufferedWriter(new OutputStreamWriter(ex
+        .getResponseBody(), StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * @overview A handler of the requests of one method to a path. It answers
+   *           the errors of the requests, which are thrown before their
+   *           responses are started.
+   */
+  private static abstract class Endpoint implements HttpHandler {
+    private final String method;
+
+    Endpoint(String method) {
+      this.method = method;
+    }
+
+    public void handle(HttpExchange ex) throws IOException {
+      try {
+        if (!ex.getRequestMethod().equals(method)) {
+          ex.getResponseHeaders().set("Allow", method);
+          throw new HttpError(405, "method not allowed: "
+              + ex.getRequestMethod());
+        }
+        serve(ex);
+      } catch (HttpError e) {
+        error(ex, e.status, e.getMessage());
+      } catch (NotPossibleException e) {
+        error(ex, 404, e.getMessage());
+      } catch (RuntimeException e) {
+        error(ex, 500, String.valueOf(e));
+      } finally {
+        ex.close();
+      }
+    }
+
+    abstract void serve(HttpExchange ex) throws IOException;
+
+    private static void error(HttpExchange ex, int status, String msg)
+        throws IOException {
+      JsonWriter w = respond(ex, status);
+      w.beginObject();
+      w.name("error").value(msg);
+      w.endObject();
+      w.flush();
+    }
+  }
+
+  /**
+   * @overview An error of a request, answered with an HTTP status.
+   */
+  private static class HttpError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final int status;
+
+    HttpError(int status, String msg) {
+      super(msg);
+      this.status = status;
+    }
+  }
+
+  /**
+   * Runs a server in its own process.
+   *
+   * @param args
+   *          the port to listen on, followed by the URLs of the documents to
+   *          serve
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: SearchServer <port> [url]...");
+      System.exit(1);
+    }
+
+    Engine e = new Engine();
+    for (int i = 1; i < args.length; i++)
+      e.addDocs(args[i]);
+
+    SearchServer server = new SearchServer(e, Integer.parseInt(args[0]));
+    server.start();
+    System.out.println("SearchServer: listening on port " + server.getPort());
+  }
+}
@@ -0,0 +1,405 @@
+package a3_1801040081.kengine;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * @overview An immutable part of a word table index. A segment keeps its
+ *           keywords in a sorted array and the postings of all keywords in
+ *           one byte array, encoded as in a <code>PostingList</code>. The
+ *           postings of keyword <code>terms[i]</code> are stored in
+ *           <code>data[offsets[i]..offsets[i+1])</code>.
+ *           
+ *           The postings of each keyword are divided into blocks of 
+ *           <code>SKIP_INTERVAL</code> postings. A skip entry records the 
+ *           offset of each block but the first, together with the document id
+ *           of the posting before it, so that a cursor can skip whole blocks 
+ *           without decoding them when it advances to a document.
+ *
+ *           Segments are created by freezing the write buffer of a
+ *           <code>WordTable</code>, by merging other segments and by reading
+ *           a snapshot. Because a
+ *           segment is never modified, it can be read by many threads without
+ *           locking.
+ *
+ * @version 
+ * - 1.0 <br>
+ * - 1.1 keep the largest count of the postings of each keyword <br>
+ * - 1.2 skip entries
+ * @author agent
+ *
+ */
+class Segment {
+  static final int SKIP_INTERVAL = 64;
+
+  private final String[] terms; // sorted
+  private final int[] offsets;
+  private final int[] docFreqs;
+  private final int[] maxCounts;
+  private final byte[] data;
+  private final int numDocs;
+  // the skip entries of terms[i] are skipDocs/skipOffsets[skipStarts[i]..skipStarts[i+1])
+  private final int[] skipStarts;
+  private final int[] skipDocs;
+  private final int[] skipOffsets;
+
+  private Segment(String[] terms, int[] offsets, int[] docFreqs,
+      int[] maxCounts, byte[] data, int numDocs, int[] skipStarts,
+      int[] skipDocs, int[] skipOffsets) {
+    this.terms = terms;
+    this.offsets = offsets;
+    this.docFreqs = docFreqs;
+    this.maxCounts = maxCounts;
+    this.data = data;
+    this.numDocs = numDocs;
+    this.skipStarts = skipStarts;
+    this.skipDocs = skipDocs;
+    this.skipOffsets = skipOffsets;
+  }
+
+  /**
+   * A method to create a segment from the postings of a write buffer.
+   *
+   * @param buffer
+   *          maps keywords to their postings
+   * @param numDocs
+   *          the number of documents whose postings are in
+   *          <code>buffer</code>
+   * @param dead
+   *          the ids of deleted documents
+   * @requires <code>buffer</code> is not modified while this method runs
+   * @effects returns a new segment containing the postings of
+   *          <code>buffer</code> that are not of deleted documents
+   */
+  static Segment freeze(Map<String, PostingList> buffer, int numDocs,
+      Tombstones dead) {
+    String[] ts = buffer.keySet().toArray(new String[buffer.size()]);
+    Arrays.sort(ts);
+
+    Builder b = new Builder(ts.length);
+    for (int i = 0; i < ts.length; i++) {
+      b.add(ts[i], buffer.get(ts[i]).cursor(), dead);
+    }
+
+    return b.build(numDocs);
+  }
+
+  /**
+   * A method to merge segments into one.
+   *
+   * @param segs
+   *          the segments to merge
+   * @param dead
+   *          the ids of deleted documents
+   * @requires <code>segs</code> have disjoint document ids
+   * @effects returns a new segment containing the postings of all
+   *          <code>segs</code> that are not of deleted documents, i.e. the 
+   *          deleted documents are physically dropped
+   */
+  static Segment merge(Segment[] segs, Tombstones dead) {
+    int[] pos = new int[segs.length]; // the next term of each segment
+    int maxTerms = 0;
+    int numDocs = 0;
+    for (int i = 0; i < segs.length; i++) {
+      maxTerms += segs[i].terms.length;
+      numDocs += segs[i].numDocs;
+    }
+
+    Builder b = new Builder(maxTerms);
+    PostingCursor[] cs = new PostingCursor[segs.length];
+    while (true) {
+      // the smallest next term of all segments
+      String t = null;
+      for (int i = 0; i < segs.length; i++) {
+        if (pos[i] < segs[i].terms.length
+            && (t == null || segs[i].terms[pos[i]].compareTo(t) < 0)) {
+          t = segs[i].terms[pos[i]];
+        }
+      }
+
+      if (t == null)
+        break;
+
+      int n = 0;
+      for (int i = 0; i < segs.length; i++) {
+        if (pos[i] < segs[i].terms.length && segs[i].terms[pos[i]].equals(t)) {
+          cs[n++] = segs[i].cursor(pos[i]);
+          pos[i]++;
+        }
+      }
+
+      b.add(t, (n == 1) ? cs[0] : new MergedCursor(Arrays.copyOf(cs, n)), dead);
+    }
+
+    return b.build(numDocs);
+  }
+
+  /**
+   * A method to read a segment from a stream.
+   *
+   * @param in
+   *          a stream that contains a keyword count followed by one record
+   *          <code>&lt;keyword:UTF, docFreq:int, maxCount:int, length:int, 
+   *          postings&gt;</code>
+   *          per keyword in ascending order of keywords, as written by
+   *          <code>PostingList.writeTo</code>
+   * @param numDocs
+   *          the number of documents whose postings are in <code>in</code>
+   * @effects if <code>in</code> cannot be read throws
+   *          <code>IOException</code>, else returns a new segment containing
+   *          the postings read from <code>in</code>
+   */
+  static Segment read(DataInput in, int numDocs) throws IOException {
+    int n = in.readInt();
+    Builder b = new Builder(n);
+    String t;
+    int df, max, len;
+    for (int i = 0; i < n; i++) {
+      t = in.readUTF();
+      df = in.readInt();
+      max = in.readInt();
+      len = in.readInt();
+      b.add(t, df, max, in, len);
+    }
+
+    return b.build(numDocs);
+  }
+
+  /**
+   * @effects returns the number of documents whose postings are in
+   *          <code>this</code>
+   */
+  int numDocs() {
+    return numDocs;
+  }
+
+  /**
+   * @effects returns the number of keywords in <code>this</code>
+   */
+  int termCount() {
+    return terms.length;
+  }
+
+  /**
+   * @requires <code>0 &lt;= i &lt; termCount()</code>
+   * @effects returns the <code>i</code>th keyword of <code>this</code> in
+   *          ascending order
+   */
+  String term(int i) {
+    return terms[i];
+  }
+
+  /**
+   * @effects returns the number of documents in <code>this</code> that
+   *          contain <code>k</code>
+   */
+  int docFreq(String k) {
+    int i = Arrays.binarySearch(terms, k);
+    return (i >= 0) ? docFreqs[i] : 0;
+  }
+
+  /**
+   * @effects returns the largest count of the postings of <code>k</code> in 
+   *          <code>this</code>, or 0 if there are none
+   */
+  int maxCount(String k) {
+    int i = Arrays.binarySearch(terms, k);
+    return (i >= 0) ? maxCounts[i] : 0;
+  }
+
+  /**
+   * @effects if <code>k</code> is a keyword of <code>this</code> returns a
+   *          cursor over its postings, else returns <code>null</code>
+   */
+  PostingCursor cursor(String k) {
+    int i = Arrays.binarySearch(terms, k);
+    return (i >= 0) ? cursor(i) : null;
+  }
+
+  private PostingCursor cursor(int i) {
+    return new Cursor(i);
+  }
+
+  /**
+   * @overview A cursor over the postings of a keyword of a segment, which 
+   *           uses the skip entries of the keyword to advance.
+   */
+  private class Cursor extends PostingList.Cursor {
+    private int skip; // the first skip entry that has not been passed
+    private final int skipEnd;
+
+    Cursor(int i) {
+      super(data, offsets[i], offsets[i + 1]);
+      skip = skipStarts[i];
+      skipEnd = skipStarts[i + 1];
+    }
+
+    /**
+     * @effects gallops over the skip entries to the last block whose 
+     *          preceding posting is before <code>target</code>, jumps to that
+     *          block if it is ahead of <code>this</code> and then scans it 
+     */
+    @Override
+    public boolean advance(int target) {
+      if (docId() >= target)
+        return true;
+
+      if (skip < skipEnd && skipDocs[skip] < target) {
+        // skipDocs[lo] < target <= skipDocs[hi] (or hi = skipEnd)
+        int lo = skip;
+        int hi = lo + 1;
+        int step = 1;
+        while (hi < skipEnd && skipDocs[hi] < target) {
+          lo = hi;
+          step <<= 1;
+          hi = lo + step;
+        }
+        hi = Math.min(hi, skipEnd);
+        while (hi - lo > 1) {
+          int mid = (lo + hi) >>> 1;
+          if (skipDocs[mid] < target)
+            lo = mid;
+          else
+            hi = mid;
+        }
+
+        if (skipOffsets[lo] > offset())
+          seek(skipOffsets[lo], skipDocs[lo]);
+        skip = lo + 1;
+      }
+
+      return super.advance(target);
+    }
+  }
+
+  /**
+   * @overview Builds a segment one keyword at a time, in ascending order of
+   *           keywords.
+   */
+  private static class Builder {
+    private String[] terms;
+    private int[] offsets;
+    private int[] docFreqs;
+    private int[] maxCounts;
+    private byte[] data;
+    private int n; // number of terms
+    private int len; // number of bytes used in data
+    private int[] skipStarts;
+    private int[] skipDocs;
+    private int[] skipOffsets;
+    private int numSkips;
+
+    Builder(int maxTerms) {
+      terms = new String[maxTerms];
+      offsets = new int[maxTerms + 1];
+      docFreqs = new int[maxTerms];
+      maxCounts = new int[maxTerms];
+      data = new byte[64];
+      n = 0;
+      len = 0;
+      skipStarts = new int[maxTerms + 1];
+      skipDocs = new int[16];
+      skipOffsets = new int[16];
+      numSkips = 0;
+    }
+
+    /**
+     * @requires <code>t</code> is greater than the previous term
+     * @effects adds term <code>t</code> with the postings of <code>c</code>
+     *          whose document ids are not in <code>dead</code>
+     */
+    void add(String t, PostingCursor c, Tombstones dead) {
+      int lastDocId = -1;
+      int df = 0;
+      int maxCnt = 0;
+      int[] ps;
+      while (c.next()) {
+        if (dead.contains(c.docId()))
+          continue;
+
+        ps = c.positions();
+        int max = len + 5 + PostingList.maxPositionsSize(ps);
+        if (max > data.length)
+          data = Arrays.copyOf(data, Math.max(data.length * 2, max));
+        len = PostingList.writeVInt(data, len, c.docId() - lastDocId);
+        len = PostingList.writePositions(data, len, ps);
+        lastDocId = c.docId();
+        df++;
+        maxCnt = Math.max(maxCnt, ps.length);
+      }
+
+      if (df > 0) {
+        terms[n] = t;
+        docFreqs[n] = df;
+        maxCounts[n] = maxCnt;
+        addSkips();
+        n++;
+        offsets[n] = len;
+      }
+    }
+
+    /**
+     * @requires <code>t</code> is greater than the previous term
+     * @effects adds term <code>t</code> with <code>df</code> postings, whose 
+     *          largest count is <code>max</code>, that are encoded in the next 
+     *          <code>length</code> bytes of <code>in</code>
+     */
+    void add(String t, int df, int max, DataInput in, int length)
+        throws IOException {
+      if (df == 0) {
+        in.readFully(new byte[length]);
+        return;
+      }
+
+      if (len + length > data.length)
+        data = Arrays.copyOf(data, Math.max(data.length * 2, len + length));
+      in.readFully(data, len, length);
+      len += length;
+
+      terms[n] = t;
+      docFreqs[n] = df;
+      maxCounts[n] = max;
+      addSkips();
+      n++;
+      offsets[n] = len;
+    }
+
+    /**
+     * @requires the postings of term <code>n</code> are in 
+     *           <code>data[offsets[n]..len)</code>
+     * @effects adds the skip entries of term <code>n</code>
+     */
+    private void addSkips() {
+      PostingList.Cursor c = new PostingList.Cursor(data, offsets[n], len);
+      int i = 0; // the index of the next posting
+      int lastDocId = -1;
+      while (true) {
+        if (i > 0 && i % SKIP_INTERVAL == 0) {
+          if (numSkips == skipDocs.length) {
+            skipDocs = Arrays.copyOf(skipDocs, numSkips * 2);
+            skipOffsets = Arrays.copyOf(skipOffsets, numSkips * 2);
+          }
+          skipDocs[numSkips] = lastDocId;
+          skipOffsets[numSkips] = c.offset();
+          numSkips++;
+        }
+
+        if (!c.next())
+          break;
+        lastDocId = c.docId();
+        i++;
+      }
+      skipStarts[n + 1] = numSkips;
+    }
+
+    Segment build(int numDocs) {
+      return new Segment(Arrays.copyOf(terms, n), Arrays.copyOf(offsets, n + 1),
+          Arrays.copyOf(docFreqs, n), Arrays.copyOf(maxCounts, n),
+          Arrays.copyOf(data, len), numDocs, Arrays.copyOf(skipStarts, n + 1),
+          Arrays.copyOf(skipDocs, numSkips), Arrays.copyOf(skipOffsets,
+              numSkips));
+    }
+  }
+}
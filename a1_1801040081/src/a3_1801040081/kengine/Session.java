@@ -0,0 +1,298 @@
+package a3_1801040081.kengine;
+
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.concurrent.locks.Lock;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview A session of a user of a shared <code>Engine</code>. A session
+ *           owns the current query of its user, so that the queries of
+ *           different sessions do not interfere.
+ *
+ *           A <i>live</i> session also receives the documents that are added
+ *           to or removed from the engine while it is open: its current query
+ *           is updated to contain the new matching documents and no longer
+ *           contains the removed ones. The query of any other session stays
+ *           as it was computed.
+ *
+ *           Many sessions may query the engine at the same time. A session
+ *           may be used by multiple threads, but its queries are created one
+ *           at a time.
+ *
+ * @version 
+ * - 1.0 <br>
+ * - 1.1 queries that are empty in this engine, for <code>ShardedEngine</code> <br>
+ * - 1.2 fuzzy queries
+ * @author agent
+ *
+ */
+public class Session {
+  private final Engine engine;
+  private final boolean live;
+  private Query q; // guarded by this
+  private Ranking ranking; // guarded by this
+  // the stamp of the engine when q was created, guarded by this
+  private long stamp;
+
+  /**
+   * Constructor method
+   *
+   * @effects initialises <code>this</code> to be a session of
+   *          <code>engine</code> that has no query and ranks by
+   *          <code>r</code>
+   */
+  Session(Engine engine, boolean live, Ranking r) {
+    this.engine = engine;
+    this.live = live;
+    ranking = r;
+  }
+
+  /**
+   * @effects if <code>this</code> receives the documents added to or removed
+   *          from its engine returns <code>true</code>, else returns
+   *          <code>false</code>
+   */
+  public boolean isLive() {
+    return live;
+  }
+
+  /**
+   * @effects returns the current query of <code>this</code>, or
+   *          <code>null</code> if there is none
+   */
+  public synchronized Query query() {
+    return q;
+  }
+
+  /**
+   * A method to set how the matches of the queries that are created by
+   * <code>this</code> after this method are ranked.
+   *
+   * @effects if <code>r</code> is <code>null</code> throws
+   *          <code>NotPossibleException</code>, else makes new queries of
+   *          <code>this</code> rank their matches by <code>r</code>
+   */
+  public synchronized void setRanking(Ranking r) throws NotPossibleException {
+    if (r == null)
+      throw new NotPossibleException("Session.setRanking: ranking is null");
+
+    ranking = r;
+  }
+
+  /**
+   * @effects returns how the matches of new queries of <code>this</code> are
+   *          ranked
+   */
+  public synchronized Ranking getRanking() {
+    return ranking;
+  }
+
+  /**
+   * @effects as for <code>Engine.queryFirst</code>, but the query is the
+   *          current query of <code>this</code>
+   */
+  public Query queryFirst(String w) throws NotPossibleException {
+    Lock l = engine.readLock();
+    l.lock();
+    try {
+      synchronized (this) {
+        q = engine.first(w, ranking);
+        stamp = engine.stamp();
+        return q;
+      }
+    } finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * @effects if <code>this</code> has no current query throws
+   *          <code>NotPossibleException</code>, else as for
+   *          <code>Engine.queryMore</code> on the current query of
+   *          <code>this</code>
+   */
+  public Query queryMore(String w) throws NotPossibleException {
+    Lock l = engine.readLock();
+    l.lock();
+    try {
+      synchronized (this) {
+        if (q == null)
+          throw new NotPossibleException(
+              "Session.queryMore: no query in progress");
+
+        Query old = q;
+        q = engine.more(q, w, stamp == engine.stamp());
+        if (q != old)
+          stamp = engine.stamp();
+        return q;
+      }
+    } finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * @effects as for <code>Engine.queryPhrase</code>, but the query is the
+   *          current query of <code>this</code>
+   */
+  public Query queryPhrase(String p) throws NotPossibleException {
+    Lock l = engine.readLock();
+    l.lock();
+    try {
+      synchronized (this) {
+        q = engine.phrase(p, ranking);
+        stamp = engine.stamp();
+        return q;
+      }
+    } finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * @effects as for <code>Engine.queryNear</code>, but the query is the
+   *          current query of <code>this</code>
+   */
+  public Query queryNear(String[] ws, int distance)
+      throws NotPossibleException {
+    Lock l = engine.readLock();
+    l.lock();
+    try {
+      synchronized (this) {
+        q = engine.near(ws, distance, ranking);
+        stamp = engine.stamp();
+        return q;
+      }
+    } finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * @effects as for <code>Engine.queryBoolean</code>, but the query is the
+   *          current query of <code>this</code>
+   */
+  public Query queryBoolean(String s) throws NotPossibleException {
+    Lock l = engine.readLock();
+    l.lock();
+    try {
+      synchronized (this) {
+        q = engine.bool(s, ranking);
+        stamp = engine.stamp();
+        return q;
+      }
+    } finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * @effects as for <code>Engine.queryFuzzy</code>, but the query is the
+   *          current query of <code>this</code>
+   */
+  public Query queryFuzzy(String w, int maxEdits) throws NotPossibleException {
+    Lock l = engine.readLock();
+    l.lock();
+    try {
+      synchronized (this) {
+        q = engine.fuzzy(w, maxEdits, ranking);
+        stamp = engine.stamp();
+        return q;
+      }
+    } finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * @effects as for <code>Engine.search</code>, but ranks the documents by
+   *          the ranking of <code>this</code>
+   */
+  public Vector search(String[] keys, int k) throws NotPossibleException {
+    return engine.search(keys, k, getRanking());
+  }
+
+  /**
+   * A method to end this session.
+   *
+   * @modifies <code>this</code>
+   * @effects stops <code>this</code> from receiving the documents added to or
+   *          removed from its engine
+   */
+  public void close() {
+    engine.close(this);
+  }
+
+  /**
+   * @requires <code>w</code> is in canonical form
+   * @modifies <code>this</code>
+   * @effects makes a query for <code>w</code> the current query of 
+   *          <code>this</code>, even if it has no matches, and returns it
+   */
+  Query start(String w) {
+    Lock l = engine.readLock();
+    l.lock();
+    try {
+      synchronized (this) {
+        q = engine.newQuery(w, ranking);
+        stamp = engine.stamp();
+        return q;
+      }
+    } finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * @requires <code>this</code> has a current query made by 
+   *           <code>start</code>, of which <code>w</code> is not a keyword
+   * @modifies <code>this</code>
+   * @effects adds <code>w</code> to the current query of <code>this</code>, 
+   *          even if it has no matches, and returns it
+   */
+  Query narrow(String w) {
+    Lock l = engine.readLock();
+    l.lock();
+    try {
+      synchronized (this) {
+        q.narrow(w);
+        return q;
+      }
+    } finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects if <code>this</code> has no current query makes an empty query
+   *          the current query; returns the current query
+   */
+  synchronized Query emptyIfNone() {
+    if (q == null)
+      q = new Query();
+    return q;
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects adds <code>d</code>, whose keyword counts are <code>h</code>,
+   *          to the current query of <code>this</code> if it matches
+   */
+  synchronized void addDoc(Doc d, Hashtable h) {
+    if (q != null)
+      q.addDoc(d, h);
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects removes <code>d</code> from the current query of
+   *          <code>this</code>
+   */
+  synchronized void removeDoc(Doc d) {
+    if (q != null)
+      q.removeDoc(d);
+  }
+}
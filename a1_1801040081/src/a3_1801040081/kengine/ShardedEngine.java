@@ -0,0 +1,378 @@
+package a3_1801040081.kengine;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview An engine whose documents are partitioned across several
+ *           <code>Engine</code> shards, each with its own
+ *           <code>WordTable</code> and <code>TitleTable</code>. A document
+ *           belongs to the shard chosen by the hash of its canonical title,
+ *           so the documents with the same title are in the same shard.
+ *
+ *           A query is run on all the shards in parallel on a fork-join pool
+ *           (scatter), and the ranked matches of the shards are then merged
+ *           into one ranking by a k-way merge (gather).
+ *
+ *           The BM25 scores of the matches are computed from the statistics
+ *           of the shard of each document. Since the documents are spread
+ *           evenly by hashing, the statistics of the shards are close to
+ *           those of the whole collection.
+ *
+ *           Like <code>Engine</code>, a sharded engine has one current query.
+ *           Documents can be added by multiple threads at once.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+public class ShardedEngine {
+  // orders matches by descending score
+  private static final Comparator<Object[]> BY_SCORE = new Comparator<Object[]>() {
+    public int compare(Object[] a, Object[] b) {
+      return ((DocCnt) b[0]).compareTo(a[0]);
+    }
+  };
+
+  private final Engine[] shards;
+  private final ForkJoinPool pool;
+  private final Vector urls;
+
+  // the keywords of the current query, or null
+  private Vector<String> keys; // guarded by this
+
+  /**
+   * Constructor method
+   *
+   * @param n
+   *          the number of shards
+   * @effects if <code>n &lt; 1</code> or uninteresting words cannot be
+   *          retrieved from the persistent state throws
+   *          <code>NotPossibleException</code>, else initialises
+   *          <code>this</code> to have <code>n</code> empty shards, which are
+   *          queried by a pool of at most <code>n</code> threads
+   */
+  public ShardedEngine(int n) throws NotPossibleException {
+    this(n, Analyzer.STANDARD);
+  }
+
+  /**
+   * Constructor method
+   *
+   * @effects as for <code>ShardedEngine(n)</code>, except that the shards 
+   *          find the keys of words with <code>analyzer</code>
+   */
+  public ShardedEngine(int n, Analyzer analyzer) throws NotPossibleException {
+    if (n < 1)
+      throw new NotPossibleException(
+          "ShardedEngine: invalid number of shards: " + n);
+
+    shards = new Engine[n];
+    for (int i = 0; i < n; i++)
+      shards[i] = new Engine(analyzer);
+    pool = new ForkJoinPool(Math.min(n, Runtime.getRuntime()
+        .availableProcessors()));
+    urls = new Vector();
+  }
+
+  /**
+   * @effects returns the number of shards of <code>this</code>
+   */
+  public int shardCount() {
+    return shards.length;
+  }
+
+  /**
+   * @effects returns the shard of the documents whose title is <code>t</code>
+   */
+  private Engine shard(String t) {
+    int h = (t != null) ? Helpers.canon(t).hashCode() : 0;
+    return shards[Math.floorMod(h, shards.length)];
+  }
+
+  /**
+   * @effects as for <code>Engine.setRanking</code>, on all the shards
+   */
+  public synchronized void setRanking(Ranking r) throws NotPossibleException {
+    for (int i = 0; i < shards.length; i++)
+      shards[i].setRanking(r);
+  }
+
+  /**
+   * @effects returns how the matches of new queries of <code>this</code> are
+   *          ranked
+   */
+  public Ranking getRanking() {
+    return shards[0].getRanking();
+  }
+
+  /**
+   * @effects as for <code>Engine.compactDocs</code>, on all the shards, which 
+   *          share <code>store</code>
+   */
+  public synchronized void compactDocs(DocStore store) {
+    for (int i = 0; i < shards.length; i++)
+      shards[i].compactDocs(store);
+  }
+
+  /**
+   * A method to create a query for a keyword on all the shards.
+   *
+   * @effects if <code>w</code> is not a word, is uninteresting or is not
+   *          found in any documents then throws
+   *          <code>NotPossibleException</code>, else returns a
+   *          <code>Query</code> object containing the documents of all the
+   *          shards that contain <code>w</code>, in order of score
+   */
+  public synchronized Query queryFirst(String w) throws NotPossibleException {
+    String k = (w != null) ? shards[0].canon(w) : null;
+
+    if (k == null || !isFound(k))
+      throw new NotPossibleException(
+          "ShardedEngine.queryFirst: the specified word is either not found in any documents or uninteresting: "
+              + ((k != null) ? k : w));
+    w = k;
+
+    // also on the shards where w is not found, so that they add new matches
+    final String key = w;
+    scatter(new ShardOp() {
+      public void run(int i) {
+        shards[i].session().start(key);
+      }
+    });
+
+    keys = new Vector<>();
+    keys.add(w);
+    return gather();
+  }
+
+  /**
+   * A method to narrow the current query with another keyword on all the
+   * shards.
+   *
+   * @effects if there is no current query, <code>w</code> is not a word, is
+   *          uninteresting, is not found in any documents or is already a
+   *          keyword of the query then throws
+   *          <code>NotPossibleException</code>, else returns a
+   *          <code>Query</code> object containing the documents of all the
+   *          shards that contain all the keywords, in order of score
+   */
+  public synchronized Query queryMore(String w) throws NotPossibleException {
+    if (keys == null)
+      throw new NotPossibleException(
+          "ShardedEngine.queryMore: no query in progress");
+
+    String k = (w != null) ? shards[0].canon(w) : null;
+
+    if (k == null || !isFound(k))
+      throw new NotPossibleException(
+          "ShardedEngine.queryMore: the specified word is either not found in any documents or uninteresting: "
+              + ((k != null) ? k : w));
+    w = k;
+    if (keys.contains(w))
+      throw new NotPossibleException(
+          "ShardedEngine.queryMore: keyword already exists in query: " + w);
+
+    final String key = w;
+    scatter(new ShardOp() {
+      public void run(int i) {
+        shards[i].session().narrow(key);
+      }
+    });
+
+    keys.add(w);
+    return gather();
+  }
+
+  /**
+   * A method to find the best documents of all the shards for some keywords.
+   *
+   * @effects as for <code>Engine.search</code>; the best <code>k</code>
+   *          documents of each shard are found in parallel and merged
+   */
+  public Vector search(final String[] keys, final int k)
+      throws NotPossibleException {
+    final Vector[] parts = new Vector[shards.length];
+    final NotPossibleException[] errors = new NotPossibleException[1];
+    scatter(new ShardOp() {
+      public void run(int i) {
+        try {
+          parts[i] = shards[i].search(keys, k);
+        } catch (NotPossibleException e) {
+          // not found in this shard
+          errors[0] = e;
+        }
+      }
+    });
+
+    Vector r = merge(parts, k);
+    if (r.isEmpty() && errors[0] != null)
+      throw new NotPossibleException("ShardedEngine.search: none of the specified words is found in any documents or interesting: "
+          + Arrays.toString(keys));
+    return r;
+  }
+
+  /**
+   * A method to add a document to its shard.
+   *
+   * @effects as for <code>Engine.addDoc</code>, on the shard of
+   *          <code>d</code>; returns the current query of <code>this</code>
+   *          (if any), which contains <code>d</code> if it matches
+   */
+  public Query addDoc(Doc d) {
+    if (d == null)
+      throw new NullPointerException("Doc is null");
+
+    shard(d.title()).addDoc(d);
+
+    synchronized (this) {
+      return (keys != null) ? gather() : null;
+    }
+  }
+
+  /**
+   * A method to retrieve the documents of a web site and add them to their
+   * shards.
+   *
+   * @effects as for <code>Engine.addDocs</code>
+   */
+  public Query addDocs(String u) throws NotPossibleException {
+    Engine.claim(urls, u, "ShardedEngine.addDocs");
+
+    boolean added = false;
+    try {
+      Iterator docs = Comm.getDocs(u);
+      Doc d;
+      while (docs.hasNext()) {
+        d = (Doc) docs.next();
+        shard(d.title()).addDoc(d);
+        added = true;
+      }
+    } catch (RuntimeException e) {
+      if (!added)
+        urls.remove(u);
+      throw e;
+    }
+
+    synchronized (this) {
+      return (keys != null) ? gather() : new Query();
+    }
+  }
+
+  /**
+   * @effects as for <code>Engine.removeDoc</code>, on the shard of the
+   *          document whose title is <code>t</code>
+   */
+  public Doc removeDoc(String t) throws NotPossibleException {
+    return shard(t).removeDoc(t);
+  }
+
+  /**
+   * @effects as for <code>Engine.findDoc</code>, on the shard of the document
+   *          whose title is <code>t</code>
+   */
+  public Doc findDoc(String t) throws NotPossibleException {
+    return shard(t).findDoc(t);
+  }
+
+  /**
+   * @effects returns <code>true</code> if a document of a shard contains
+   *          <code>w</code>, else returns <code>false</code>
+   */
+  private boolean isFound(String w) {
+    for (int i = 0; i < shards.length; i++) {
+      if (shards[i].isFound(w))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @effects runs <code>op</code> for all the shards in parallel and waits
+   *          for them to finish
+   */
+  private void scatter(final ShardOp op) {
+    final RecursiveAction[] tasks = new RecursiveAction[shards.length];
+    for (int i = 0; i < shards.length; i++) {
+      final int shard = i;
+      tasks[i] = new RecursiveAction() {
+        protected void compute() {
+          op.run(shard);
+        }
+      };
+    }
+
+    pool.invoke(new RecursiveAction() {
+      protected void compute() {
+        invokeAll(tasks);
+      }
+    });
+  }
+
+  /**
+   * @requires there is a current query
+   * @effects returns a query whose matches are those of the current queries
+   *          of the shards, merged in order of score
+   */
+  private Query gather() {
+    // copy the matches, which are updated by documents added meanwhile
+    Vector[] parts = new Vector[shards.length];
+    Query q;
+    for (int i = 0; i < shards.length; i++) {
+      q = shards[i].session().query();
+      parts[i] = (q != null) ? (Vector) q.matches().clone() : null;
+    }
+
+    return new Query(keys.toArray(new String[keys.size()]), merge(parts,
+        Integer.MAX_VALUE));
+  }
+
+  /**
+   * @param parts
+   *          vectors of <code>DocCnt</code>s in descending order of score, or
+   *          <code>null</code>
+   * @effects returns a vector of the first <code>k</code> of the
+   *          <code>DocCnt</code>s of <code>parts</code> in descending order of
+   *          score
+   */
+  static Vector merge(Vector[] parts, int k) {
+    // the heads of the parts: <match, part, index of match>
+    PriorityQueue<Object[]> heads = new PriorityQueue<>(Math.max(1,
+        parts.length), BY_SCORE);
+    int n = 0;
+    for (int i = 0; i < parts.length; i++) {
+      if (parts[i] != null && !parts[i].isEmpty()) {
+        heads.add(new Object[] { parts[i].get(0), i, 0 });
+        n += parts[i].size();
+      }
+    }
+
+    Vector r = new Vector(Math.min(n, k));
+    Object[] h;
+    int p, j;
+    while (!heads.isEmpty() && r.size() < k) {
+      h = heads.poll();
+      r.add(((DocCnt) h[0]).clone());
+      p = (Integer) h[1];
+      j = (Integer) h[2] + 1;
+      if (j < parts[p].size())
+        heads.add(new Object[] { parts[p].get(j), p, j });
+    }
+
+    return r;
+  }
+
+  /**
+   * @overview An operation on one shard.
+   */
+  private static interface ShardOp {
+    void run(int shard);
+  }
+}
@@ -0,0 +1,215 @@
+package a3_1801040081.kengine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.SortedSet;
+import java.util.Vector;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview A snapshot of the state of an engine, stored in one binary file
+ *           that is written and read sequentially. The file contains, in order:
+ *           <ul>
+ *           <li>a header <code>&lt;MAGIC:int, VERSION:int&gt;</code>
+ *           <li>the registered URLs: an <code>int</code> count followed by
+ *           one <code>UTF</code> string per URL
+ *           <li>the documents: an <code>int</code> count followed by
+ *           <code>&lt;docLength:int, length:int, text&gt;</code> per document
+ *           in the order of their ids, where <code>docLength</code> is the
+ *           number of words of the document and <code>text</code> is UTF-8
+ *           <li>the postings of the word table, as read by
+ *           <code>Segment.read</code>
+ *           </ul>
+ *
+ *           Documents are renumbered densely in the order of their ids.
+ *           Restoring a snapshot does not tokenize the documents.
+ *
+ * @version 
+ * - 1.0 <br>
+ * - 1.1 the postings contain positions (file version 2) <br>
+ * - 1.2 the lengths of the documents (file version 3) <br>
+ * - 1.3 the largest count of the postings of each keyword (file version 4)
+ * @author agent
+ *
+ */
+class Snapshot {
+  private static final int MAGIC = 0x4B454E47; // "KENG"
+  // 2: positional postings, 3: lengths, 4: largest counts
+  private static final int VERSION = 4;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  // the restored state
+  final Vector urls;
+  final Doc[] docs;
+  final int[] lengths;
+  final Segment segment;
+
+  private Snapshot(Vector urls, Doc[] docs, int[] lengths, Segment segment) {
+    this.urls = urls;
+    this.docs = docs;
+    this.lengths = lengths;
+    this.segment = segment;
+  }
+
+  /**
+   * A method to write a snapshot of an engine.
+   *
+   * @param f
+   *          the file to write
+   * @param tt
+   *          the title table of the engine
+   * @param wt
+   *          the word table of the engine
+   * @param urls
+   *          the registered URLs of the engine
+   * @effects if <code>f</code> cannot be written throws
+   *          <code>NotPossibleException</code>, else writes the URLs, the
+   *          documents and the postings of the engine to <code>f</code>.
+   *          Documents that are indexed while <code>f</code> is written may
+   *          be left out.
+   */
+  static void write(Path f, TitleTable tt, WordTable wt, Vector urls)
+      throws NotPossibleException {
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+          f.toFile()), BUFFER_SIZE));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+
+      Object[] us = urls.toArray();
+      out.writeInt(us.length);
+      for (int i = 0; i < us.length; i++) {
+        out.writeUTF((String) us[i]);
+      }
+
+      // the published documents of wt, then the documents of tt that have no
+      // keywords
+      int maxId = wt.maxDocId();
+      int[] newIds = new int[maxId];
+      Vector<Doc> ds = new Vector<>();
+      Vector<Integer> lens = new Vector<>();
+      HashSet<String> titles = new HashSet<>();
+      Doc d;
+      for (int id = 0; id < maxId; id++) {
+        d = wt.doc(id);
+        if (d != null) {
+          newIds[id] = ds.size();
+          ds.add(d);
+          lens.add(wt.docLength(id));
+          titles.add(Helpers.canon(d.title()));
+        } else {
+          newIds[id] = -1;
+        }
+      }
+      for (Iterator<Doc> it = tt.docIterator(); it != null && it.hasNext();) {
+        d = it.next();
+        // a document with keywords that is not published yet is still being
+        // indexed
+        if (!titles.contains(Helpers.canon(d.title()))
+            && wt.keywords(d) == null) {
+          titles.add(Helpers.canon(d.title()));
+          ds.add(d);
+          lens.add(0);
+        }
+      }
+
+      out.writeInt(ds.size());
+      for (int i = 0; i < ds.size(); i++) {
+        byte[] text = ds.get(i).text().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(lens.get(i));
+        out.writeInt(text.length);
+        out.write(text);
+      }
+
+      // the postings, renumbered
+      SortedSet<String> ks = wt.keywords();
+      out.writeInt(ks.size());
+      for (String k : ks) {
+        PostingList postings = new PostingList();
+        for (PostingCursor c = wt.cursor(k); c != null && c.next();) {
+          // a document indexed after maxId was read is left out
+          if (c.docId() < maxId && newIds[c.docId()] >= 0)
+            postings.add(newIds[c.docId()], c.positions());
+        }
+        out.writeUTF(k);
+        postings.writeTo(out);
+      }
+
+      // close here so that a failure to flush is reported
+      out.close();
+    } catch (IOException e) {
+      throw new NotPossibleException("Snapshot.write: failed to write " + f
+          + " due to " + e);
+    } finally {
+      close(out);
+    }
+  }
+
+  /**
+   * A method to read a snapshot.
+   *
+   * @param f
+   *          a file written by <code>write</code>
+   * @effects if <code>f</code> cannot be read or is not a snapshot throws
+   *          <code>NotPossibleException</code>, else returns the state that is
+   *          stored in <code>f</code>
+   */
+  static Snapshot read(Path f) throws NotPossibleException {
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+          f.toFile()), BUFFER_SIZE));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        throw new NotPossibleException("Snapshot.read: not a snapshot file: "
+            + f);
+
+      int n = in.readInt();
+      Vector urls = new Vector(n);
+      for (int i = 0; i < n; i++) {
+        urls.add(in.readUTF());
+      }
+
+      n = in.readInt();
+      Doc[] docs = new Doc[n];
+      int[] lens = new int[n];
+      byte[] text;
+      for (int i = 0; i < n; i++) {
+        lens[i] = in.readInt();
+        text = new byte[in.readInt()];
+        in.readFully(text);
+        docs[i] = new Doc(new String(text, StandardCharsets.UTF_8));
+      }
+
+      Segment seg = Segment.read(in, n);
+
+      return new Snapshot(urls, docs, lens, seg);
+    } catch (IOException e) {
+      throw new NotPossibleException("Snapshot.read: failed to read " + f
+          + " due to " + e);
+    } finally {
+      close(in);
+    }
+  }
+
+  private static void close(Closeable c) {
+    if (c != null) {
+      try {
+        c.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package a3_1801040081.kengine;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+
+/**
+ * @overview A query that is registered with an engine, so that its listener
+ *           is notified of each new document that contains all its keywords.
+ *
+ *           A standing query is triggered by the keyword that was the rarest
+ *           when it was registered: only a document that contains that
+ *           keyword can match the query.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+public class StandingQuery {
+  private final String[] keys;
+  private final String trigger;
+  private final MatchListener listener;
+
+  /**
+   * Constructor method
+   *
+   * @requires <code>trigger</code> is one of <code>keys</code>
+   */
+  StandingQuery(String[] keys, String trigger, MatchListener listener) {
+    this.keys = keys;
+    this.trigger = trigger;
+    this.listener = listener;
+  }
+
+  /**
+   * @effects returns the keywords of <code>this</code>
+   */
+  public String[] keys() {
+    return keys.clone();
+  }
+
+  /**
+   * @effects returns the keyword that triggers <code>this</code>
+   */
+  String trigger() {
+    return trigger;
+  }
+
+  /**
+   * @param h
+   *          the keyword counts of a new document <code>d</code>
+   * @effects if <code>d</code> contains all the keywords of <code>this</code>
+   *          notifies the listener of <code>this</code>, ignoring a
+   *          <code>RuntimeException</code> thrown by the listener
+   */
+  void percolate(Doc d, Hashtable h) {
+    int sum = 0;
+    Integer c;
+    for (int i = 0; i < keys.length; i++) {
+      c = (Integer) h.get(keys[i]);
+      if (c == null)
+        return;
+      sum += c.intValue();
+    }
+
+    try {
+      listener.matched(this, new DocCnt(d, sum));
+    } catch (RuntimeException e) {
+      // d is already added: a failing listener must not fail its addDoc,
+      // nor keep the other listeners from being notified
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "StandingQuery: " + Arrays.toString(keys);
+  }
+}
@@ -0,0 +1,157 @@
+package a3_1801040081.kengine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import utils.NotPossibleException;
+
+/**
+ * @overview An immutable set of uninteresting words (a.k.a. non-keys), which
+ *           is kept as a sorted array of their canonical forms.
+ *
+ *           The set is loaded once per JVM from the file named by the
+ *           <code>nk.file</code> entry of <code>kengine.properties</code> and
+ *           is shared by all <code>WordTable</code>s.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+public class StopWords {
+  private static final String PROPS_FILE = "kengine.properties";
+  private static final String PROP_NK_FILE = "nk.file";
+  private static final String DEFAULT_NK_FILE = "nk.dat";
+
+  // the shared instance
+  private static StopWords instance;
+
+  // the rep of this class
+  private final String[] words; // sorted
+  private final int maxLength; // length of the longest word
+
+  /**
+   * Constructor method
+   *
+   * @requires <code>words</code> is sorted and contains no duplicates
+   */
+  private StopWords(String[] words) {
+    this.words = words;
+    int max = 0;
+    for (int i = 0; i < words.length; i++) {
+      if (words[i].length() > max)
+        max = words[i].length();
+    }
+    maxLength = max;
+  }
+
+  /**
+   * A method to obtain the shared set of uninteresting words.
+   *
+   * @effects if the set has not been loaded and the non-key file cannot be
+   *          read throws <code>NotPossibleException</code>, else returns the
+   *          shared <code>StopWords</code> object.
+   */
+  public static synchronized StopWords getInstance()
+      throws NotPossibleException {
+    if (instance == null) {
+      instance = load(nkFileName());
+    }
+
+    return instance;
+  }
+
+  /**
+   * @effects returns the value of <code>nk.file</code> in
+   *          <code>kengine.properties</code> or the default file name if
+   *          either is not available
+   */
+  private static String nkFileName() {
+    InputStream ins = StopWords.class.getResourceAsStream(PROPS_FILE);
+    if (ins != null) {
+      Properties props = new Properties();
+      try {
+        props.load(ins);
+        String nk = props.getProperty(PROP_NK_FILE);
+        if (nk != null && nk.trim().length() > 0)
+          return nk.trim();
+      } catch (IOException ex) {
+        // use the default
+      } finally {
+        try {
+          ins.close();
+        } catch (IOException ex) {
+          // ignore
+        }
+      }
+    }
+
+    return DEFAULT_NK_FILE;
+  }
+
+  /**
+   * @effects if the file <code>nkFile</code> (relative to this class) cannot
+   *          be read throws <code>NotPossibleException</code>, else returns a
+   *          <code>StopWords</code> containing the canonical forms of its
+   *          words, one per line.
+   */
+  private static StopWords load(String nkFile) throws NotPossibleException {
+    InputStream ins = StopWords.class.getResourceAsStream(nkFile);
+    if (ins == null)
+      throw new NotPossibleException(
+          "StopWords.load: Failed to read non-key file " + nkFile);
+
+    TreeSet sorted = new TreeSet();
+    BufferedReader bf = new BufferedReader(new InputStreamReader(ins));
+    try {
+      String nw;
+      while ((nw = bf.readLine()) != null) {
+        nw = nw.trim();
+        if (nw.length() > 0) {
+          // canonical form
+          sorted.add(Helpers.canon(nw));
+        }
+      }
+    } catch (IOException ex) {
+      throw new NotPossibleException(
+          "StopWords.load: Failed to read non-key file " + nkFile
+              + " due to " + ex);
+    } finally {
+      try {
+        bf.close();
+      } catch (IOException ex) {
+        // ignore
+      }
+    }
+
+    return new StopWords((String[]) sorted.toArray(new String[sorted.size()]));
+  }
+
+  /**
+   * @param w
+   *          a word in canonical form
+   * @effects if <code>w</code> is an uninteresting word returns
+   *          <code>true</code>, else returns <code>false</code>
+   */
+  public boolean contains(String w) {
+    return w.length() <= maxLength && Arrays.binarySearch(words, w) >= 0;
+  }
+
+  /**
+   * @effects returns the number of words in <code>this</code>
+   */
+  public int size() {
+    return words.length;
+  }
+
+  /**
+   * @effects returns the words of <code>this</code> in ascending order
+   */
+  public String[] words() {
+    return words.clone();
+  }
+}
@@ -1,19 +1,31 @@
 package a3_1801040081.kengine;
 
-import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import utils.DuplicateException;
 import utils.NotPossibleException;
 
 /**
  * @overview  Keeps track of documents with their titles.
+ *            A title table is safe for use by multiple threads.
+ *            
+ *            A title table may also be created on top of a read-only 
+ *            <code>MappedIndex</code>, whose documents are looked up by title
+ *            in the index. 
+ *            
+ *            Documents can be removed from a title table, including those of 
+ *            the base index.
  * 
  * @see "Program development in Java", pgs 320, 365
  * 
  * @version 
  * - 2.0: provides a full implementation <br>
- * - 5.0: improved to support generics 
+ * - 5.0: improved to support generics <br>
+ * - 5.1: use a concurrent map to support concurrent addition of documents <br>
+ * - 5.2: look up the documents of a base <code>MappedIndex</code> <br>
+ * - 5.3: remove documents
  * 
  * @author dmle
  *
@@ -21,14 +33,33 @@ import utils.NotPossibleException;
 public class TitleTable {
   
   // the rep of this class
-  private Hashtable<String,Doc> docs;
+  private ConcurrentHashMap<String,Doc> docs;
+
+  // the read-only index of the base documents (optional)
+  private MappedIndex base;
+
+  // the ids of the removed documents of base
+  private Set<Integer> removedBase;
   
   /**
    * Constructor method
    * @effects Initialises <code>this</code> to be an empty table.
    */
   public TitleTable() {
-    docs = new Hashtable<>();
+    this(null);
+  }
+
+  /**
+   * Constructor method
+   * @param base  a read-only index, or <code>null</code> 
+   * @effects Initialises <code>this</code> to be a table that contains the 
+   *          documents of <code>base</code>.
+   * @version 5.2
+   */
+  TitleTable(MappedIndex base) {
+    docs = new ConcurrentHashMap<>();
+    this.base = base;
+    removedBase = ConcurrentHashMap.newKeySet();
   }
   
   /**
@@ -39,18 +70,18 @@ public class TitleTable {
    * @effects   if a document with the same title already in <code>this</code> 
    *            throws <code>DuplicateException</code>, else adds <code>d</code> with 
    *            its title to <code>this</code>.
-   * @version 2.0           
+   * @version 
+   * - 2.0 <br>
+   * - 5.1 check and add the title atomically           
    */
   public void addDoc(Doc d) throws DuplicateException {
     String t = d.title();
     // canonical form
     t = Helpers.canon(t);
     
-    if (docs.containsKey(t)) {
+    if (baseId(t) >= 0 || docs.putIfAbsent(t, d) != null) {
       throw new DuplicateException("TitleTable.addDoc: a document with same title already exists: " + t);
     }
-    
-    docs.put(t, d);
   }
   
   /**
@@ -60,7 +91,9 @@ public class TitleTable {
    * @effects   if <code>t</code> is <code>null</code> or there is no document with this 
    *            title throws <code>NotPossibleException</code>, else returns the document
    *            with title <code>t</code>.
-   * @version 2.0 
+   * @version 
+   * - 2.0 <br>
+   * - 5.2 look up the base documents 
    */
   public Doc lookup(String t) throws NotPossibleException {
     Doc d = null;
@@ -69,6 +102,11 @@ public class TitleTable {
       String ct = Helpers.canon(t);
 
       d = docs.get(ct);
+      if (d == null) {
+        int id = baseId(ct);
+        if (id >= 0)
+          d = base.doc(id);
+      }
     }
     
     if (d == null)
@@ -77,6 +115,58 @@ public class TitleTable {
       return d;
   }
 
+  /**
+   * @effects if <code>d</code> is a document of <code>this</code> that has 
+   *          been added by <code>addDoc</code> returns <code>true</code>, else
+   *          returns <code>false</code>
+   * @version 5.3
+   */
+  boolean contains(Doc d) {
+    return docs.get(Helpers.canon(d.title())) == d;
+  }
+
+  /**
+   * A method to remove a document given its title.
+   * 
+   * @param t   the title of the document to remove 
+   * @effects   if <code>t</code> is <code>null</code> or there is no document with this 
+   *            title throws <code>NotPossibleException</code>, else removes the document
+   *            with title <code>t</code> from <code>this</code> and returns it.
+   * @version 5.3
+   */
+  public Doc remove(String t) throws NotPossibleException {
+    Doc d = null;
+    if (t != null) {
+      // canonical form
+      String ct = Helpers.canon(t);
+
+      d = docs.remove(ct);
+      if (d == null) {
+        int id = baseId(ct);
+        if (id >= 0 && removedBase.add(id))
+          d = base.doc(id);
+      }
+    }
+
+    if (d == null)
+      throw new NotPossibleException("TitleTable.remove: could not remove document with title " + t);
+    else 
+      return d;
+  }
+
+  /**
+   * @effects if a document of the base index that has not been removed has 
+   *          the canonical title <code>ct</code> returns its id, else 
+   *          returns -1
+   */
+  private int baseId(String ct) {
+    if (base == null)
+      return -1;
+
+    int id = base.docId(ct);
+    return (id >= 0 && !removedBase.contains(id)) ? id : -1;
+  }
+
   /**
    * @effects 
    *  if this is empty
@@ -89,8 +179,10 @@ public class TitleTable {
   public Iterator<Doc> docIterator() {
     if (isEmpty())
       return null;
-    else
+    else if (base == null)
       return docs.values().iterator();
+    else
+      return new BaseDocIterator(base, removedBase, docs.values().iterator());
   }
 
   /**
@@ -103,6 +195,45 @@ public class TitleTable {
    * @version 5.0 (for use in the assignment)
    */
   public boolean isEmpty() {
-    return docs.isEmpty();
+    return docs.isEmpty()
+        && (base == null || base.docCount() == removedBase.size());
+  }
+
+  /**
+   * @overview A generator that yields the documents of a base index followed 
+   *           by those of another generator, skipping the removed documents 
+   *           of the base index.
+   */
+  private static class BaseDocIterator implements Iterator<Doc> {
+    private final MappedIndex base;
+    private final Set<Integer> removed;
+    private final Iterator<Doc> rest;
+    private int id;
+
+    BaseDocIterator(MappedIndex base, Set<Integer> removed, Iterator<Doc> rest) {
+      this.base = base;
+      this.removed = removed;
+      this.rest = rest;
+      id = 0;
+      skipRemoved();
+    }
+
+    private void skipRemoved() {
+      while (id < base.docCount() && removed.contains(id))
+        id++;
+    }
+
+    public boolean hasNext() {
+      return id < base.docCount() || rest.hasNext();
+    }
+
+    public Doc next() {
+      if (id < base.docCount()) {
+        Doc d = base.doc(id++);
+        skipRemoved();
+        return d;
+      } else
+        return rest.next();
+    }
   }
 }
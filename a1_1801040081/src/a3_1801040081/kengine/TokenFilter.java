@@ -0,0 +1,20 @@
+package a3_1801040081.kengine;
+
+/**
+ * @overview A step of an <code>Analyzer</code>, which changes a word towards 
+ *           its canonical form or drops it.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+public interface TokenFilter {
+  /**
+   * @requires <code>w</code> is not <code>null</code>
+   * @modifies <code>w</code>
+   * @effects if the word <code>w</code> is dropped returns 
+   *          <code>false</code>, else changes <code>w</code> to its filtered 
+   *          form and returns <code>true</code>
+   */
+  boolean filter(StringBuilder w);
+}
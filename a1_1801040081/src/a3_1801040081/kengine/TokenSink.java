@@ -0,0 +1,18 @@
+package a3_1801040081.kengine;
+
+/**
+ * @overview A receiver of the words of a document from an
+ *           <code>HtmlTokenizer</code>.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+interface TokenSink {
+  /**
+   * @effects handles the next word of a document, which is
+   *          <code>buf[off..off+len-1]</code>; <code>buf</code> is reused for
+   *          the next words, so the word must be copied to be kept
+   */
+  void token(char[] buf, int off, int len);
+}
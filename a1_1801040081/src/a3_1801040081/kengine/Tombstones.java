@@ -0,0 +1,72 @@
+package a3_1801040081.kengine;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @overview A growable bit set of the ids of deleted documents. Ids are added
+ *           but never removed.
+ *
+ *           A tombstone set is safe for use by multiple threads. Additions
+ *           are serialised, while look-ups take no locks.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+class Tombstones {
+  private volatile AtomicLongArray bits;
+  private int size; // guarded by this
+
+  /**
+   * Constructor method
+   *
+   * @effects initialises <code>this</code> to be empty
+   */
+  Tombstones() {
+    bits = new AtomicLongArray(16);
+    size = 0;
+  }
+
+  /**
+   * @requires <code>id &gt;= 0</code>
+   * @modifies <code>this</code>
+   * @effects if <code>id</code> is not in <code>this</code> adds it and 
+   *          returns <code>true</code>, else returns <code>false</code>
+   */
+  synchronized boolean add(int id) {
+    int w = id >>> 6;
+    if (w >= bits.length()) {
+      AtomicLongArray nbits = new AtomicLongArray(Math.max(bits.length() * 2,
+          w + 1));
+      for (int i = 0; i < bits.length(); i++) {
+        nbits.set(i, bits.get(i));
+      }
+      bits = nbits;
+    }
+
+    long old = bits.get(w);
+    if ((old & (1L << id)) != 0)
+      return false;
+
+    bits.set(w, old | (1L << id));
+    size++;
+    return true;
+  }
+
+  /**
+   * @effects if <code>id</code> is in <code>this</code> returns
+   *          <code>true</code>, else returns <code>false</code>
+   */
+  boolean contains(int id) {
+    AtomicLongArray b = bits;
+    int w = id >>> 6;
+    return w < b.length() && (b.get(w) & (1L << id)) != 0;
+  }
+
+  /**
+   * @effects returns the number of ids in <code>this</code>
+   */
+  synchronized int size() {
+    return size;
+  }
+}
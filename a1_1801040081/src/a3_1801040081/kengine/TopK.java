@@ -0,0 +1,159 @@
+package a3_1801040081.kengine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Vector;
+
+/**
+ * @overview Finds the <code>k</code> documents of a <code>WordTable</code>
+ *           with the highest scores for a set of keywords, where the score of
+ *           a document is the sum of the scores of the keywords that it
+ *           contains.
+ *
+ *           The search uses the MaxScore algorithm. The score of each keyword
+ *           in any document is bounded by a maximum score that is computed
+ *           from the largest count of its postings. The best <code>k</code>
+ *           documents found so far are kept in a bounded min-heap, whose
+ *           smallest score is the threshold that a document must beat. The
+ *           keywords whose maximum scores sum up to at most the threshold are
+ *           <i>non-essential</i>: a document that contains only those cannot
+ *           enter the heap, so candidate documents are only taken from the
+ *           postings of the other keywords, and the postings of the
+ *           non-essential keywords are only read for those candidates (and
+ *           not at all once the candidate can no longer beat the threshold).
+ *           No document is scored or sorted unless it may be in the result.
+ *
+ * @version 1.0
+ * @author agent
+ *
+ */
+class TopK {
+  // orders the matches by ascending score
+  private static final Comparator<DocCnt> ASC = new Comparator<DocCnt>() {
+    public int compare(DocCnt a, DocCnt b) {
+      return a.compareTo(b);
+    }
+  };
+
+  private TopK() {
+  }
+
+  /**
+   * A method to search for the best documents.
+   *
+   * @param wt
+   *          the word table to search
+   * @param keys
+   *          distinct keywords in canonical form
+   * @param k
+   *          the largest number of documents to return
+   * @param r
+   *          how to score the documents
+   * @requires <code>k &gt; 0</code>
+   * @effects returns a vector of at most <code>k</code> <code>DocCnt</code>s
+   *          of the published documents of <code>wt</code> that contain any of
+   *          <code>keys</code>, in descending order of score, such that no
+   *          other such document has a higher score. The count of a
+   *          <code>DocCnt</code> is the sum of the numbers of occurrences of
+   *          <code>keys</code> in its document.
+   */
+  static Vector search(WordTable wt, String[] keys, int k, Ranking r) {
+    BM25 bm25 = (r == Ranking.BM25) ? new BM25(wt) : null;
+
+    // the cursors of the keywords, in ascending order of maximum score
+    int n = 0;
+    PostingCursor[] cs = new PostingCursor[keys.length];
+    double[] idfs = new double[keys.length];
+    double[] maxScores = new double[keys.length];
+    Integer[] order = new Integer[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      PostingCursor c = wt.cursor(keys[i]);
+      if (c != null && c.next()) {
+        cs[n] = c;
+        idfs[n] = (bm25 != null) ? bm25.idf(keys[i]) : 0;
+        maxScores[n] = (bm25 != null) ? bm25.maxScore(idfs[n],
+            wt.maxCount(keys[i])) : wt.maxCount(keys[i]);
+        order[n] = n;
+        n++;
+      }
+    }
+
+    final double[] ms = maxScores;
+    Arrays.sort(order, 0, n, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return Double.compare(ms[a], ms[b]);
+      }
+    });
+    PostingCursor[] terms = new PostingCursor[n];
+    double[] termIdfs = new double[n];
+    double[] bounds = new double[n]; // bounds[i] = sum of maxScores[0..i]
+    for (int i = 0; i < n; i++) {
+      terms[i] = cs[order[i]];
+      termIdfs[i] = idfs[order[i]];
+      bounds[i] = maxScores[order[i]] + ((i > 0) ? bounds[i - 1] : 0);
+    }
+
+    boolean[] live = new boolean[n];
+    Arrays.fill(live, true);
+    // k may be far more than the documents, or Integer.MAX_VALUE
+    PriorityQueue<DocCnt> heap = new PriorityQueue<>(
+        Math.min(k, wt.numDocs()) + 1, ASC);
+    double threshold = -1;
+    int essential = 0; // terms[essential..n) are the essential terms
+    while (true) {
+      // the next candidate is the smallest document of the essential terms
+      int docId = Integer.MAX_VALUE;
+      for (int i = essential; i < n; i++) {
+        if (live[i] && terms[i].docId() < docId)
+          docId = terms[i].docId();
+      }
+      if (docId == Integer.MAX_VALUE)
+        break;
+
+      int len = (bm25 != null) ? wt.docLength(docId) : 0;
+      int cnt = 0;
+      double score = 0;
+      for (int i = essential; i < n; i++) {
+        if (live[i] && terms[i].docId() == docId) {
+          cnt += terms[i].count();
+          score += (bm25 != null) ? bm25.score(termIdfs[i], terms[i].count(),
+              len) : terms[i].count();
+          live[i] = terms[i].next();
+        }
+      }
+
+      // the non-essential terms, while the candidate may still beat the
+      // threshold
+      for (int i = essential - 1; i >= 0 && score + bounds[i] > threshold; i--) {
+        if (live[i]) {
+          live[i] = terms[i].advance(docId);
+          if (live[i] && terms[i].docId() == docId) {
+            cnt += terms[i].count();
+            score += (bm25 != null) ? bm25.score(termIdfs[i],
+                terms[i].count(), len) : terms[i].count();
+          }
+        }
+      }
+
+      if (score > threshold) {
+        Doc d = wt.doc(docId);
+        if (d != null) {
+          heap.add(new DocCnt(d, cnt, score));
+          if (heap.size() > k)
+            heap.poll();
+          if (heap.size() == k) {
+            threshold = heap.peek().getScore();
+            while (essential < n && bounds[essential] <= threshold)
+              essential++;
+          }
+        }
+      }
+    }
+
+    Vector result = new Vector(heap);
+    Collections.sort(result, Collections.reverseOrder(ASC));
+    return result;
+  }
+}
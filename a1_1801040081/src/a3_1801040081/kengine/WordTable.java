@@ -1,79 +1,232 @@
 package a3_1801040081.kengine;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import utils.NotPossibleException;
 
 
 /**
  * @overview Keeps track of both interesting and uninteresting words.
- *           Uninteresting words are mapped to </code>null</code>, while each
- *           interesting word is mapped to a <code>Vector</code> of
- *           <code>DocCnt</code> objects, each of which is a pair of document
- *           and the number of occurrences of the keyword in that document. The
- *           uninteresting words are obtained from a private file.
+ *           Each interesting word is mapped to a sequence of postings, each 
+ *           of which is a document id, the number of occurrences of the 
+ *           keyword in that document and the word positions of those 
+ *           occurrences. Each document is
+ *           assigned a dense integer id, in the order that it is added. The
+ *           uninteresting words are kept in a separate <code>StopWords</code> 
+ *           set that is shared by all word tables.
+ *           
+ *           The postings are kept in a segmented index. New postings are added
+ *           to a write buffer that maps each keyword to a 
+ *           <code>PostingList</code>. When the buffer holds 
+ *           <code>bufferSize</code> documents it is replaced by an empty one 
+ *           and frozen into an immutable, sorted <code>Segment</code> on a 
+ *           background thread. Segments are merged in the background
+ *           using a tiered policy: once <code>mergeFactor</code> segments of 
+ *           the same size tier exist they are merged into one segment of the 
+ *           next tier. Look-ups search the write buffer, the buffers that are 
+ *           being frozen and all live segments.
+ *           
+ *           Documents can be removed. The id of a removed document is recorded
+ *           in a tombstone set and the document is no longer returned by look-ups. 
+ *           Its postings are physically dropped when the segments that hold 
+ *           them are merged or compacted.
+ *           
+ *           The length in words of each document and the total length of all
+ *           documents are recorded when the document is added, so that the 
+ *           documents can be ranked by relevance without another pass over 
+ *           them.
+ *           
+ *           A word table may also be opened on top of a read-only 
+ *           <code>MappedIndex</code>, whose documents keep their ids 
+ *           <code>0..base.docCount()-1</code> and whose postings are searched 
+ *           together with the segments.
+ *           
+ *           A word table is safe for use by multiple threads: documents can 
+ *           be added concurrently and each keyword of the write buffer has its 
+ *           own lock. Look-ups take no locks. A new document becomes visible 
+ *           to lookups all at once, when it is published after all of its 
+ *           postings have been added. 
  * 
  * @see "Program development in Java", pgs 320, 330, 365
- * @version 3.0 implement the full version
+ * @version 
+ * - 3.0 implement the full version <br>
+ * - 4.0 store postings as compressed <code>PostingList</code>s of document ids <br>
+ * - 4.1 keep uninteresting words in the shared <code>StopWords</code> set <br>
+ * - 4.2 support concurrent addition of documents <br>
+ * - 4.3 keep postings in a write buffer and immutable segments <br>
+ * - 4.4 search a disk-resident <code>MappedIndex</code> as the base of the index <br>
+ * - 4.5 load documents and postings restored from a snapshot <br>
+ * - 4.6 remove documents using tombstones <br>
+ * - 4.7 store the positions of keywords in the postings <br>
+ * - 4.8 record the lengths of the documents <br>
+ * - 4.9 keep the largest count of the postings of each keyword <br>
+ * - 5.0 look up the id of a published document <br>
+ * - 5.1 count the words of a document with an <code>HtmlTokenizer</code> <br>
+ * - 5.2 find the canonical forms of words with an <code>Analyzer</code> <br>
+ * - 5.3 find the keywords that are similar to a word with a <code>FuzzyIndex</code>
  * @author dmle
  * 
  */
 public class WordTable {
+  static final int DEFAULT_BUFFER_SIZE = 4096;
+  static final int DEFAULT_MERGE_FACTOR = 4;
+
+  // the thread that freezes the write buffers and merges the segments of all 
+  // word tables
+  private static final ExecutorService MERGER = Executors
+      .newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "WordTable-merger");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
   // the rep of this class
-  private Hashtable table;
+  private volatile State state;
+  private final Object stateLock = new Object();
+  // held shared while postings are added to the write buffer and 
+  // exclusively while the write buffer is replaced
+  private final ReentrantReadWriteLock bufferLock = new ReentrantReadWriteLock();
+  // whether a merge task is scheduled, guarded by stateLock
+  private boolean merging;
+
+  private final int bufferSize;
+  private final int mergeFactor;
+
+  // the read-only index of documents 0..baseDocs-1 (optional)
+  private final MappedIndex base;
+  private final int baseDocs;
 
-  private static final String NK_FILE = "nk.dat";
+  // maps the id of each published document to the document
+  private volatile AtomicReferenceArray<Doc> docs;
+  // maps the id of each document to its length in words, grown with docs
+  private volatile AtomicIntegerArray lengths;
+  // the total length of the documents that have not been removed
+  private final AtomicLong totalLength = new AtomicLong();
+  // the next document id to assign, guarded by docLock
+  private int nextId;
+  private final Object docLock = new Object();
+
+  // the ids of the published documents by their canonical titles
+  private final ConcurrentHashMap<String, Integer> titleIds =
+      new ConcurrentHashMap<>();
+  // the ids of removed documents
+  private final Tombstones deleted = new Tombstones();
+
+  // the uninteresting words
+  private StopWords nonkeys;
+
+  // finds the canonical forms of the words of documents and queries
+  private final Analyzer analyzer;
+
+  // the keywords by their deletions, which is built by the first call of
+  // similar and then kept up to date by index
+  private final FuzzyIndex fuzzy = new FuzzyIndex();
+  // whether new keywords are added to fuzzy, which is set before the 
+  // keywords are loaded into it
+  private volatile boolean fuzzyForwarding;
+  // whether fuzzy holds all the keywords, which is set after they are loaded
+  private volatile boolean fuzzyBuilt;
 
   /**
    * Constructor method
    * 
-   * @effects If the file cannot be read throws
-   *          <code>NotPossibleException</code>, else initialises the table to
-   *          contain all the words in the file as uninteresting words.
-   * @version 3.0 add cannonical form to uninteresting words
+   * @effects If the uninteresting words cannot be read throws
+   *          <code>NotPossibleException</code>, else initialises 
+   *          <code>this</code> to be an empty table that uses them.
+   * @version 
+   * - 3.0 add cannonical form to uninteresting words <br>
+   * - 4.1 use the shared <code>StopWords</code> set 
    */
   public WordTable() throws NotPossibleException {
-    table = new Hashtable();
+    this(DEFAULT_BUFFER_SIZE, DEFAULT_MERGE_FACTOR);
+  }
 
-    // read the NK file and store keywords to this table
-    // assumes file is stored in the same directory as this class
-    BufferedReader bf = new BufferedReader(new InputStreamReader(this
-        .getClass().getResourceAsStream(NK_FILE)));
+  /**
+   * Constructor method
+   * 
+   * @param bufferSize
+   *          the number of documents after which the write buffer is frozen
+   * @param mergeFactor
+   *          the number of segments of the same tier that are merged together
+   * @effects If <code>bufferSize &lt; 1</code> or 
+   *          <code>mergeFactor &lt; 2</code> or the uninteresting words cannot 
+   *          be read throws <code>NotPossibleException</code>, else 
+   *          initialises <code>this</code> to be an empty table that uses them.
+   * @version 4.3 
+   */
+  public WordTable(int bufferSize, int mergeFactor) throws NotPossibleException {
+    this(null, bufferSize, mergeFactor);
+  }
 
-    try {
-      if (!bf.ready())
-        throw new NotPossibleException(
-            "WordTable.init(): Failed to read non-key file " + NK_FILE);
-    } catch (IOException ex) {
-      throw new NotPossibleException(
-          "WordTable.init(): Failed to read non-key file " + NK_FILE
-              + "due to " + ex);
-    }
-
-    String nw;
-    boolean eof = false;
-    while (!eof) {
-      try {
-        nw = bf.readLine();
-        if (nw != null) {
-          nw = nw.trim();
-          // canonical form 
-          nw = Helpers.canon(nw);
-          
-          table.put(nw, null + "");
-        } else {
-          eof = true;
-        }
-      } catch (IOException ex) {
-        // failed to read a line, ignore and continue
-      }
-    }
+  /**
+   * Constructor method
+   * 
+   * @param base
+   *          a read-only index, or <code>null</code>
+   * @param bufferSize
+   *          the number of documents after which the write buffer is frozen
+   * @param mergeFactor
+   *          the number of segments of the same tier that are merged together
+   * @effects If <code>bufferSize &lt; 1</code> or 
+   *          <code>mergeFactor &lt; 2</code> or the uninteresting words cannot 
+   *          be read throws <code>NotPossibleException</code>, else 
+   *          initialises <code>this</code> to be a table that contains the 
+   *          documents and postings of <code>base</code>.
+   * @version 4.4 
+   */
+  WordTable(MappedIndex base, int bufferSize, int mergeFactor) throws NotPossibleException {
+    this(base, bufferSize, mergeFactor, Analyzer.STANDARD);
+  }
+
+  /**
+   * Constructor method
+   * 
+   * @param analyzer
+   *          the analyzer of the words of documents and queries, which must 
+   *          be the one that built <code>base</code>
+   * @effects as for <code>WordTable(base, bufferSize, mergeFactor)</code>, 
+   *          and if <code>analyzer</code> is <code>null</code> throws 
+   *          <code>NotPossibleException</code>
+   * @version 5.2 
+   */
+  WordTable(MappedIndex base, int bufferSize, int mergeFactor, Analyzer analyzer) 
+      throws NotPossibleException {
+    if (analyzer == null)
+      throw new NotPossibleException("WordTable.init: analyzer is null");
+    if (bufferSize < 1 || mergeFactor < 2)
+      throw new NotPossibleException("WordTable.init: invalid buffer size "
+          + bufferSize + " or merge factor " + mergeFactor);
+
+    this.bufferSize = bufferSize;
+    this.mergeFactor = mergeFactor;
+    state = new State(new Buffer(), new Buffer[0], new Segment[0]);
+    merging = false;
+    this.base = base;
+    baseDocs = (base != null) ? base.docCount() : 0;
+    docs = new AtomicReferenceArray<>(16);
+    lengths = new AtomicIntegerArray(16);
+    if (base != null)
+      totalLength.set(base.totalLength());
+    nextId = baseDocs;
+    nonkeys = StopWords.getInstance();
+    this.analyzer = analyzer;
   }
 
   /**
@@ -88,49 +241,481 @@ public class WordTable {
    *          mapping each interesting word in <code>d</code> to its number of
    *          occurrences.
    * 
-   * @version 3.0
+   * @version 
+   * - 3.0 <br>
+   * - 4.0 assign the next document id to <code>d</code> and append its postings 
+   *   to the <code>PostingList</code>s of its keywords <br>
+   * - 4.2 implemented by <code>keywords</code>, <code>index</code> and 
+   *   <code>publish</code>
    */
   public Hashtable addDoc(Doc d) {
-    Hashtable kmap = new Hashtable();
+    KeywordMap kmap = keywords(d);
+
+    if (kmap != null) {
+      publish(index(kmap), d);
+    }
+    
+    return kmap;
+  }
+
+  /**
+   * A method to count the interesting words of a document.
+   * 
+   * @param d
+   *          a <code>Doc</code> object representing a document
+   * @requires <code>d</code> is not <code>null</code>
+   * @effects if <code>d</code> contains interesting words returns a table
+   *          mapping each of them to its number of occurrences in 
+   *          <code>d</code> and its positions, else returns <code>null</code>.
+   * @version 
+   * - 4.2 <br>
+   * - 4.7 record the positions of the words <br>
+   * - 5.1 count the words as they are tokenized, without creating them all <br>
+   * - 5.2 the canonical forms are found by the analyzer of <code>this</code>
+   */
+  KeywordMap keywords(Doc d) {
+    Counter c = new Counter();
+    d.tokens(c);
+    c.kmap.setLength(c.pos);
+
+    return c.kmap.isEmpty() ? null : c.kmap;
+  }
+
+  /**
+   * @overview A receiver of the words of a document that counts its 
+   *           interesting words.
+   */
+  private class Counter implements TokenSink {
+    final KeywordMap kmap = new KeywordMap();
+    int pos; // position of the next word
+
+    public void token(char[] buf, int off, int len) {
+      // create canonical form of the word
+      String w = analyzer.analyze(buf, off, len);
 
-    Iterator words = d.words();
-    String w;
-    Integer wfreq; // count of number of occurrences of w in d
-    while (words.hasNext()) {
-      w = (String) words.next();
-      
-      // create canonical form of w
-      w = Helpers.canon(w);
-      
       if (isInteresting(w)) {
-        wfreq = (Integer) kmap.get(w);
-        if (wfreq == null) {
-          wfreq = new Integer(1);
-        } else {
-          wfreq = new Integer(wfreq.intValue() + 1);
+        kmap.add(w, pos);
+      }
+      pos++;
+    }
+  }
+
+  /**
+   * A method to add the postings of a new document, without making the 
+   * document visible to lookups.
+   * 
+   * @param kmap
+   *          the result of <code>keywords(d)</code> for some document 
+   *          <code>d</code>
+   * @requires <code>kmap</code> is not <code>null</code>
+   * @modifies <code>this</code>
+   * @effects assigns the next document id to the document, records its 
+   *          length and adds a posting of it to the <code>PostingList</code> 
+   *          of each keyword in <code>kmap</code>; returns the id.
+   * @version 
+   * - 4.2 <br>
+   * - 4.7 add the positions of the keywords <br>
+   * - 4.8 record the length of the document <br>
+   * - 5.3 add the new keywords to the fuzzy index
+   */
+  int index(KeywordMap kmap) {
+    int docId;
+    synchronized (docLock) {
+      docId = nextId++;
+      if (docId - baseDocs >= docs.length()) {
+        AtomicReferenceArray<Doc> ndocs = new AtomicReferenceArray<>(docs.length() * 2);
+        AtomicIntegerArray nlengths = new AtomicIntegerArray(docs.length() * 2);
+        for (int i = 0; i < docs.length(); i++) {
+          ndocs.set(i, docs.get(i));
+          nlengths.set(i, lengths.get(i));
         }
-        kmap.put(w, wfreq);
+        docs = ndocs;
+        lengths = nlengths;
       }
+      lengths.set(docId - baseDocs, kmap.length());
     }
+    totalLength.addAndGet(kmap.length());
 
-    // update this with DocCnt objects
-    if (!kmap.isEmpty()) {
-      Vector docVector;
-      DocCnt dc;
+    String w;
+    PostingList postings;
+    Buffer b;
+    int n; // number of documents in b
+    bufferLock.readLock().lock();
+    try {
+      b = state.buffer;
       for (Enumeration e = kmap.keys(); e.hasMoreElements();) {
         w = (String) e.nextElement();
-        dc = new DocCnt(d, ((Integer) kmap.get(w)).intValue());
-        docVector = (Vector) table.get(w);
-        if (docVector == null)
-          docVector = new Vector();
-        docVector.add(dc);
-        table.put(w, docVector);
+        postings = b.table.get(w);
+        if (postings == null) {
+          PostingList np = new PostingList();
+          postings = b.table.putIfAbsent(w, np);
+          if (postings == null) {
+            postings = np;
+            // maybe a new keyword
+            if (fuzzyForwarding)
+              fuzzy.add(w);
+          }
+        }
+        postings.add(docId, kmap.positions(w));
       }
+      n = b.numDocs.incrementAndGet();
+    } finally {
+      bufferLock.readLock().unlock();
+    }
 
-      return kmap;
-    } else {
-      return null;
+    if (n >= bufferSize && swap(b)) {
+      final Buffer full = b;
+      MERGER.execute(new Runnable() {
+        public void run() {
+          freeze(full);
+        }
+      });
     }
+
+    return docId;
+  }
+
+  /**
+   * A method to load documents and their postings into an empty table.
+   * 
+   * @param ds
+   *          the documents, indexed by their ids
+   * @param lens
+   *          the lengths in words of <code>ds</code>
+   * @param seg
+   *          a segment holding the postings of <code>ds</code>
+   * @requires <code>this</code> is empty and has no base index
+   * @modifies <code>this</code>
+   * @effects makes <code>this</code> contain the published documents 
+   *          <code>ds</code> and the segment <code>seg</code>
+   * @version 
+   * - 4.5 <br>
+   * - 4.8 load the lengths of the documents
+   */
+  void load(Doc[] ds, int[] lens, Segment seg) {
+    AtomicReferenceArray<Doc> nds = new AtomicReferenceArray<>(Math.max(16, ds.length));
+    AtomicIntegerArray nlens = new AtomicIntegerArray(Math.max(16, ds.length));
+    long total = 0;
+    for (int i = 0; i < ds.length; i++) {
+      nds.set(i, ds[i]);
+      nlens.set(i, lens[i]);
+      total += lens[i];
+    }
+
+    synchronized (docLock) {
+      docs = nds;
+      lengths = nlens;
+      nextId = ds.length;
+    }
+    totalLength.set(total);
+
+    for (int i = 0; i < ds.length; i++) {
+      if (ds[i].title() != null)
+        titleIds.put(Helpers.canon(ds[i].title()), i);
+    }
+
+    synchronized (stateLock) {
+      state = new State(new Buffer(), new Buffer[0], new Segment[] { seg });
+    }
+    if (fuzzyForwarding) {
+      for (int i = 0; i < seg.termCount(); i++)
+        fuzzy.add(seg.term(i));
+    }
+  }
+
+  /**
+   * A method to freeze the write buffer of <code>this</code> into a new 
+   * segment.
+   * 
+   * @modifies <code>this</code>
+   * @effects if the write buffer is not empty replaces it with an empty one,
+   *          adds its postings to <code>this</code> as a new segment and 
+   *          schedules a background merge of the segments. Full buffers 
+   *          that are waiting to be frozen by the merger thread are frozen 
+   *          too, so that all postings are in segments on return.
+   * @version 4.3
+   */
+  public void flush() {
+    swap(state.buffer);
+    Buffer[] frozen = state.frozen;
+    for (int i = 0; i < frozen.length; i++)
+      freeze(frozen[i]);
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects if <code>b</code> is the current, non-empty write buffer then 
+   *          replaces it with an empty buffer, keeping <code>b</code> 
+   *          searchable until it is frozen, and returns <code>true</code>, 
+   *          else returns <code>false</code>
+   */
+  private boolean swap(Buffer b) {
+    bufferLock.writeLock().lock();
+    try {
+      synchronized (stateLock) {
+        State s = state;
+        if (s.buffer != b || b.numDocs.get() == 0)
+          return false;
+
+        Buffer[] frozen = Arrays.copyOf(s.frozen, s.frozen.length + 1);
+        frozen[s.frozen.length] = b;
+        state = new State(new Buffer(), frozen, s.segments);
+        return true;
+      }
+    } finally {
+      bufferLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @requires <code>b</code> has been replaced by <code>swap</code>
+   * @modifies <code>this</code>
+   * @effects if <code>b</code> has not been frozen then replaces it with a 
+   *          segment holding its postings and schedules a background merge; 
+   *          returns when <code>b</code> has been frozen
+   */
+  private void freeze(Buffer b) {
+    synchronized (b) {
+      if (b.frozen)
+        return;
+
+      // b is no longer written to, so no lock is needed to read it
+      Segment seg = Segment.freeze(b.table, b.numDocs.get(), deleted);
+      synchronized (stateLock) {
+        State s = state;
+        Vector<Buffer> frozen = new Vector<>(Arrays.asList(s.frozen));
+        frozen.remove(b);
+        Segment[] segs = Arrays.copyOf(s.segments, s.segments.length + 1);
+        segs[s.segments.length] = seg;
+        state = new State(s.buffer, frozen.toArray(new Buffer[frozen.size()]), 
+            segs);
+      }
+      b.frozen = true;
+    }
+
+    scheduleMerge();
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects if no merge of <code>this</code> is scheduled then schedules one 
+   *          on the merger thread
+   */
+  private void scheduleMerge() {
+    synchronized (stateLock) {
+      if (merging)
+        return;
+      merging = true;
+    }
+
+    MERGER.execute(new Runnable() {
+      public void run() {
+        mergeSegments();
+      }
+    });
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects repeatedly merges the segments chosen by 
+   *          <code>selectMerge</code> until there are none
+   */
+  private void mergeSegments() {
+    try {
+      while (true) {
+        Segment[] cands;
+        synchronized (stateLock) {
+          cands = selectMerge(state.segments);
+          if (cands == null) {
+            merging = false;
+            return;
+          }
+        }
+
+        replace(cands, Segment.merge(cands, deleted));
+      }
+    } catch (RuntimeException e) {
+      synchronized (stateLock) {
+        merging = false;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * @modifies <code>this</code>
+   * @effects if all of <code>olds</code> are live segments of 
+   *          <code>this</code> replaces them by <code>merged</code> and 
+   *          returns <code>true</code>, else returns <code>false</code> (they 
+   *          have been replaced by another merge) 
+   */
+  private boolean replace(Segment[] olds, Segment merged) {
+    synchronized (stateLock) {
+      State s = state;
+      Vector<Segment> segs = new Vector<>(Arrays.asList(s.segments));
+      if (!segs.containsAll(Arrays.asList(olds)))
+        return false;
+
+      segs.removeAll(Arrays.asList(olds));
+      segs.add(merged);
+      state = new State(s.buffer, s.frozen, 
+          segs.toArray(new Segment[segs.size()]));
+      return true;
+    }
+  }
+
+  /**
+   * A method to physically drop the postings of removed documents. 
+   * 
+   * @modifies <code>this</code>
+   * @effects freezes the write buffer and merges all live segments of 
+   *          <code>this</code> into one that contains no postings of removed
+   *          documents. The postings of the base index, if any, are not 
+   *          changed; its removed documents remain filtered at look-up time.
+   * @version 4.6
+   */
+  public void compact() {
+    flush();
+    while (true) {
+      Segment[] segs = state.segments;
+      if (segs.length == 0 || replace(segs, Segment.merge(segs, deleted)))
+        return;
+      // a background merge changed the segments, try again
+    }
+  }
+
+  /**
+   * @effects if <code>segs</code> contain <code>mergeFactor</code> segments 
+   *          of the same tier returns the first of these segments of the 
+   *          lowest such tier, else returns <code>null</code>. The tier of a 
+   *          segment of <code>n</code> documents is the integral part of 
+   *          <code>log(n / bufferSize)</code> to base <code>mergeFactor</code>.  
+   */
+  private Segment[] selectMerge(Segment[] segs) {
+    int[] tiers = new int[segs.length];
+    int maxTier = 0;
+    for (int i = 0; i < segs.length; i++) {
+      int tier = 0;
+      for (long size = (long) bufferSize * mergeFactor; 
+          segs[i].numDocs() >= size; size *= mergeFactor) {
+        tier++;
+      }
+      tiers[i] = tier;
+      if (tier > maxTier)
+        maxTier = tier;
+    }
+
+    for (int tier = 0; tier <= maxTier; tier++) {
+      Segment[] cands = new Segment[mergeFactor];
+      int n = 0;
+      for (int i = 0; i < segs.length && n < mergeFactor; i++) {
+        if (tiers[i] == tier)
+          cands[n++] = segs[i];
+      }
+      if (n == mergeFactor)
+        return cands;
+    }
+
+    return null;
+  }
+
+  /**
+   * A method to make a document that was indexed by <code>index</code> 
+   * visible to lookups.
+   * 
+   * @param docId
+   *          the id returned by <code>index</code> for <code>d</code>
+   * @param d
+   *          the document
+   * @modifies <code>this</code>
+   * @effects maps <code>docId</code> to <code>d</code>
+   * @version 4.2
+   */
+  void publish(int docId, Doc d) {
+    // hold the lock so that the mapping is not lost by a concurrent resize 
+    synchronized (docLock) {
+      docs.set(docId - baseDocs, d);
+    }
+
+    if (d.title() != null)
+      titleIds.put(Helpers.canon(d.title()), docId);
+  }
+
+  /**
+   * @effects if <code>d</code> is a published document of <code>this</code> 
+   *          returns its id, else returns -1
+   * @version 5.0
+   */
+  int docId(Doc d) {
+    if (d.title() == null)
+      return -1;
+
+    String ct = Helpers.canon(d.title());
+    Integer id = titleIds.get(ct);
+    int docId = (id != null) ? id.intValue() : -1;
+    if (docId < 0 && base != null)
+      docId = base.docId(ct);
+
+    if (docId < 0)
+      return -1;
+
+    // the documents of the base index are created each time they are looked 
+    // up; a removed one has no document
+    Doc p = doc(docId);
+    return (p != null && (p == d || docId < baseDocs)) ? docId : -1;
+  }
+
+  /**
+   * A method to remove a document from <code>this</code>.
+   * 
+   * @param t
+   *          the title of the document
+   * @modifies <code>this</code>
+   * @effects if a published document of <code>this</code> has title 
+   *          <code>t</code> records its id as deleted, so that it is no 
+   *          longer returned by look-ups, and returns the id; else returns -1.
+   * @version 4.6
+   */
+  public int removeDoc(String t) {
+    String ct = Helpers.canon(t);
+    Integer id = titleIds.remove(ct);
+    int docId = (id != null) ? id.intValue() : -1;
+    if (docId < 0 && base != null) {
+      docId = base.docId(ct);
+      if (docId >= 0 && deleted.contains(docId))
+        docId = -1;
+    }
+
+    if (docId >= 0)
+      discard(docId);
+
+    return docId;
+  }
+
+  /**
+   * @requires <code>docId</code> is an id returned by <code>index</code> or 
+   *           of a base document
+   * @modifies <code>this</code>
+   * @effects records <code>docId</code> as deleted and releases its document
+   * @version 4.6
+   */
+  void discard(int docId) {
+    if (deleted.add(docId))
+      totalLength.addAndGet(-docLength(docId));
+    if (docId >= baseDocs) {
+      synchronized (docLock) {
+        docs.set(docId - baseDocs, null);
+      }
+    }
+  }
+
+  /**
+   * @effects returns the number of documents that have been removed from 
+   *          <code>this</code>
+   * @version 4.6
+   */
+  public int deletedCount() {
+    return deleted.size();
   }
 
   /**
@@ -141,19 +726,27 @@ public class WordTable {
    * @effects If <code>w</code> is <code>null</code> or a nonword or an
    *          uninteresting word returns <code>false</code> else returns
    *          <code>true</code>.
-   * @version 3.0
+   * @version 
+   * - 3.0 <br>
+   * - 4.1 look up <code>w</code> in the <code>StopWords</code> set
    */
   boolean isInteresting(String w) {
-    if (w != null) {
-      Object v = table.get(w);
-      if (v != null && !(v instanceof Vector)) {
-        return false; // v is the text "null", which is mapped to all uninteresting words
-      } else {
-        return true;
-      }
-    } else {
-      return false;
-    }
+    return w != null && !nonkeys.contains(w);
+  }
+
+  /**
+   * A method to find the key of a word of a query.
+   * 
+   * @param w
+   *          A word
+   * @requires <code>w</code> is not <code>null</code>
+   * @effects if <code>w</code> is dropped by the analyzer of <code>this</code> 
+   *          returns <code>null</code>, else returns its canonical form, as 
+   *          for the words of the documents
+   * @version 5.2
+   */
+  String canon(String w) {
+    return analyzer.analyze(w);
   }
 
   /**
@@ -164,17 +757,286 @@ public class WordTable {
    * @requires <code>k</code> is not <code>null</code>
    * @effects Returns a vector of <code>DocCnt</code>s where <code>Doc</code>
    *          contains <code>k</code> <code>cnt</code> times.
-   * @version 3.0
+   * @version 
+   * - 3.0 <br>
+   * - 4.0 decode the <code>DocCnt</code>s from the postings of <code>k</code> <br>
+   * - 4.2 skip documents that are not yet published 
    */
   public Vector lookup(String k) {
-    Object dv = table.get(k);
-    if (dv != null && !dv.equals("null")) {
-      return (Vector) dv;
+    PostingCursor c = cursor(k);
+    if (c != null) {
+      Vector dv = new Vector();
+      Doc d;
+      while (c.next()) {
+        d = doc(c.docId());
+        if (d != null) {
+          dv.add(new DocCnt(d, c.count()));
+        }
+      }
+      return dv;
     } else {
       return null;
     }
   }
 
+  /**
+   * A method to look up the postings of a keyword.
+   * 
+   * @param k
+   *          a keyword to look up
+   * @requires <code>k</code> is not <code>null</code>
+   * @effects if <code>k</code> is a keyword of <code>this</code> returns a
+   *          cursor over its postings in the base index, the write buffer and
+   *          all segments, else returns <code>null</code>.
+   * @version 
+   * - 4.3 <br>
+   * - 4.4 include the postings of the base index
+   */
+  public PostingCursor cursor(String k) {
+    State s = state;
+    Vector<PostingCursor> cs = new Vector<>();
+    if (base != null) {
+      PostingCursor bc = base.cursor(k);
+      if (bc != null)
+        cs.add(bc);
+    }
+
+    PostingList postings = s.buffer.table.get(k);
+    if (postings != null)
+      cs.add(postings.cursor());
+    for (int i = 0; i < s.frozen.length; i++) {
+      postings = s.frozen[i].table.get(k);
+      if (postings != null)
+        cs.add(postings.cursor());
+    }
+
+    PostingCursor c;
+    for (int i = 0; i < s.segments.length; i++) {
+      c = s.segments[i].cursor(k);
+      if (c != null)
+        cs.add(c);
+    }
+
+    if (cs.isEmpty())
+      return null;
+    else if (cs.size() == 1)
+      return cs.get(0);
+    else
+      return new MergedCursor(cs.toArray(new PostingCursor[cs.size()]));
+  }
+
+  /**
+   * A method to check if a keyword is found in any documents.
+   * 
+   * @param k
+   *          a keyword to look up
+   * @requires <code>k</code> is not <code>null</code>
+   * @effects if a published document of <code>this</code> that has not been 
+   *          removed contains <code>k</code> returns <code>true</code>, else 
+   *          returns <code>false</code>
+   * @version 4.6
+   */
+  public boolean isFound(String k) {
+    PostingCursor c = cursor(k);
+    if (c == null)
+      return false;
+
+    AtomicReferenceArray<Doc> ds = docs;
+    int id;
+    while (c.next()) {
+      id = c.docId();
+      if (!deleted.contains(id) && (id < baseDocs 
+          || (id - baseDocs < ds.length() && ds.get(id - baseDocs) != null)))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * A method to count the documents that contain a keyword.
+   * 
+   * @param k
+   *          a keyword to look up
+   * @requires <code>k</code> is not <code>null</code>
+   * @effects returns the number of documents in <code>this</code> that 
+   *          contain <code>k</code>, including removed documents whose 
+   *          postings have not yet been dropped by a merge  
+   * @version 4.3
+   */
+  public int docFreq(String k) {
+    State s = state;
+    PostingList postings = s.buffer.table.get(k);
+    int df = (postings != null) ? postings.size() : 0;
+    for (int i = 0; i < s.frozen.length; i++) {
+      postings = s.frozen[i].table.get(k);
+      if (postings != null)
+        df += postings.size();
+    }
+    if (base != null)
+      df += base.docFreq(k);
+    for (int i = 0; i < s.segments.length; i++) {
+      df += s.segments[i].docFreq(k);
+    }
+    return df;
+  }
+
+  /**
+   * @requires <code>k</code> is not <code>null</code>
+   * @effects returns the largest number of occurrences of <code>k</code> in a 
+   *          document of <code>this</code>, including removed documents whose 
+   *          postings have not yet been dropped by a merge  
+   * @version 4.9
+   */
+  public int maxCount(String k) {
+    State s = state;
+    PostingList postings = s.buffer.table.get(k);
+    int max = (postings != null) ? postings.maxCount() : 0;
+    for (int i = 0; i < s.frozen.length; i++) {
+      postings = s.frozen[i].table.get(k);
+      if (postings != null)
+        max = Math.max(max, postings.maxCount());
+    }
+    if (base != null)
+      max = Math.max(max, base.maxCount(k));
+    for (int i = 0; i < s.segments.length; i++) {
+      max = Math.max(max, s.segments[i].maxCount(k));
+    }
+    return max;
+  }
+
+  /**
+   * @effects returns the keywords of <code>this</code> in ascending order
+   * @version 4.3
+   */
+  SortedSet<String> keywords() {
+    State s = state;
+    SortedSet<String> ks = new TreeSet<>(s.buffer.table.keySet());
+    for (int i = 0; i < s.frozen.length; i++)
+      ks.addAll(s.frozen[i].table.keySet());
+    if (base != null)
+      base.addKeywords(ks);
+    for (int i = 0; i < s.segments.length; i++) {
+      for (int j = 0; j < s.segments[i].termCount(); j++) {
+        ks.add(s.segments[i].term(j));
+      }
+    }
+    return ks;
+  }
+
+  /**
+   * A method to find the keywords that are similar to a word.
+   * 
+   * @param w
+   *          a word in canonical form
+   * @param maxEdits
+   *          the largest number of edits
+   * @requires <code>w</code> is not <code>null</code> and 
+   *           <code>0 &lt;= maxEdits &lt;= FuzzyIndex.MAX_EDITS</code>
+   * @effects returns the keywords of <code>this</code> whose Levenshtein 
+   *          distance to <code>w</code> is at most <code>maxEdits</code>, in 
+   *          ascending order of distance, including keywords whose documents 
+   *          have all been removed. The first call indexes all the keywords 
+   *          of <code>this</code>; later calls only look up the deletions of 
+   *          <code>w</code>.
+   * @version 5.3
+   */
+  Vector<String> similar(String w, int maxEdits) {
+    if (!fuzzyBuilt) {
+      synchronized (fuzzy) {
+        if (!fuzzyBuilt) {
+          // index adds the keywords that are new from now on, so none is 
+          // missed by the snapshot of the keywords
+          fuzzyForwarding = true;
+          for (String k : keywords())
+            fuzzy.add(k);
+          // only now may other threads look up the index without the lock
+          fuzzyBuilt = true;
+        }
+      }
+    }
+
+    return fuzzy.lookup(w, maxEdits);
+  }
+
+  /**
+   * @effects returns the number of live segments of <code>this</code>, not 
+   *          counting the write buffer
+   * @version 4.3
+   */
+  public int segmentCount() {
+    return state.segments.length;
+  }
+
+  /**
+   * A method to look up a document by its id.
+   * 
+   * @param id
+   *          a document id
+   * @effects if <code>id</code> is the id of a published document in 
+   *          <code>this</code> returns the document, else returns 
+   *          <code>null</code>.
+   * @version 
+   * - 4.0 <br>
+   * - 4.2 return <code>null</code> for unpublished documents <br>
+   * - 4.4 look up the documents of the base index <br>
+   * - 4.6 return <code>null</code> for removed documents
+   */
+  public Doc doc(int id) {
+    if (deleted.contains(id))
+      return null;
+
+    if (id < baseDocs)
+      return (id >= 0) ? base.doc(id) : null;
+
+    AtomicReferenceArray<Doc> ds = docs;
+    id -= baseDocs;
+    return (id < ds.length()) ? ds.get(id) : null;
+  }
+
+  /**
+   * @requires <code>0 &lt;= id &lt; maxDocId()</code>
+   * @effects returns the length in words of the document whose id is 
+   *          <code>id</code>
+   * @version 4.8
+   */
+  public int docLength(int id) {
+    if (id < baseDocs)
+      return base.docLength(id);
+
+    return lengths.get(id - baseDocs);
+  }
+
+  /**
+   * @effects returns the number of documents in <code>this</code> that have 
+   *          not been removed, including those that are not yet published
+   * @version 4.8
+   */
+  public int numDocs() {
+    return maxDocId() - deleted.size();
+  }
+
+  /**
+   * @effects returns the average length in words of the documents in 
+   *          <code>this</code> that have not been removed, or 0 if there are
+   *          none
+   * @version 4.8
+   */
+  public double avgDocLength() {
+    int n = numDocs();
+    return (n > 0) ? (double) totalLength.get() / n : 0;
+  }
+
+  /**
+   * @effects returns an id that is greater than the ids of all documents in
+   *          <code>this</code> 
+   * @version 4.4
+   */
+  int maxDocId() {
+    synchronized (docLock) {
+      return nextId;
+    }
+  }
+
   /**
    * A method to return all none-keywords in as a string for display
    * 
@@ -182,13 +1044,10 @@ public class WordTable {
    * @note this method is not in the original design of this class
    */
   public String getNonkeys() {
+    String[] words = nonkeys.words();
     StringBuffer sb = new StringBuffer();
-    for (Enumeration e = table.keys(); e.hasMoreElements();) {
-      String w = (String) e.nextElement();
-      Object v = lookup(w);
-      if (v == null) {
-        sb.append(w).append(" ");
-      }
+    for (int i = 0; i < words.length; i++) {
+      sb.append(words[i]).append(" ");
     }
 
     if (sb.length() > 0) {
@@ -208,16 +1067,17 @@ public class WordTable {
   public String toString() {
     StringBuffer sb = new StringBuffer();
     StringBuffer sbk = new StringBuffer();
-    for (Enumeration e = table.keys(); e.hasMoreElements();) {
-      String w = (String) e.nextElement();
+    String[] words = nonkeys.words();
+    for (int i = 0; i < words.length; i++) {
+      // non-key
+      sb.append(words[i]).append("\n");
+    }
+
+    for (Iterator<String> ks = keywords().iterator(); ks.hasNext();) {
+      String w = ks.next();
       Vector dv = lookup(w);
-      if (dv == null) {
-        // non-key
-        sb.append(w).append("\n");
-      } else {
-        // key
-        sbk.append(w).append("->[").append(dv.size()).append("]").append(dv.toString()).append("\n");
-      }
+      // key
+      sbk.append(w).append("->[").append(dv.size()).append("]").append(dv.toString()).append("\n");
     }
 
     if (sb.length() > 0) {
@@ -231,4 +1091,30 @@ public class WordTable {
       return null;
     }
   }
+
+  /**
+   * @overview The write buffer of a word table. 
+   */
+  private static class Buffer {
+    final ConcurrentHashMap<String,PostingList> table = new ConcurrentHashMap<>();
+    final AtomicInteger numDocs = new AtomicInteger();
+    // whether the buffer has been replaced by a segment, guarded by this
+    boolean frozen;
+  }
+
+  /**
+   * @overview An immutable snapshot of the write buffer, the full buffers 
+   *           that are being frozen and the live segments of a word table. 
+   */
+  private static class State {
+    final Buffer buffer;
+    final Buffer[] frozen;
+    final Segment[] segments;
+
+    State(Buffer buffer, Buffer[] frozen, Segment[] segments) {
+      this.buffer = buffer;
+      this.frozen = frozen;
+      this.segments = segments;
+    }
+  }
 }